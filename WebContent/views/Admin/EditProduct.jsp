@@ -16,6 +16,7 @@
 		action="${pageContext.servletContext.contextPath}/admin/edit-product"
 		method="POST">
 		<input type="hidden" name="id" value="${product.id}">
+		<input type="hidden" name="version" value="${product.version}">
 		<table>
 			<tr>
 				<td align="right">Новое наименование :</td>
@@ -39,7 +40,7 @@
 			<tr>
 				<td align="right">Новая цена :</td>
 				<td><input type="text" name="price" value="222"></td>
-				<td align="right">Текущая цена - "${product.price}"</td>
+				<td align="right">Текущая цена - "${product.formattedPrice}"</td>
 			</tr>
 			<tr>
 				<td align="right">Новая дата изготовления :</td>
@@ -73,6 +74,8 @@
 		</table>
 	</form>
 
+	<p align="center" style="color: red;"> ${ERROR_PRODUCT_EDIT} </p>
+
 	<a href="${pageContext.servletContext.contextPath}/admin/view">
 		Вернуться </a>
 
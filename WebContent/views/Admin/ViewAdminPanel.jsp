@@ -37,7 +37,7 @@ include file ='/css/style.css'
 				<th>- Действия -</th>
 			</tr>
 			<thead>
-			<%-- В переменной products передаются только значения hashmap товаров --%>
+			<%-- В переменной products передается текущая страница каталога --%>
 			<tbody>
 			<c:forEach var="product" items="${products}" varStatus="status">
 				<tr valign="top">
@@ -45,7 +45,7 @@ include file ='/css/style.css'
 					<td>${product.productName}</td>
 					<td>${product.categoryId}</td>
 					<td>${product.manufacturerName}</td>
-					<td>${product.price}</td>
+					<td>${product.formattedPrice}</td>
 					<td>${product.creationDate}</td>
 					<td>${product.colour}</td>
 					<td>${product.size}</td>
@@ -59,9 +59,32 @@ include file ='/css/style.css'
 			</c:forEach>
 			</tbody>
 		</table>
+		<%--Постраничный просмотр каталога--%>
+		<p>
+			Сортировка:
+			<a href="${pageContext.servletContext.contextPath}/admin/view?sort=id">по ID</a> |
+			<a href="${pageContext.servletContext.contextPath}/admin/view?sort=price">по цене</a> |
+			<a href="${pageContext.servletContext.contextPath}/admin/view?sort=name">по наименованию</a> <br>
+			<a href="${pageContext.servletContext.contextPath}/admin/view?sort=${productPage.sort}">Первая страница</a>
+			<c:if test="${not empty productPage.nextCursor}">
+				| <a href="${pageContext.servletContext.contextPath}/admin/view?sort=${productPage.sort}&after=${productPage.nextCursor}">Следующая страница</a>
+			</c:if>
+		</p>
 		<a class="link"
 			href="${pageContext.servletContext.contextPath}/views/Admin/CreateProduct.jsp">
-			Добавить товар </a> <br> <br> <br> <br>
+			Добавить товар </a> <br>
+		<p>
+			Выгрузка: товары
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=products&format=csv">CSV</a>
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=products&format=json">JSON</a>,
+			заказы
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=orders&format=csv">CSV</a>
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=orders&format=json">JSON</a>,
+			строки заказов
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=order-lines&format=csv">CSV</a>
+			<a href="${pageContext.servletContext.contextPath}/admin/export?type=order-lines&format=json">JSON</a>
+		</p>
+		<br> <br>
 		<form action="${pageContext.servletContext.contextPath}/logout"
 			method="POST">
 			<input type="submit" align="center" value="Выйти из системы">
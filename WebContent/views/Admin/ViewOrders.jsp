@@ -35,14 +35,14 @@ include file ='/css/style.css'
 				</td>
 				<td>- Данные о товарах -</td>
 			</tr>
-			<%-- В переменной userOrders передаются и ключи, и значения hashmap заказов --%>
+			<%-- В переменной передаются заказы (значения IntObjectMap) --%>
 			<c:forEach var="order" items="${orders}" varStatus="status">
 				<tr valign="top">
-					<td>${order.value.id}</td>
-					<td>${order.value.userLogin}</td>
-					<td>${order.value.status}<br>
+					<td>${order.id}</td>
+					<td>${order.userLogin}</td>
+					<td>${order.status}<br>
 						<form
-							action="${pageContext.servletContext.contextPath}/admin/change-order-status?orderId=${order.value.id}"
+							action="${pageContext.servletContext.contextPath}/admin/change-order-status?orderId=${order.id}"
 							method="POST">
 							<p>
 								<select size="1" name="newOrderStatus">
@@ -56,7 +56,7 @@ include file ='/css/style.css'
 								<input type="submit" value="Изменить">
 							</p>
 						</form>
-					<td>${order.value.totalPrice}</td>
+					<td>${order.formattedTotalPrice}</td>
 					<td>
 						<table>
 							<tr class="table_head">
@@ -72,18 +72,18 @@ include file ='/css/style.css'
 								<td>- Заказанное <br> количество -
 								</td>
 							</tr>
-							<c:forEach var="product" items="${order.value.orderedProducts}"
+							<c:forEach var="product" items="${order.orderedProducts.values()}"
 								varStatus="status">
 								<tr valign="top">
-									<td>${product.value.id}</td>
-									<td>${product.value.productName}</td>
-									<td>${product.value.categoryId}</td>
-									<td>${product.value.manufacturerName}</td>
-									<td>${product.value.price}</td>
-									<td>${product.value.creationDate}</td>
-									<td>${product.value.colour}</td>
-									<td>${product.value.size}</td>
-									<td>${product.value.amount}</td>
+									<td>${product.id}</td>
+									<td>${product.productName}</td>
+									<td>${product.categoryId}</td>
+									<td>${product.manufacturerName}</td>
+									<td>${product.formattedPrice}</td>
+									<td>${product.creationDate}</td>
+									<td>${product.colour}</td>
+									<td>${product.size}</td>
+									<td>${product.amount}</td>
 								</tr>
 							</c:forEach>
 						</table>
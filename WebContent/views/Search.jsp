@@ -0,0 +1,57 @@
+<%@ page language="java" contentType="text/html; charset=UTF-8"
+	pageEncoding="UTF-8"%>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+
+<html>
+<head>
+<title>Поиск товаров</title>
+<style>
+<%@
+include file ='/css/style.css'
+%>
+</style>
+</head>
+<body class="user">
+
+	<h1>Поиск товаров</h1>
+	<form action="${pageContext.servletContext.contextPath}/search"
+		method="GET">
+		<input type="text" name="q" value="<c:out value="${query}"/>" size="40">
+		<input type="submit" align="center" value="Найти">
+	</form>
+	<p>Поиск по наименованию и производителю, можно вводить начало слова,
+		опечатки учитываются.</p>
+
+	<c:if test="${not empty query}">
+		<table border="1">
+			<caption>Найдено товаров - ${foundedProducts.size()} (${searchMicros} мкс)</caption>
+			<tr class="table_head">
+				<td>- ID -</td>
+				<td>- Наименование -</td>
+				<td>- Производитель -</td>
+				<td>- Цена -</td>
+				<td>- Цвет -</td>
+				<td>- Количество <br> на складе -</td>
+				<td>- Действия -</td>
+			</tr>
+			<c:forEach var="product" items="${foundedProducts}" varStatus="status">
+				<tr valign="top">
+					<td>${product.id}</td>
+					<td>${product.productName}</td>
+					<td>${product.manufacturerName}</td>
+					<td>${product.formattedPrice}</td>
+					<td>${product.colour}</td>
+					<td>${product.amount}</td>
+					<td><a
+						href="${pageContext.servletContext.contextPath}/add-to-basket?productId=${product.id}">
+							Добавить <br> в корзину
+					</a></td>
+				</tr>
+			</c:forEach>
+		</table>
+	</c:if>
+	<br>
+	<a href="${pageContext.servletContext.contextPath}/"> На главную </a>
+
+</body>
+</html>
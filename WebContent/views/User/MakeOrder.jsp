@@ -31,8 +31,7 @@
 	<form
 		action="${pageContext.servletContext.contextPath}/user/make-order"
 		method="POST">
-		<input type="hidden" name="userLogin" value="${userLogin}"> <input
-			type="submit" align="center" value="Оформить заказ">
+		<input type="submit" align="center" value="Оформить заказ">
 	</form>
 
 </body>
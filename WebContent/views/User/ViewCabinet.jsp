@@ -21,6 +21,38 @@ include file ='/css/style.css'
 			Вернуться в магазин </a>
 	</p>
 
+	<c:if test="${not empty acceptedTicket}">
+		<p>Заказ принят, номер заявки ${acceptedTicket}. Итог оформления
+			появится в таблице заявок.</p>
+	</c:if>
+
+	<%-- Заявки в очереди оформления --%>
+
+	<c:if test="${not empty orderTickets}">
+		<div class="orders">
+			<table border="1">
+				<caption>Заявки</caption>
+				<tr class="table_head">
+					<td>- Номер заявки -</td>
+					<td>- Состояние -</td>
+					<td>- ID заказа -</td>
+					<td>- Итоговая <br> стоимость -</td>
+					<td>- Примечание -</td>
+				</tr>
+				<c:forEach var="ticket" items="${orderTickets}">
+					<tr valign="top">
+						<td>${ticket.id}</td>
+						<td>${ticket.state}</td>
+						<td>${ticket.orderId >= 0 ? ticket.orderId : ''}</td>
+						<td>${ticket.formattedTotalPrice}</td>
+						<td>${ticket.message}</td>
+					</tr>
+				</c:forEach>
+			</table>
+		</div>
+		<br>
+	</c:if>
+
 	<%-- Список заказов --%>
 
 	<div class="orders">
@@ -32,12 +64,12 @@ include file ='/css/style.css'
 				<td>- Итоговая <br> стоимость -</td>
 				<td>- Данные о товарах -</td>
 			</tr>
-			<%-- В переменной userOrders передаются и ключи, и значения hashmap заказов --%>
+			<%-- В переменной передаются заказы (значения IntObjectMap) --%>
 			<c:forEach var="order" items="${userOrders}" varStatus="status">
 				<tr valign="top">
-					<td>${order.value.id}</td>
-					<td>${order.value.status}</td>
-					<td>${order.value.totalPrice}</td>
+					<td>${order.id}</td>
+					<td>${order.status}</td>
+					<td>${order.formattedTotalPrice}</td>
 					<td>
 						<table>
 							<tr class="table_head">
@@ -53,18 +85,18 @@ include file ='/css/style.css'
 								<td>- Заказанное <br> количество -
 								</td>
 							</tr>
-							<c:forEach var="product" items="${order.value.orderedProducts}"
+							<c:forEach var="product" items="${order.orderedProducts.values()}"
 								varStatus="status">
 								<tr valign="top">
-									<td>${product.value.id}</td>
-									<td>${product.value.productName}</td>
-									<td>${product.value.categoryId}</td>
-									<td>${product.value.manufacturerName}</td>
-									<td>${product.value.price}</td>
-									<td>${product.value.creationDate}</td>
-									<td>${product.value.colour}</td>
-									<td>${product.value.size}</td>
-									<td>${product.value.amount}</td>
+									<td>${product.id}</td>
+									<td>${product.productName}</td>
+									<td>${product.categoryId}</td>
+									<td>${product.manufacturerName}</td>
+									<td>${product.formattedPrice}</td>
+									<td>${product.creationDate}</td>
+									<td>${product.colour}</td>
+									<td>${product.size}</td>
+									<td>${product.amount}</td>
 								</tr>
 							</c:forEach>
 						</table>
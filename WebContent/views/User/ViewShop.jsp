@@ -2,6 +2,7 @@
 <%@ page language="java" contentType="text/html; charset=UTF-8"
 	pageEncoding="UTF-8"%>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+<%@ taglib prefix="shop" uri="/WEB-INF/tags/CatalogTags.tld"%>
 
 <html>
 <head>
@@ -15,11 +16,11 @@ include file ='/css/style.css'
 <body class="user">
 
 	<h1>Магазин</h1>
-	<p class="error">${ERROR_PRODUCT_AMOUNT}${ERROR_EMPTY_BASKET}</p>
+	<p class="error">${ERROR_PRODUCT_AMOUNT}${ERROR_EMPTY_BASKET}${ERROR_ORDER_QUEUE_FULL}</p>
 	<p>
 		Вы вошли под логином ${LOGGED_ACCOUNT.login}, роль ${ACCOUNT_ROLE} <br>
 		<br> <a
-			href="${pageContext.servletContext.contextPath}/user/cabinet?userLogin=${LOGGED_ACCOUNT.login}">
+			href="${pageContext.servletContext.contextPath}/user/cabinet">
 			Перейти в личный кабинет для просмотра заказов </a>
 	</p>
 	<br>
@@ -47,27 +48,22 @@ include file ='/css/style.css'
 					<th>- Действия -</th>
 				</tr>
 			</thead>
-			<%-- В переменной products передаются только значения hashmap товаров --%>
+			<%-- Строки текущей страницы каталога выводятся готовыми из кэша фрагментов --%>
 			<tbody>
-				<c:forEach var="product" items="${products}" varStatus="status">
-					<tr valign="top">
-						<td>${product.id}</td>
-						<td>${product.productName}</td>
-						<td>${product.categoryId}</td>
-						<td>${product.manufacturerName}</td>
-						<td>${product.price}</td>
-						<td>${product.creationDate}</td>
-						<td>${product.colour}</td>
-						<td>${product.size}</td>
-						<td>${product.amount}</td>
-						<td><a
-							href="${pageContext.servletContext.contextPath}/add-to-basket?productId=${product.id}">
-								Добавить <br> в корзину
-						</a></td>
-					</tr>
-				</c:forEach>
+				<shop:catalogRows page="${productPage}" addLabel="Добавить <br> в корзину" />
 			</tbody>
 		</table>
+		<%--Постраничный просмотр каталога--%>
+		<p>
+			Сортировка:
+			<a href="${pageContext.servletContext.contextPath}/user/view?sort=id">по ID</a> |
+			<a href="${pageContext.servletContext.contextPath}/user/view?sort=price">по цене</a> |
+			<a href="${pageContext.servletContext.contextPath}/user/view?sort=name">по наименованию</a> <br>
+			<a href="${pageContext.servletContext.contextPath}/user/view?sort=${productPage.sort}">Первая страница</a>
+			<c:if test="${not empty productPage.nextCursor}">
+				| <a href="${pageContext.servletContext.contextPath}/user/view?sort=${productPage.sort}&after=${productPage.nextCursor}">Следующая страница</a>
+			</c:if>
+		</p>
 		<br>
 		<form action="${pageContext.servletContext.contextPath}/logout"
 			method="POST">
@@ -109,7 +105,7 @@ include file ='/css/style.css'
 			</c:forEach>
 		</table>
 		<br> <a class="link"
-			href="${pageContext.servletContext.contextPath}/user/make-order?userLogin=${LOGGED_ACCOUNT.login}">
+			href="${pageContext.servletContext.contextPath}/user/make-order">
 			Оформить заказ </a> <br>
 		<p></p>
 		<p style="margin-left: 50px;">
@@ -124,22 +120,45 @@ include file ='/css/style.css'
 
 	<div class="foundedProducts">
 		<h3 class="paragraph">Поиск товаров (чувствителен к регистру)</h3>
+		<form class="paragraph" action="${pageContext.servletContext.contextPath}/search"
+			method="GET">
+			по наименованию и производителю - <input type="text" name="q" value="" size="27">
+			<input type="submit" align="center" value="Найти">
+		</form>
 		<p class="paragraph">
 			Здесь Вы можете найти товары по определенным параметрам: </p>
 			<form class="paragraph" action="${pageContext.servletContext.contextPath}/user/find-products"
 			method="POST">
 			производитель - 
 				<select size="1" name="manufacturerName">				
-					<option selected disabled>Производитель</option>
-					<c:forEach var="manufacturer" items="${manufacturers}" varStatus="status">
-					<option value="${manufacturer.name}">${manufacturer.name}</option>
+					<option value="">Любой производитель</option>
+					<%-- Для каждого производителя выводится количество товаров при остальных условиях выборки --%>
+					<c:forEach var="manufacturer" items="${facets.manufacturers}" varStatus="status">
+					<option value="${manufacturer.key}" ${manufacturer.key == productFilter.manufacturerName ? 'selected' : ''}>${manufacturer.key} (${manufacturer.value})</option>
 					</c:forEach> 				
 				</select> 
 			<br>
-			цена от - <input type="text" name="minPrice" value="" size="7"> до - <input type="text" name="maxPrice" value="" size="7"> <br>
-			цвет - <input type="text" name="colour" value="" size="27">	<br> <br>		
+			цена от - <input type="text" name="minPrice" value="${productFilter.minPrice}" size="7"> до - <input type="text" name="maxPrice" value="${productFilter.maxPrice}" size="7"> <br>
+			цвет - <input type="text" name="colour" value="${productFilter.colour}" size="27">	<br> <br>		
 				<input type="submit" align="center" value="Найти товары">
 			</form>
+		<p class="paragraph">
+			Найдено товаров: ${facets.total} <br>
+			Цвета:
+			<c:forEach var="colour" items="${facets.colours}" varStatus="status">
+				${colour.key} (${colour.value})<c:if test="${not status.last}">, </c:if>
+			</c:forEach>
+			<br>
+			Цены:
+			<c:forEach var="bucket" items="${facets.priceBuckets}" varStatus="status">
+				<c:choose>
+					<c:when test="${empty bucket.max}">от ${bucket.formattedMin}</c:when>
+					<c:otherwise>${bucket.formattedMin} - ${bucket.formattedMax}</c:otherwise>
+				</c:choose>
+				(${bucket.count})<c:if test="${not status.last}">, </c:if>
+			</c:forEach>
+			<c:if test="${not facets.complete}"><br> (количество товаров посчитано не полностью)</c:if>
+		</p>
 		<table border="1" id="grid">
 			<caption>Найденные товары</caption>
 			<thead>
@@ -167,7 +186,7 @@ include file ='/css/style.css'
 						<td>${product.productName}</td>
 						<td>${product.categoryId}</td>
 						<td>${product.manufacturerName}</td>
-						<td>${product.price}</td>
+						<td>${product.formattedPrice}</td>
 						<td>${product.creationDate}</td>
 						<td>${product.colour}</td>
 						<td>${product.size}</td>
@@ -1,6 +1,7 @@
 
 <%@ page language="java" contentType="text/html; charset=UTF-8" pageEncoding="UTF-8"%>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="shop" uri="/WEB-INF/tags/CatalogTags.tld" %>
 
 <html>
 <head>
@@ -33,26 +34,27 @@
         <th> - Действия - </th>
     </tr>
     </thead>
-    <%-- В переменной products передаются только значения hashmap товаров --%>
+    <%-- Строки текущей страницы каталога выводятся готовыми из кэша фрагментов --%>
     <tbody>
-    <c:forEach var="product" items="${products}" varStatus="status">
-        <tr valign="top">
-            <td>${product.id}</td>
-            <td>${product.productName}</td>   
-            <td>${product.categoryId}</td>
-            <td>${product.manufacturerName}</td>
-            <td>${product.price}</td>
-            <td>${product.creationDate}</td>
-            <td>${product.colour}</td>
-            <td>${product.size}</td>  
-            <td>${product.amount}</td>   
-            <td>
-                <a href="${pageContext.servletContext.contextPath}/add-to-basket?productId=${product.id}"> Добавить в корзину </a>
-            </td>
-        </tr>
-    </c:forEach>
+    <shop:catalogRows page="${productPage}" />
     </tbody>
-</table> <br>
+</table>
+<%--Постраничный просмотр каталога--%>
+<p>
+    Сортировка:
+    <a href="${pageContext.servletContext.contextPath}/unregistered?sort=id">по ID</a> |
+    <a href="${pageContext.servletContext.contextPath}/unregistered?sort=price">по цене</a> |
+    <a href="${pageContext.servletContext.contextPath}/unregistered?sort=name">по наименованию</a> <br>
+    <a href="${pageContext.servletContext.contextPath}/unregistered?sort=${productPage.sort}">Первая страница</a>
+    <c:if test="${not empty productPage.nextCursor}">
+        | <a href="${pageContext.servletContext.contextPath}/unregistered?sort=${productPage.sort}&after=${productPage.nextCursor}">Следующая страница</a>
+    </c:if>
+</p>
+<br>
+<form action="${pageContext.servletContext.contextPath}/search" method="GET">
+    Поиск товаров - <input type="text" name="q" value="" size="27">
+    <input type="submit" align="center" value="Найти">
+</form>
 <a href="${pageContext.servletContext.contextPath}/"> На главную </a> <p> </p>
 </div>
 
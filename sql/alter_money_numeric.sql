@@ -0,0 +1,11 @@
+-- Денежные суммы хранятся точно, в numeric(12,2), вместо real
+-- (в приложении суммы - целое число копеек, см. models.Money)
+
+ALTER TABLE public.products
+    ALTER COLUMN price TYPE numeric(12,2) USING round(price::numeric, 2);
+
+ALTER TABLE public.order_product
+    ALTER COLUMN price TYPE numeric(12,2) USING round(price::numeric, 2);
+
+ALTER TABLE public.orders
+    ALTER COLUMN total_price TYPE numeric(12,2) USING round(total_price::numeric, 2);
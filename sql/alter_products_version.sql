@@ -0,0 +1,5 @@
+-- Версия товара для частичного обновления с оптимистической блокировкой
+-- (каждое изменение товара увеличивает версию на 1)
+
+ALTER TABLE public.products
+    ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0;
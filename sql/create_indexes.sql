@@ -0,0 +1,15 @@
+
+-- Индексы для выборки заказов вместе с товарами одним запросом (orders left join order_product)
+
+create index order_product_order_id_idx on order_product (order_id);
+create index orders_account_name_fk_idx on orders (account_name_fk, order_id);
+
+-- Индекс для поиска товара по названию без учета регистра (getProductByProductName)
+
+create index products_lower_product_name_idx on products (lower(product_name));
+
+-- Индексы для постраничного просмотра каталога по цене и по наименованию (keyset pagination,
+-- по ID используется первичный ключ)
+
+create index products_price_id_idx on products ((coalesce(price, 0)), product_id);
+create index products_lower_name_id_idx on products ((lower(product_name) collate "C"), product_id);
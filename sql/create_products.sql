@@ -8,11 +8,12 @@ CREATE TABLE public.products
     product_name character varying(20) COLLATE pg_catalog."default" NOT NULL,
     category_id_fk integer NOT NULL,
     manufacturer_name_fk character varying COLLATE pg_catalog."default" NOT NULL,
-    price real,
+    price numeric(12,2),
     creation_date date,
     colour character varying(30) COLLATE pg_catalog."default",
     size character varying(30) COLLATE pg_catalog."default",
     amount_in_storage integer,
+    version integer NOT NULL DEFAULT 0,
     CONSTRAINT products_pkey PRIMARY KEY (product_id),
     CONSTRAINT products_category_id_fkey FOREIGN KEY (category_id_fk)
         REFERENCES public.categories (category_id) MATCH SIMPLE
@@ -0,0 +1,180 @@
+package filters;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Objects;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import models.Account;
+import models.Basket;
+import models.ProductFilter;
+import service.BasketUtil;
+import service.StorageIdentifier;
+import storages.Storage;
+
+/**
+ * Фильтр условных GET-запросов для страниц каталога (/unregistered,
+ * /user/view). ETag страницы составляется из версии каталога
+ * (Storage.getCatalogVersion()), отпечатка корзины посетителя и, для
+ * страницы покупателя, логина, роли и последней выборки товаров; адрес
+ * страницы (сортировка, курсор) входит в ключ кэша сам по себе. Если страница
+ * не изменилась, клиент получает 304 Not Modified без обращения к сервлету и
+ * без построения страницы.
+ * <p>
+ * Каждая страница каталога показывает корзину своей сессии (сервлет
+ * незарегистрированного посетителя тоже создает сессию), поэтому страница
+ * зависит от сессии и кэшируется только браузером (Cache-Control: private) с
+ * проверкой по ETag. Страница, на которой нужно показать сообщение об ошибке,
+ * не кэшируется.
+ *
+ * @author Anatolii Melchenko
+ */
+public class ConditionalCatalogFilter implements Filter {
+
+	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
+
+	/* Сообщения об ошибках хранятся в сессии в атрибутах с этим префиксом */
+	private static final String ERROR_ATTRIBUTE_PREFIX = "ERROR_";
+
+	/* Последняя версия каталога, которую видел фильтр, и время ее появления */
+	private volatile CatalogModified catalogModified = new CatalogModified(-1, 0);
+
+	@Override
+	public void init(FilterConfig fConfig) throws ServletException {
+
+	}
+
+	@Override
+	public void destroy() {
+
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		HttpServletRequest req = (HttpServletRequest) request;
+		HttpServletResponse resp = (HttpServletResponse) response;
+		String method = req.getMethod();
+		HttpSession session = req.getSession(false);
+		if (!("GET".equals(method) || "HEAD".equals(method)) || this.hasErrorMessages(session)) {
+			resp.setHeader("Cache-Control", "no-cache, no-store");
+			chain.doFilter(request, response);
+			return;
+		}
+		long catalogVersion = SHOP_WEB.getCatalogVersion();
+		long lastModified = this.catalogModified(catalogVersion);
+		Basket basket = session == null ? null : (Basket) session.getAttribute(BasketUtil.BASKET_ATTRIBUTE);
+		StringBuilder eTag = new StringBuilder("W/\"c").append(catalogVersion).append("-b")
+				.append(Long.toHexString(basket == null ? 0 : basket.fingerprint()));
+		Account account = session == null ? null : (Account) session.getAttribute("LOGGED_ACCOUNT");
+		if (account != null) {
+			ProductFilter filter = (ProductFilter) session.getAttribute("productFilter");
+			int userState = Objects.hash(account.getLogin(), session.getAttribute("ACCOUNT_ROLE"),
+					filter == null ? null : filter.getManufacturerName(), filter == null ? null : filter.getMinPrice(),
+					filter == null ? null : filter.getMaxPrice(), filter == null ? null : filter.getColour());
+			eTag.append("-u").append(Integer.toHexString(userState));
+		}
+		eTag.append('"');
+		if (basket != null) {
+			lastModified = Math.max(lastModified, basket.getLastModified());
+		}
+		/* Страница показывает корзину сессии, поэтому общим кэшам она не подходит */
+		resp.setHeader("Cache-Control", "private, no-cache");
+		resp.setHeader("Vary", "Cookie");
+		resp.setHeader("ETag", eTag.toString());
+		if (account == null) {
+			resp.setDateHeader("Last-Modified", lastModified);
+		}
+		if (this.isNotModified(req, eTag.toString(), account == null ? lastModified : -1)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	/*
+	 * Время, когда фильтр впервые увидел эту версию каталога. Версия и время
+	 * заменяются вместе, без блокировки: если два запроса увидят новую версию
+	 * одновременно, время ее появления может сдвинуться вперед на доли
+	 * секунды, что только заставит клиента перечитать страницу.
+	 */
+	private long catalogModified(long catalogVersion) {
+		CatalogModified current = this.catalogModified;
+		if (current.version != catalogVersion) {
+			/* Заголовок Last-Modified передается с точностью до секунды */
+			current = new CatalogModified(catalogVersion, System.currentTimeMillis() / 1000 * 1000);
+			this.catalogModified = current;
+		}
+		return current.modified;
+	}
+
+	private boolean hasErrorMessages(HttpSession session) {
+		if (session == null) {
+			return false;
+		}
+		for (Enumeration<String> names = session.getAttributeNames(); names.hasMoreElements();) {
+			String name = names.nextElement();
+			if (name.startsWith(ERROR_ATTRIBUTE_PREFIX)) {
+				Object message = session.getAttribute(name);
+				if (message != null && !message.toString().isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * If-None-Match сравнивается по ETag; If-Modified-Since учитывается, только
+	 * если If-None-Match нет (lastModified < 0 - не учитывается вовсе).
+	 */
+	private boolean isNotModified(HttpServletRequest req, String eTag, long lastModified) {
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			String opaqueTag = eTag.substring(2);
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				if (candidate.startsWith("W/")) {
+					candidate = candidate.substring(2);
+				}
+				if ("*".equals(candidate) || opaqueTag.equals(candidate)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (lastModified < 0) {
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = req.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/* Версия каталога и время ее появления, мс */
+	private static final class CatalogModified {
+
+		private final long version;
+		private final long modified;
+
+		CatalogModified(long version, long modified) {
+			this.version = version;
+			this.modified = modified;
+		}
+
+	}
+
+}
@@ -0,0 +1,135 @@
+package jstl;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import models.Product;
+import models.ProductPage;
+import service.CatalogFragmentCache;
+
+/**
+ * Тег выводит строки таблицы каталога для страницы page. Строки одинаковы для
+ * всех посетителей, поэтому они берутся готовыми из CatalogFragmentCache, а
+ * строятся только при первом показе страницы в текущей версии каталога.
+ * <p>
+ * Атрибуты: page - страница каталога (ProductPage), addLabel - текст ссылки
+ * "Добавить в корзину" (HTML).
+ *
+ * @author Anatolii Melchenko
+ */
+public class CatalogRowsTag extends TagSupport {
+
+	private static final long serialVersionUID = 1L;
+
+	private ProductPage page;
+	private String addLabel = "Добавить в корзину";
+
+	public void setPage(ProductPage page) {
+		this.page = page;
+	}
+
+	public void setAddLabel(String addLabel) {
+		this.addLabel = addLabel;
+	}
+
+	@Override
+	public int doStartTag() throws JspException {
+		if (page == null) {
+			return SKIP_BODY;
+		}
+		String contextPath = ((HttpServletRequest) pageContext.getRequest()).getContextPath();
+		/*
+		 * Версия каталога у хранилища JDBC без кэша учитывает только записи через
+		 * это приложение, поэтому в ключ входят и ID, версии и остатки товаров
+		 * страницы: это несколько десятков чисел против отрисовки всех ячеек.
+		 */
+		int contentHash = 1;
+		for (Product product : page.getProducts()) {
+			contentHash = 31 * contentHash + product.getId();
+			contentHash = 31 * contentHash + product.getVersion();
+			contentHash = 31 * contentHash + product.getAmount();
+		}
+		/*
+		 * Ключ составляется из того, что выбрал сервер, а не из курсора запроса:
+		 * любой курсор приводит к одной из существующих страниц, поэтому число
+		 * ключей не больше числа страниц каталога
+		 */
+		List<Product> products = page.getProducts();
+		int firstId = products.isEmpty() ? -1 : products.get(0).getId();
+		String key = page.getSort() + "|" + firstId + "|" + products.size() + "|" + contentHash + "|" + addLabel;
+		char[] rows = CatalogFragmentCache.getInstance().getFragment(page.getCatalogVersion(), key,
+				() -> this.render(contextPath));
+		try {
+			pageContext.getOut().write(rows);
+		} catch (IOException ioException) {
+			throw new JspException("Error: " + ioException.getMessage());
+		}
+		return SKIP_BODY;
+	}
+
+	@Override
+	public void release() {
+		super.release();
+		this.page = null;
+		this.addLabel = "Добавить в корзину";
+	}
+
+	private String render(String contextPath) {
+		StringBuilder rows = new StringBuilder(page.getProducts().size() * 512);
+		for (Product product : page.getProducts()) {
+			rows.append("<tr valign=\"top\">\n");
+			cell(rows, String.valueOf(product.getId()));
+			cell(rows, product.getProductName());
+			cell(rows, String.valueOf(product.getCategoryId()));
+			cell(rows, product.getManufacturerName());
+			cell(rows, product.getFormattedPrice());
+			cell(rows, product.getCreationDate() == null ? "" : String.valueOf(product.getCreationDate()));
+			cell(rows, product.getColour());
+			cell(rows, product.getSize());
+			cell(rows, String.valueOf(product.getAmount()));
+			rows.append("\t<td><a href=\"").append(contextPath).append("/add-to-basket?productId=")
+					.append(product.getId()).append("\"> ").append(addLabel).append(" </a></td>\n");
+			rows.append("</tr>\n");
+		}
+		return rows.toString();
+	}
+
+	private static void cell(StringBuilder rows, String value) {
+		rows.append("\t<td>");
+		if (value != null) {
+			escape(rows, value);
+		}
+		rows.append("</td>\n");
+	}
+
+	/* Значения полей товара выводятся как текст, а не как разметка */
+	private static void escape(StringBuilder rows, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '<':
+				rows.append("&lt;");
+				break;
+			case '>':
+				rows.append("&gt;");
+				break;
+			case '&':
+				rows.append("&amp;");
+				break;
+			case '"':
+				rows.append("&quot;");
+				break;
+			case '\'':
+				rows.append("&#39;");
+				break;
+			default:
+				rows.append(c);
+			}
+		}
+	}
+
+}
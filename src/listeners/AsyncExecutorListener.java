@@ -0,0 +1,28 @@
+package listeners;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import service.AsyncRequestUtil;
+import service.ParallelReads;
+
+/**
+ * Application Lifecycle Listener. Останавливает пулы потоков, в которых
+ * асинхронные запросы обращаются к хранилищу (AsyncRequestUtil,
+ * ParallelReads), при остановке приложения.
+ *
+ */
+public class AsyncExecutorListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent contextEvent) {
+		AsyncRequestUtil.getExecutor();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent contextEvent) {
+		AsyncRequestUtil.shutdown();
+		ParallelReads.shutdown();
+	}
+
+}
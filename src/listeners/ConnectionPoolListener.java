@@ -0,0 +1,26 @@
+package listeners;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import storages.ConnectionPool;
+
+/**
+ * Application Lifecycle Listener. Создает пул соединений при старте приложения
+ * (встроенный пул сразу открывает минимальное количество соединений) и
+ * закрывает его при остановке.
+ *
+ */
+public class ConnectionPoolListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent contextEvent) {
+		ConnectionPool.getInstance();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent contextEvent) {
+		ConnectionPool.getInstance().shutdown();
+	}
+
+}
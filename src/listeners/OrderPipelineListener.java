@@ -0,0 +1,27 @@
+package listeners;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import service.OrderPipeline;
+
+/**
+ * Application Lifecycle Listener. Запускает поток записи заказов при старте
+ * приложения и при остановке дожидается записи уже принятых заказов. В
+ * web.xml объявлен после ConnectionPoolListener, поэтому останавливается
+ * раньше, чем закрывается пул соединений.
+ *
+ */
+public class OrderPipelineListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent contextEvent) {
+		OrderPipeline.getInstance();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent contextEvent) {
+		OrderPipeline.getInstance().shutdown();
+	}
+
+}
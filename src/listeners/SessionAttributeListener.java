@@ -17,12 +17,22 @@ import storages.Storage;
  */
 public class SessionAttributeListener implements HttpSessionAttributeListener {
 	
+	private static final String LOGGED_ACCOUNT = "LOGGED_ACCOUNT";
+
 	private static String loggedAccount;
 	private static String accountRole;
 	
+	/*
+	 * В сессии хранятся и другие атрибуты (корзина, сообщения об ошибках, в том
+	 * числе у незарегистрированного посетителя), они не относятся ко входу в
+	 * систему и пропускаются
+	 */
 		@Override
 	public void attributeAdded(HttpSessionBindingEvent sessionBindingEvent) {
-		loggedAccount = ((Account) sessionBindingEvent.getSession().getAttribute("LOGGED_ACCOUNT")).getLogin();
+		if (!LOGGED_ACCOUNT.equals(sessionBindingEvent.getName())) {
+			return;
+		}
+		loggedAccount = ((Account) sessionBindingEvent.getValue()).getLogin();
 		accountRole = (String) sessionBindingEvent.getSession().getAttribute("ACCOUNT_ROLE");
 		System.out.println("Session Created, account = " + loggedAccount + ", role = " + accountRole
 				+ " logged in, time = " + new Date().toString());		
@@ -30,7 +40,11 @@ public class SessionAttributeListener implements HttpSessionAttributeListener {
 
 	@Override
 	public void attributeRemoved(HttpSessionBindingEvent sessionBindingEvent) {
-		loggedAccount = ((Account) sessionBindingEvent.getSession().getAttribute("LOGGED_ACCOUNT")).getLogin();
+		if (!LOGGED_ACCOUNT.equals(sessionBindingEvent.getName())) {
+			return;
+		}
+		/* Удаленное значение передается в событии, в сессии его уже нет */
+		loggedAccount = ((Account) sessionBindingEvent.getValue()).getLogin();
 		accountRole = (String) sessionBindingEvent.getSession().getAttribute("ACCOUNT_ROLE");
 		System.out.println("Session Destroyed, account = " + loggedAccount + ", role = " + accountRole
 				+ " logged out, time = " + new Date().toString());		
@@ -14,6 +14,9 @@ public class Account {
 	 */
 	private boolean isActive = true;
 
+	/* Роль аккаунта (admin или user) */
+	private String role;
+
 	public Account(String login) {
 		this.login = login;
 	}
@@ -55,4 +58,12 @@ public class Account {
 		this.password = password;
 	}
 
+	public String getRole() {
+		return role;
+	}
+
+	public void setRole(String role) {
+		this.role = role;
+	}
+
 }
@@ -1,78 +1,162 @@
 package models;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
 
-/*
- * Класс реализует корзину товаров для пользователя. На протяжении всего жизненного цикла приложения создается
- * только один экземпляр данного класса (шаблон проектирования Singleton).
+/**
+ * Класс реализует корзину товаров одного посетителя. Корзина хранится в его
+ * сессии (service.BasketUtil), поэтому у каждого посетителя она своя. В
+ * корзине хранятся только ID товаров и количество единиц - в двух массивах
+ * примитивов, по одному элементу на строку корзины. Наименование, цена и
+ * остальные атрибуты товара берутся из каталога в момент вывода корзины и
+ * оформления заказа, поэтому корзина занимает в памяти несколько десятков байт
+ * и дешево сериализуется при сохранении сессии на диск.
+ * <p>
+ * Несколько запросов одного посетителя могут выполняться одновременно, поэтому
+ * все обращения к корзине синхронизированы.
+ *
+ * @author Anatolii Melchenko
  */
-public class Basket {
+public class Basket implements Serializable {
+
+	private static final long serialVersionUID = 2L;
+
+	private static final int[] EMPTY = new int[0];
 
-	/*
-	 * Корзина товаров
-	 */
-	private ConcurrentHashMap<Integer, Product> bufferProducts;
-	
 	private static final String ERROR_PRODUCT_AMOUNT_NEGATIVE_VALUE = "Количество не может быть отрицательным.";
 
-	private Basket() {
-		bufferProducts = new ConcurrentHashMap<>();
+	/* Строки корзины в порядке добавления; длина массивов равна числу строк */
+	private int[] productIds = EMPTY;
+	private int[] amounts = EMPTY;
+
+	/* Время последнего изменения корзины, мс - для заголовка Last-Modified */
+	private long lastModified = System.currentTimeMillis();
+
+	public synchronized int size() {
+		return productIds.length;
 	}
 
-	/**
-	 * SingletonHolder is loaded on the first execution of Settings.getInstance() or
-	 * the first access to SettingsHolder.INSTANCE, not before.
-	 */
-	private static class BasketHolder {
-		private static final Basket INSTANCE = new Basket();
+	public synchronized boolean isEmpty() {
+		return productIds.length == 0;
 	}
 
-	public static Basket getInstance() {
-		return BasketHolder.INSTANCE;
+	/* ID товара и количество единиц в строке index (0 <= index < size()) */
+	public synchronized int productIdAt(int index) {
+		return productIds[index];
 	}
 
-	public ConcurrentHashMap<Integer, Product> getBufferProducts() {
-		return bufferProducts;
+	public synchronized int amountAt(int index) {
+		return amounts[index];
 	}
 
-	public void setBufferProducts(ConcurrentHashMap<Integer, Product> bufferProducts) {
-		this.bufferProducts = bufferProducts;
+	public synchronized long getLastModified() {
+		return lastModified;
 	}
 
-	/* Добавить товар в корзину. */
-	public int addToBasket(Product product) {
-		/* Создаем копию товара */
-		Product productForAdd = new Product(product);
-		productForAdd.setAmount(1);
-		bufferProducts.put(productForAdd.getId(), productForAdd);
-		return productForAdd.getId();
+	/*
+	 * Отпечаток содержимого корзины: у корзин с одинаковыми строками он
+	 * одинаковый. Используется в ETag страниц, на которых выводится корзина.
+	 */
+	public synchronized long fingerprint() {
+		long fingerprint = 1125899906842597L;
+		for (int i = 0; i < productIds.length; i++) {
+			fingerprint = 31 * fingerprint + productIds[i];
+			fingerprint = 31 * fingerprint + amounts[i];
+		}
+		return fingerprint;
 	}
 
-	/* Удалить товар из корзины. */
-	public void removeProduct(int id) {
-		bufferProducts.remove(id);
+	/* Количество единиц товара в корзине, 0 - если товара в корзине нет */
+	public synchronized int getAmount(int productId) {
+		int index = this.indexOf(productId);
+		return index < 0 ? 0 : amounts[index];
 	}
 
-	public void removeAllBufferProducts() {
-		Iterator<Map.Entry<Integer, Product>> iterator = bufferProducts.entrySet().iterator();
-		while (iterator.hasNext()) {
-			iterator.next();
-			iterator.remove();
+	/* Добавить товар в корзину в количестве одной единицы. */
+	public synchronized int addToBasket(int productId) {
+		int index = this.indexOf(productId);
+		if (index < 0) {
+			index = productIds.length;
+			productIds = Arrays.copyOf(productIds, index + 1);
+			amounts = Arrays.copyOf(amounts, index + 1);
+			productIds[index] = productId;
 		}
+		amounts[index] = 1;
+		lastModified = System.currentTimeMillis();
+		return productId;
+	}
+
+	/* Удалить товар из корзины. */
+	public synchronized void removeProduct(int productId) {
+		int index = this.indexOf(productId);
+		if (index < 0) {
+			return;
+		}
+		int last = productIds.length - 1;
+		int[] newProductIds = Arrays.copyOf(productIds, last);
+		int[] newAmounts = Arrays.copyOf(amounts, last);
+		System.arraycopy(productIds, index + 1, newProductIds, index, last - index);
+		System.arraycopy(amounts, index + 1, newAmounts, index, last - index);
+		productIds = newProductIds;
+		amounts = newAmounts;
+		lastModified = System.currentTimeMillis();
+	}
+
+	public synchronized void removeAllBufferProducts() {
+		productIds = EMPTY;
+		amounts = EMPTY;
+		lastModified = System.currentTimeMillis();
 	}
 
 	/*
 	 * Изменить количество единиц товара в корзине. Метод выполнится, только если
 	 * новое количество больше нуля.
 	 */
-	public void changeProductAmount(int id, int newAmount) {
+	public synchronized void changeProductAmount(int productId, int newAmount) {
 		if (newAmount > 0) {
-			bufferProducts.get(id).setAmount(newAmount);
+			int index = this.indexOf(productId);
+			if (index >= 0) {
+				amounts[index] = newAmount;
+				lastModified = System.currentTimeMillis();
+			}
 		} else {
 			throw new NumberFormatException(ERROR_PRODUCT_AMOUNT_NEGATIVE_VALUE);
 		}
 	}
 
+	/* Копия корзины на момент вызова - для вывода и оформления заказа */
+	public synchronized Basket copy() {
+		Basket copy = new Basket();
+		copy.productIds = productIds.clone();
+		copy.amounts = amounts.clone();
+		copy.lastModified = lastModified;
+		return copy;
+	}
+
+	/* В корзине несколько строк, поэтому линейный поиск быстрее хэш-таблицы */
+	private int indexOf(int productId) {
+		for (int i = 0; i < productIds.length; i++) {
+			if (productIds[i] == productId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/* Сессия может сохраняться одновременно с запросом, который меняет корзину */
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder("Basket{");
+		for (int i = 0; i < productIds.length; i++) {
+			builder.append(i == 0 ? "" : ", ").append(productIds[i]).append('x').append(amounts[i]);
+		}
+		return builder.append('}').toString();
+	}
+
 }
@@ -0,0 +1,270 @@
+package models;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Отображение с ключом - примитивом int (ID товара, ID заказа). Ключи не
+ * упаковываются в Integer: пары ключ - значение хранятся подряд в двух
+ * массивах, а для поиска по ключу используется таблица с открытой адресацией
+ * (линейное пробирование), в которой лежат номера пар. Перебор значений - это
+ * проход по массиву, без создания узлов и записей Map.Entry.
+ * <p>
+ * Класс не синхронизирован. Результаты запросов к хранилищу заполняются одним
+ * потоком, после чего вызывается freeze(), и дальше отображение только
+ * читается (в том числе одновременно несколькими потоками).
+ * <p>
+ * Порядок перебора - порядок добавления; при удалении на место удаленной пары
+ * переносится последняя.
+ *
+ * @author Anatolii Melchenko
+ */
+public final class IntObjectMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 8;
+
+	/* Пустая ячейка таблицы; в заполненной ячейке - номер пары + 1 */
+	private static final int EMPTY = 0;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	private int[] table;
+
+	private boolean frozen;
+
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/* expectedSize - ожидаемое количество пар, чтобы не расширять массивы */
+	public IntObjectMap(int expectedSize) {
+		int capacity = Math.max(expectedSize, DEFAULT_CAPACITY);
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.table = new int[IntObjectMap.tableSize(capacity)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int position = this.positionOf(key);
+		return position < 0 ? null : (V) values[position];
+	}
+
+	public boolean containsKey(int key) {
+		return this.positionOf(key) >= 0;
+	}
+
+	/* Добавляет пару или заменяет значение; возвращает предыдущее значение */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		this.checkNotFrozen();
+		int mask = table.length - 1;
+		int i = IntObjectMap.hash(key, mask);
+		while (table[i] != EMPTY) {
+			int position = table[i] - 1;
+			if (keys[position] == key) {
+				V previous = (V) values[position];
+				values[position] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		keys[size] = key;
+		values[size] = value;
+		table[i] = ++size;
+		if (size * 2 > table.length) {
+			this.rehash(table.length * 2);
+		}
+		return null;
+	}
+
+	/* Удаляет пару; возвращает удаленное значение или null */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		this.checkNotFrozen();
+		int mask = table.length - 1;
+		int i = IntObjectMap.hash(key, mask);
+		while (table[i] != EMPTY && keys[table[i] - 1] != key) {
+			i = (i + 1) & mask;
+		}
+		if (table[i] == EMPTY) {
+			return null;
+		}
+		int position = table[i] - 1;
+		V removed = (V) values[position];
+		this.deleteFromTable(i);
+		/* Последняя пара переносится на освободившееся место */
+		int last = size - 1;
+		if (position != last) {
+			int lastIndex = IntObjectMap.hash(keys[last], mask);
+			while (table[lastIndex] != last + 1) {
+				lastIndex = (lastIndex + 1) & mask;
+			}
+			table[lastIndex] = position + 1;
+			keys[position] = keys[last];
+			values[position] = values[last];
+		}
+		values[last] = null;
+		size = last;
+		return removed;
+	}
+
+	public void clear() {
+		this.checkNotFrozen();
+		Arrays.fill(values, 0, size, null);
+		Arrays.fill(table, EMPTY);
+		size = 0;
+	}
+
+	/*
+	 * Запрещает дальнейшие изменения. После этого отображение можно отдавать
+	 * другим потокам и на страницы.
+	 */
+	public IntObjectMap<V> freeze() {
+		frozen = true;
+		return this;
+	}
+
+	/* Ключ и значение пары с номером index (0 <= index < size()) - для перебора без итератора */
+	public int keyAt(int index) {
+		return keys[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V valueAt(int index) {
+		return (V) values[index];
+	}
+
+	/*
+	 * Значения в порядке перебора - представление без копирования, только для
+	 * чтения. Подходит для c:forEach на страницах.
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < size;
+					}
+
+					@Override
+					public V next() {
+						if (index >= size) {
+							throw new NoSuchElementException();
+						}
+						return valueAt(index++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/* Копия, которую снова можно изменять */
+	public IntObjectMap<V> copy() {
+		IntObjectMap<V> copy = new IntObjectMap<>(size);
+		for (int i = 0; i < size; i++) {
+			copy.put(keys[i], this.valueAt(i));
+		}
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			builder.append(i == 0 ? "" : ", ").append(keys[i]).append('=').append(values[i]);
+		}
+		return builder.append('}').toString();
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	private static int tableSize(int capacity) {
+		int tableSize = DEFAULT_CAPACITY * 2;
+		while (tableSize < capacity * 2) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+
+	private static int hash(int key, int mask) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ hash >>> 16) & mask;
+	}
+
+	private int positionOf(int key) {
+		int mask = table.length - 1;
+		for (int i = IntObjectMap.hash(key, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+			int position = table[i] - 1;
+			if (keys[position] == key) {
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Освобождает ячейку таблицы, сдвигая назад следующие ячейки цепочки, чтобы
+	 * поиск не обрывался на пустой ячейке.
+	 */
+	private void deleteFromTable(int i) {
+		int mask = table.length - 1;
+		int gap = i;
+		for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+			int home = IntObjectMap.hash(keys[table[j] - 1], mask);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				table[gap] = table[j];
+				gap = j;
+			}
+		}
+		table[gap] = EMPTY;
+	}
+
+	private void rehash(int tableSize) {
+		table = new int[tableSize];
+		int mask = tableSize - 1;
+		for (int position = 0; position < size; position++) {
+			int i = IntObjectMap.hash(keys[position], mask);
+			while (table[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			table[i] = position + 1;
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException("IntObjectMap is read-only");
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Денежные суммы (цены товаров, стоимость заказов) хранятся как целое число
+ * копеек в примитиве long. Сложение и умножение на количество выполняются
+ * точно и без создания объектов, в отличие от double, у которого при
+ * суммировании накапливается ошибка округления. В БД суммы хранятся в столбцах
+ * numeric(12,2), при обмене с JDBC используется BigDecimal.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public final class Money {
+
+	/* Количество знаков после запятой */
+	public static final int SCALE = 2;
+
+	private static final long CENTS_IN_UNIT = 100;
+
+	private Money() {
+	}
+
+	/*
+	 * Разбирает сумму, введенную пользователем ("123", "123.4", "123,45").
+	 * Лишние знаки после запятой округляются. Бросает NumberFormatException
+	 * для некорректной строки.
+	 */
+	public static long parse(String value) {
+		try {
+			return new BigDecimal(value.trim().replace(',', '.')).setScale(SCALE, RoundingMode.HALF_UP)
+					.unscaledValue().longValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Too large amount: " + value);
+		}
+	}
+
+	/* Сумма из столбца numeric, null соответствует нулю */
+	public static long fromDecimal(BigDecimal value) {
+		return value == null ? 0 : value.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+	}
+
+	public static BigDecimal toDecimal(long cents) {
+		return BigDecimal.valueOf(cents, SCALE);
+	}
+
+	/* Строка вида 123.45 для вывода на страницах и в выгрузках */
+	public static String format(long cents) {
+		StringBuilder builder = new StringBuilder(12);
+		if (cents < 0) {
+			builder.append('-');
+		}
+		long units = Math.abs(cents / CENTS_IN_UNIT);
+		long rest = Math.abs(cents % CENTS_IN_UNIT);
+		builder.append(units).append('.');
+		if (rest < 10) {
+			builder.append('0');
+		}
+		return builder.append(rest).toString();
+	}
+
+	/* Стоимость позиции: цена, умноженная на количество, с контролем переполнения */
+	public static long multiply(long cents, int amount) {
+		return Math.multiplyExact(cents, (long) amount);
+	}
+
+}
@@ -1,7 +1,5 @@
 package models;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
  * Класс описывает заказ, который создается пользователем. Сущности заказ -
  * товар имеют связь many-to-many. Поэтому, при хранении в БД, помимо таблицы
@@ -19,20 +17,20 @@ public class Order {
 	private String userLogin;
 
 	/* Выбранные товары */
-	private ConcurrentHashMap<Integer, Product> orderedProducts;
+	private IntObjectMap<Product> orderedProducts;
 
 	/* Статус заказа, возможные варианты - зарегистрирован, оплачен, отменен */
 	private OrderStatus status;
 
-	/* Итоговая стоимость заказа */
-	private Double totalPrice;
+	/* Итоговая стоимость заказа в копейках (см. Money) */
+	private long totalPrice;
 
 	public Order() {
 
 	}
 
 	/* В конструкторе сразу рассчитываем итоговую стоимость заказа */
-	public Order(int id, String userLogin, ConcurrentHashMap<Integer, Product> orderedProducts, OrderStatus status) {
+	public Order(int id, String userLogin, IntObjectMap<Product> orderedProducts, OrderStatus status) {
 		super();
 		this.id = id;
 		this.userLogin = userLogin;
@@ -61,11 +59,11 @@ public class Order {
 		this.userLogin = userLogin;
 	}
 
-	public ConcurrentHashMap<Integer, Product> getOrderedProducts() {
+	public IntObjectMap<Product> getOrderedProducts() {
 		return orderedProducts;
 	}
 
-	public void setOrderedProducts(ConcurrentHashMap<Integer, Product> orderedProducts) {
+	public void setOrderedProducts(IntObjectMap<Product> orderedProducts) {
 		this.orderedProducts = orderedProducts;
 	}
 
@@ -77,20 +75,29 @@ public class Order {
 		this.status = status;
 	}
 
-	public Double getTotalPrice() {
+	public long getTotalPrice() {
 		return totalPrice;
 	}
 
-	public void setTotalPrice(Double totalPrice) {
+	public void setTotalPrice(long totalPrice) {
 		this.totalPrice = totalPrice;
 	}
 
-	/* Метод рассчитывает итоговую стоимость заказа */
-	private Double countTotalPrice() {
-		Double productsSum = 0.0;
+	/* Итоговая стоимость для вывода на страницах */
+	public String getFormattedTotalPrice() {
+		return Money.format(totalPrice);
+	}
+
+	/*
+	 * Метод рассчитывает итоговую стоимость заказа. Суммирование идет в копейках
+	 * в примитиве long, поэтому результат точный.
+	 */
+	private long countTotalPrice() {
+		long productsSum = 0;
 		/* Чтобы узнать стоимость по каждой позиции, нужно цену товара умножить на количество заказанных единиц */
-		for (Product product : (this.getOrderedProducts().values())) {
-			productsSum = productsSum + product.getPrice() * product.getAmount();
+		for (int i = 0; i < orderedProducts.size(); i++) {
+			Product product = orderedProducts.valueAt(i);
+			productsSum = Math.addExact(productsSum, Money.multiply(product.getPrice(), product.getAmount()));
 		}
 		return productsSum;
 	}
@@ -0,0 +1,79 @@
+package models;
+
+/**
+ * Класс описывает заявку на заказ, принятую в очередь оформления
+ * (service.OrderPipeline). Заявка выдается пользователю сразу, а заказ
+ * записывается в хранилище позже, вместе с другими заказами; итог оформления
+ * (заказ сохранен, отклонен или не сохранен из-за ошибки) виден в личном
+ * кабинете.
+ *
+ * @author Anatolii Melchenko
+ */
+public class OrderTicket {
+
+	/* Состояние заявки: в очереди, заказ сохранен, отклонен, ошибка */
+	public enum State {
+		QUEUED, PLACED, REJECTED, FAILED
+	}
+
+	/* Номер заявки, не совпадает с ID заказа в хранилище */
+	private final long id;
+
+	private final Order order;
+
+	/* Состояние меняет поток записи заказов, читают потоки запросов */
+	private volatile State state = State.QUEUED;
+	private volatile int orderId = -1;
+	private volatile String message;
+	private volatile long finishedAtNanos;
+
+	public OrderTicket(long id, Order order) {
+		this.id = id;
+		this.order = order;
+	}
+
+	/* Итог оформления; orderId - ID сохраненного заказа, message - пояснение для пользователя */
+	public void finish(State state, int orderId, String message) {
+		this.orderId = orderId;
+		this.message = message;
+		this.finishedAtNanos = System.nanoTime();
+		this.state = state;
+	}
+
+	public boolean isFinished() {
+		return state != State.QUEUED;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	public String getUserLogin() {
+		return order.getUserLogin();
+	}
+
+	public String getFormattedTotalPrice() {
+		return order.getFormattedTotalPrice();
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public int getOrderId() {
+		return orderId;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public long getFinishedAtNanos() {
+		return finishedAtNanos;
+	}
+
+}
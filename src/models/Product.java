@@ -23,8 +23,8 @@ public class Product {
 	/* Производитель */
 	private String manufacturerName;
 
-	/* Цена товара за шт. */
-	private double price;
+	/* Цена товара за шт. в копейках (см. Money) */
+	private long price;
 
 	/* Дата изготовления */
 	private Date creationDate;
@@ -41,6 +41,19 @@ public class Product {
 	 */
 	private int amount;
 
+	/*
+	 * Версия товара, увеличивается при каждом изменении. Используется для
+	 * обнаружения одновременного редактирования (оптимистическая блокировка).
+	 */
+	private int version;
+
+	/*
+	 * Товар из опубликованного снимка каталога выдается всем запросам сразу,
+	 * поэтому после freeze() его атрибуты изменить нельзя - для изменения нужно
+	 * сделать копию (конструктор копирования возвращает изменяемый товар).
+	 */
+	private boolean frozen;
+
 	public Product() {
 		// this.productName = null;
 	}
@@ -50,7 +63,7 @@ public class Product {
 		this.productName = productName;
 	}
 
-	public Product(int id, String productName, int categoryId, String manufacturerName, double price, Date creationDate,
+	public Product(int id, String productName, int categoryId, String manufacturerName, long price, Date creationDate,
 			String colour, String size, int amount) {
 		this.id = id;
 		this.productName = productName;
@@ -77,6 +90,7 @@ public class Product {
 		this(product.getId(), product.getProductName(), product.getCategoryId(), product.getManufacturerName(),
 				product.getPrice(), product.getCreationDate(), product.getColour(), product.getSize(),
 				product.getAmount());
+		this.version = product.getVersion();
 	}
 
 	public int getId() {
@@ -88,10 +102,12 @@ public class Product {
 	}
 
 	public void setId(int id) {
+		this.checkNotFrozen();
 		this.id = id;
 	}
 
 	public void setProductName(String productName) {
+		this.checkNotFrozen();
 		this.productName = productName;
 	}
 
@@ -100,6 +116,7 @@ public class Product {
 	}
 
 	public void setCategoryId(int categoryId) {
+		this.checkNotFrozen();
 		this.categoryId = categoryId;
 	}
 
@@ -108,22 +125,30 @@ public class Product {
 	}
 
 	public void setManufacturerName(String manufacturerName) {
+		this.checkNotFrozen();
 		this.manufacturerName = manufacturerName;
 	}
 
-	public double getPrice() {
+	public long getPrice() {
 		return price;
 	}
 
-	public void setPrice(double price) {
+	public void setPrice(long price) {
+		this.checkNotFrozen();
 		this.price = price;
 	}
 
+	/* Цена для вывода на страницах */
+	public String getFormattedPrice() {
+		return Money.format(price);
+	}
+
 	public Date getCreationDate() {
 		return creationDate;
 	}
 
 	public void setCreationDate(Date creationDate) {
+		this.checkNotFrozen();
 		this.creationDate = creationDate;
 	}
 
@@ -132,6 +157,7 @@ public class Product {
 	}
 
 	public void setColour(String colour) {
+		this.checkNotFrozen();
 		this.colour = colour;
 	}
 
@@ -140,6 +166,7 @@ public class Product {
 	}
 
 	public void setSize(String size) {
+		this.checkNotFrozen();
 		this.size = size;
 	}
 
@@ -148,7 +175,33 @@ public class Product {
 	}
 
 	public void setAmount(int amount) {
+		this.checkNotFrozen();
 		this.amount = amount;
 	}
 
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.checkNotFrozen();
+		this.version = version;
+	}
+
+	/* Запрещает дальнейшие изменения товара */
+	public Product freeze() {
+		this.frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Product " + id + " is frozen, change a copy instead");
+		}
+	}
+
 }
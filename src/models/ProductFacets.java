@@ -0,0 +1,99 @@
+package models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс описывает фасеты каталога для текущего фильтра: сколько товаров будет
+ * найдено, если выбрать того или иного производителя, цвет или ценовой
+ * диапазон (остальные условия фильтра при этом сохраняются).
+ * 
+ * @author AnatoliiMelchenko
+ */
+public class ProductFacets {
+
+	/* Количество товаров, подходящих под текущий фильтр */
+	private final int total;
+
+	/* Производитель - количество товаров, по алфавиту */
+	private final Map<String, Integer> manufacturers;
+
+	/* Цвет - количество товаров, по алфавиту */
+	private final Map<String, Integer> colours;
+
+	private final List<PriceBucket> priceBuckets;
+
+	/*
+	 * false - если подсчет не уложился в отведенное время и часть значений
+	 * фасетов не посчитана.
+	 */
+	private final boolean complete;
+
+	public ProductFacets(int total, Map<String, Integer> manufacturers, Map<String, Integer> colours,
+			List<PriceBucket> priceBuckets, boolean complete) {
+		this.total = total;
+		this.manufacturers = Collections.unmodifiableMap(manufacturers);
+		this.colours = Collections.unmodifiableMap(colours);
+		this.priceBuckets = Collections.unmodifiableList(priceBuckets);
+		this.complete = complete;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public Map<String, Integer> getManufacturers() {
+		return manufacturers;
+	}
+
+	public Map<String, Integer> getColours() {
+		return colours;
+	}
+
+	public List<PriceBucket> getPriceBuckets() {
+		return priceBuckets;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Ценовой диапазон [min, max) в копейках и количество товаров в нем. Для
+	 * последнего диапазона max не задан (null).
+	 */
+	public static class PriceBucket {
+
+		private final long min;
+		private final Long max;
+		private final int count;
+
+		public PriceBucket(long min, Long max, int count) {
+			this.min = min;
+			this.max = max;
+			this.count = count;
+		}
+
+		public long getMin() {
+			return min;
+		}
+
+		public Long getMax() {
+			return max;
+		}
+
+		public String getFormattedMin() {
+			return Money.format(min);
+		}
+
+		public String getFormattedMax() {
+			return max == null ? null : Money.format(max);
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+}
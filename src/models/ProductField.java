@@ -0,0 +1,13 @@
+package models;
+
+/**
+ * Класс описывает изменяемые атрибуты товара. Используется для частичного
+ * обновления товара, когда в хранилище записываются только измененные поля.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public enum ProductField {
+
+	PRODUCT_NAME, CATEGORY_ID, MANUFACTURER_NAME, PRICE, CREATION_DATE, COLOUR, SIZE, AMOUNT;
+
+}
@@ -0,0 +1,44 @@
+package models;
+
+import java.io.Serializable;
+
+/**
+ * Класс описывает параметры выборки товаров, заданные пользователем, в том
+ * виде, в котором они пришли из формы. Хранится в сессии, чтобы фасеты
+ * каталога считались для последней выборки.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public class ProductFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String manufacturerName;
+	private final String minPrice;
+	private final String maxPrice;
+	private final String colour;
+
+	public ProductFilter(String manufacturerName, String minPrice, String maxPrice, String colour) {
+		this.manufacturerName = manufacturerName;
+		this.minPrice = minPrice;
+		this.maxPrice = maxPrice;
+		this.colour = colour;
+	}
+
+	public String getManufacturerName() {
+		return manufacturerName;
+	}
+
+	public String getMinPrice() {
+		return minPrice;
+	}
+
+	public String getMaxPrice() {
+		return maxPrice;
+	}
+
+	public String getColour() {
+		return colour;
+	}
+
+}
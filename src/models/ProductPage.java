@@ -0,0 +1,120 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Класс описывает одну страницу каталога товаров. Страница задается не
+ * номером, а курсором - ключом сортировки последнего товара предыдущей
+ * страницы, поэтому выборка следующей страницы по индексу не зависит от того,
+ * как далеко пользователь пролистал каталог, а добавление и удаление товаров
+ * не сдвигает уже показанные страницы.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public class ProductPage {
+
+	private final List<Product> products;
+	private final ProductSort sort;
+
+	/* Курсор следующей страницы, null - если это последняя страница */
+	private final String nextCursor;
+
+	/* Версия каталога, из которой выбрана страница (Storage.getCatalogVersion()) */
+	private final long catalogVersion;
+
+	public ProductPage(List<Product> products, ProductSort sort, String nextCursor, long catalogVersion) {
+		this.products = Collections.unmodifiableList(products);
+		this.sort = sort;
+		this.nextCursor = nextCursor;
+		this.catalogVersion = catalogVersion;
+	}
+
+	/*
+	 * Метод выбирает страницу из списка товаров, уже упорядоченного по sort.
+	 * Начало страницы находится двоичным поиском по курсору.
+	 */
+	public static ProductPage slice(List<Product> sorted, ProductSort sort, String cursor, int pageSize,
+			long catalogVersion) {
+		Product after = decodeCursor(cursor, sort);
+		int from = 0;
+		if (after != null) {
+			int position = Collections.binarySearch(sorted, after, sort.getComparator());
+			from = position >= 0 ? position + 1 : -position - 1;
+		}
+		int to = Math.min(from + pageSize, sorted.size());
+		List<Product> products = sorted.subList(from, to);
+		String nextCursor = to < sorted.size() && !products.isEmpty()
+				? encodeCursor(products.get(products.size() - 1), sort)
+				: null;
+		return new ProductPage(products, sort, nextCursor, catalogVersion);
+	}
+
+	/*
+	 * Курсор - ключ сортировки и ID товара, закодированные в Base64 (наименование
+	 * может содержать любые символы).
+	 */
+	public static String encodeCursor(Product product, ProductSort sort) {
+		String key;
+		switch (sort) {
+		case PRICE:
+			key = String.valueOf(product.getPrice());
+			break;
+		case NAME:
+			key = ProductSort.nameKey(product);
+			break;
+		default:
+			key = "";
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((product.getId() + ":" + key).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Восстанавливает из курсора товар-образец с ключом сортировки и ID.
+	 * Возвращает null для первой страницы и для испорченного курсора.
+	 */
+	public static Product decodeCursor(String cursor, ProductSort sort) {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(':');
+			Product product = new Product();
+			product.setId(Integer.parseInt(decoded.substring(0, separator)));
+			String key = decoded.substring(separator + 1);
+			switch (sort) {
+			case PRICE:
+				product.setPrice(Long.parseLong(key));
+				break;
+			case NAME:
+				product.setProductName(key);
+				break;
+			default:
+			}
+			return product;
+		} catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	public List<Product> getProducts() {
+		return products;
+	}
+
+	public ProductSort getSort() {
+		return sort;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public long getCatalogVersion() {
+		return catalogVersion;
+	}
+
+}
@@ -0,0 +1,54 @@
+package models;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Класс описывает порядок вывода каталога товаров при постраничном просмотре.
+ * Каждый порядок заканчивается ID товара, поэтому он однозначен, и страницу
+ * можно продолжить с последнего показанного товара (keyset pagination).
+ * 
+ * @author AnatoliiMelchenko
+ */
+public enum ProductSort {
+
+	/* По ID товара */
+	ID(Comparator.comparingInt(Product::getId)),
+
+	/* По цене, затем по ID */
+	PRICE(Comparator.comparingLong(Product::getPrice).thenComparingInt(Product::getId)),
+
+	/*
+	 * По наименованию без учета регистра, затем по ID. Строки сравниваются
+	 * посимвольно (в БД - collate "C"), чтобы порядок в БД и в памяти совпадал.
+	 */
+	NAME(Comparator.comparing(ProductSort::nameKey).thenComparingInt(Product::getId));
+
+	private final Comparator<Product> comparator;
+
+	private ProductSort(Comparator<Product> comparator) {
+		this.comparator = comparator;
+	}
+
+	public Comparator<Product> getComparator() {
+		return comparator;
+	}
+
+	/* Ключ сортировки по наименованию */
+	public static String nameKey(Product product) {
+		return product.getProductName() == null ? "" : product.getProductName().toLowerCase(Locale.ROOT);
+	}
+
+	/* Порядок из параметра запроса, по умолчанию - по ID */
+	public static ProductSort fromParameter(String parameter) {
+		if (parameter != null) {
+			for (ProductSort sort : values()) {
+				if (sort.name().equalsIgnoreCase(parameter)) {
+					return sort;
+				}
+			}
+		}
+		return ID;
+	}
+
+}
@@ -0,0 +1,159 @@
+package models;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Класс описывает частичное обновление товара: только те атрибуты, которые
+ * действительно изменились, и версию товара, с которой начиналось
+ * редактирование (оптимистическая блокировка). Если к моменту записи товар уже
+ * изменил кто-то другой, версия не совпадет и обновление не выполнится.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public class ProductUpdate {
+
+	/* Версия не проверяется */
+	public static final int ANY_VERSION = -1;
+
+	/* ID товара */
+	private final int id;
+
+	/* Версия товара, которую видел редактирующий */
+	private final int expectedVersion;
+
+	/* Новые значения измененных атрибутов */
+	private final EnumMap<ProductField, Object> changes = new EnumMap<>(ProductField.class);
+
+	public ProductUpdate(int id, int expectedVersion) {
+		this.id = id;
+		this.expectedVersion = expectedVersion;
+	}
+
+	/*
+	 * Метод сравнивает текущее состояние товара с отредактированным и оставляет в
+	 * обновлении только отличающиеся атрибуты.
+	 */
+	public static ProductUpdate diff(Product current, Product edited, int expectedVersion) {
+		ProductUpdate update = new ProductUpdate(current.getId(), expectedVersion);
+		if (!Objects.equals(current.getProductName(), edited.getProductName())) {
+			update.setProductName(edited.getProductName());
+		}
+		if (current.getCategoryId() != edited.getCategoryId()) {
+			update.setCategoryId(edited.getCategoryId());
+		}
+		if (!Objects.equals(current.getManufacturerName(), edited.getManufacturerName())) {
+			update.setManufacturerName(edited.getManufacturerName());
+		}
+		if (current.getPrice() != edited.getPrice()) {
+			update.setPrice(edited.getPrice());
+		}
+		if (!Objects.equals(current.getCreationDate(), edited.getCreationDate())) {
+			update.setCreationDate(edited.getCreationDate());
+		}
+		if (!Objects.equals(current.getColour(), edited.getColour())) {
+			update.setColour(edited.getColour());
+		}
+		if (!Objects.equals(current.getSize(), edited.getSize())) {
+			update.setSize(edited.getSize());
+		}
+		if (current.getAmount() != edited.getAmount()) {
+			update.setAmount(edited.getAmount());
+		}
+		return update;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getExpectedVersion() {
+		return expectedVersion;
+	}
+
+	public Map<ProductField, Object> getChanges() {
+		return Collections.unmodifiableMap(changes);
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	public ProductUpdate setProductName(String productName) {
+		changes.put(ProductField.PRODUCT_NAME, productName);
+		return this;
+	}
+
+	public ProductUpdate setCategoryId(int categoryId) {
+		changes.put(ProductField.CATEGORY_ID, categoryId);
+		return this;
+	}
+
+	public ProductUpdate setManufacturerName(String manufacturerName) {
+		changes.put(ProductField.MANUFACTURER_NAME, manufacturerName);
+		return this;
+	}
+
+	public ProductUpdate setPrice(long price) {
+		changes.put(ProductField.PRICE, price);
+		return this;
+	}
+
+	public ProductUpdate setCreationDate(Date creationDate) {
+		changes.put(ProductField.CREATION_DATE, creationDate);
+		return this;
+	}
+
+	public ProductUpdate setColour(String colour) {
+		changes.put(ProductField.COLOUR, colour);
+		return this;
+	}
+
+	public ProductUpdate setSize(String size) {
+		changes.put(ProductField.SIZE, size);
+		return this;
+	}
+
+	public ProductUpdate setAmount(int amount) {
+		changes.put(ProductField.AMOUNT, amount);
+		return this;
+	}
+
+	/* Применяет изменения к товару (используется хранилищем в памяти) */
+	public void applyTo(Product product) {
+		for (Map.Entry<ProductField, Object> change : changes.entrySet()) {
+			Object value = change.getValue();
+			switch (change.getKey()) {
+			case PRODUCT_NAME:
+				product.setProductName((String) value);
+				break;
+			case CATEGORY_ID:
+				product.setCategoryId((Integer) value);
+				break;
+			case MANUFACTURER_NAME:
+				product.setManufacturerName((String) value);
+				break;
+			case PRICE:
+				product.setPrice((Long) value);
+				break;
+			case CREATION_DATE:
+				product.setCreationDate((Date) value);
+				break;
+			case COLOUR:
+				product.setColour((String) value);
+				break;
+			case SIZE:
+				product.setSize((String) value);
+				break;
+			case AMOUNT:
+				product.setAmount((Integer) value);
+				break;
+			}
+		}
+		product.setVersion(product.getVersion() + 1);
+	}
+
+}
@@ -0,0 +1,255 @@
+package service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Класс выполняет обработчик запроса, который обращается к хранилищу, в
+ * асинхронном режиме Servlet 3.0: поток Tomcat только переводит запрос в
+ * асинхронный режим и сразу освобождается, обработчик выполняется в
+ * ограниченном пуле потоков хранилища, после чего запрос передается в JSP
+ * (AsyncContext.dispatch). Поэтому медленные запросы к БД занимают потоки
+ * пула хранилища, а не потоки коннектора.
+ * <p>
+ * Размер пула и его очереди, а также время на обработку одного запроса
+ * задаются в JDBC.properties (async.storage.threads, async.storage.queue,
+ * async.request.timeout.ms). Если очередь пула заполнена или время истекло,
+ * клиент получает ответ 503. При async.enabled=false, а также если запрос не
+ * поддерживает асинхронный режим, обработчик выполняется в потоке запроса, как
+ * раньше.
+ * <p>
+ * Поток пула не обращается к запросу и ответу: после таймаута Tomcat может
+ * завершить и переиспользовать их, а JDBC-вызов прервать нельзя. Поэтому
+ * параметры и сессия читаются в потоке запроса (RequestHandler), чтение из
+ * хранилища складывает результат в PageData (StorageRead), а в запрос он
+ * переносится только если запрос завершает обработчик, а не таймаут.
+ *
+ * @author Anatolii Melchenko
+ */
+public class AsyncRequestUtil {
+
+	private static final Logger LOG = Logger.getLogger(AsyncRequestUtil.class);
+
+	private static final int DEFAULT_THREADS = 20;
+	private static final int DEFAULT_QUEUE = 1000;
+	private static final int DEFAULT_TIMEOUT_MS = 10000;
+
+	/**
+	 * Обработчик запроса. Вызывается в потоке запроса: читает параметры и
+	 * сессию и возвращает чтение из хранилища.
+	 */
+	public interface RequestHandler {
+		StorageRead prepare(HttpServletRequest req) throws ServletException;
+	}
+
+	/**
+	 * Чтение из хранилища. Выполняется в пуле потоков хранилища и не обращается
+	 * к запросу и ответу: все, что нужно передать в JSP, кладется в page.
+	 */
+	public interface StorageRead {
+		void read(PageData page) throws ServletException, IOException;
+	}
+
+	/**
+	 * Данные страницы: атрибуты запроса и сессии и заголовки ответа, которые
+	 * переносятся в запрос перед передачей в JSP.
+	 */
+	public static class PageData {
+
+		private final Map<String, Object> attributes = new LinkedHashMap<>();
+		private final Map<String, Object> sessionAttributes = new LinkedHashMap<>();
+		private final Map<String, String> headers = new LinkedHashMap<>();
+
+		public void setAttribute(String name, Object value) {
+			attributes.put(name, value);
+		}
+
+		public void setSessionAttribute(String name, Object value) {
+			sessionAttributes.put(name, value);
+		}
+
+		public void setHeader(String name, String value) {
+			headers.put(name, value);
+		}
+
+		/* Переносит данные в запрос и ответ; вызывает только тот, кто завершает запрос */
+		public void apply(HttpServletRequest req, HttpServletResponse resp) {
+			for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+				req.setAttribute(attribute.getKey(), attribute.getValue());
+			}
+			if (!sessionAttributes.isEmpty()) {
+				HttpSession session = req.getSession();
+				for (Map.Entry<String, Object> attribute : sessionAttributes.entrySet()) {
+					session.setAttribute(attribute.getKey(), attribute.getValue());
+				}
+			}
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				resp.setHeader(header.getKey(), header.getValue());
+			}
+		}
+
+	}
+
+	/**
+	 * ExecutorHolder is loaded on the first execution of
+	 * AsyncRequestUtil.getExecutor(), not before.
+	 */
+	private static class ExecutorHolder {
+		private static final ExecutorService INSTANCE = createExecutor();
+	}
+
+	private static ExecutorService createExecutor() {
+		Settings settings = Settings.getInstance();
+		int threads = Math.max(1, settings.intValue("async.storage.threads", DEFAULT_THREADS));
+		int queue = Math.max(1, settings.intValue("async.storage.queue", DEFAULT_QUEUE));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "storage-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue),
+				threadFactory);
+	}
+
+	/* Пул потоков, в котором выполняются обращения к хранилищу */
+	public static ExecutorService getExecutor() {
+		return ExecutorHolder.INSTANCE;
+	}
+
+	/* Останавливает пул при остановке приложения */
+	public static void shutdown() {
+		getExecutor().shutdown();
+	}
+
+	/*
+	 * Выполняет handler и передает запрос в JSP jspPath: асинхронно, если это
+	 * разрешено, иначе - в потоке запроса.
+	 */
+	public static void process(HttpServletRequest req, HttpServletResponse resp, String jspPath,
+			RequestHandler handler) throws ServletException, IOException {
+		StorageRead read = handler.prepare(req);
+		if (!req.isAsyncSupported() || "false".equals(Settings.getInstance().value("async.enabled"))) {
+			PageData page = new PageData();
+			read.read(page);
+			page.apply(req, resp);
+			RequestDispatcher dispatcher = req.getRequestDispatcher(jspPath);
+			dispatcher.forward(req, resp);
+			return;
+		}
+		String requestUri = req.getRequestURI();
+		AsyncContext asyncContext = req.startAsync(req, resp);
+		asyncContext.setTimeout(Settings.getInstance().intValue("async.request.timeout.ms", DEFAULT_TIMEOUT_MS));
+		/*
+		 * Запрос завершает тот, кто первым выставит флаг: обработчик или таймаут.
+		 * Обработчик переносит данные в запрос и вызывает dispatch под lock,
+		 * поэтому таймаут, наступивший в это время, дожидается dispatch.
+		 */
+		AtomicBoolean finished = new AtomicBoolean();
+		Object lock = new Object();
+		AtomicReference<Future<?>> future = new AtomicReference<>();
+		asyncContext.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				synchronized (lock) {
+					if (finished.compareAndSet(false, true)) {
+						AsyncRequestUtil.cancel(future.get());
+						LOG.warn("Request " + requestUri + " timed out");
+						AsyncRequestUtil.sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					}
+				}
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				synchronized (lock) {
+					if (finished.compareAndSet(false, true)) {
+						AsyncRequestUtil.cancel(future.get());
+						asyncContext.complete();
+					}
+				}
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+		try {
+			future.set(getExecutor().submit(() -> {
+				try {
+					PageData page = new PageData();
+					read.read(page);
+					synchronized (lock) {
+						if (finished.compareAndSet(false, true)) {
+							page.apply(req, resp);
+							asyncContext.dispatch(jspPath);
+						}
+					}
+				} catch (ServletException | IOException | RuntimeException e) {
+					LOG.error("Request " + requestUri + " failed", e);
+					synchronized (lock) {
+						if (finished.compareAndSet(false, true)) {
+							/* Чтения из хранилища не уложились в срок (ParallelReads) */
+							boolean timedOut = e.getCause() instanceof TimeoutException;
+							AsyncRequestUtil.sendError(asyncContext, timedOut ? HttpServletResponse.SC_SERVICE_UNAVAILABLE
+									: HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						}
+					}
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			LOG.warn("Storage executor is full, request " + requestUri + " rejected");
+			synchronized (lock) {
+				if (finished.compareAndSet(false, true)) {
+					AsyncRequestUtil.sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				}
+			}
+		}
+	}
+
+	/* Прерывает обработчик, если он уже запущен */
+	private static void cancel(Future<?> future) {
+		if (future != null) {
+			future.cancel(true);
+		}
+	}
+
+	private static void sendError(AsyncContext asyncContext, int status) {
+		try {
+			((HttpServletResponse) asyncContext.getResponse()).sendError(status);
+		} catch (IOException | IllegalStateException e) {
+			// клиент мог уже закрыть соединение, или ответ уже начат
+		} finally {
+			asyncContext.complete();
+		}
+	}
+
+}
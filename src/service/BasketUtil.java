@@ -0,0 +1,57 @@
+package service;
+
+import javax.servlet.http.HttpSession;
+
+import models.Basket;
+import models.IntObjectMap;
+import models.Product;
+import storages.Storage;
+
+/**
+ * Класс выдает корзину посетителя из его сессии (атрибут basket) и
+ * составляет по ней строки корзины с актуальными данными товаров из каталога.
+ * Корзина создается при первом обращении и удаляется вместе с сессией.
+ *
+ * @author Anatolii Melchenko
+ */
+public class BasketUtil {
+
+	public static final String BASKET_ATTRIBUTE = "basket";
+
+	public static Basket getBasket(HttpSession session) {
+		Basket basket = (Basket) session.getAttribute(BASKET_ATTRIBUTE);
+		if (basket == null) {
+			/*
+			 * Блокируется только сессия посетителя (Tomcat выдает для сессии один и
+			 * тот же объект), создание корзин разных сессий не конкурирует
+			 */
+			synchronized (session) {
+				basket = (Basket) session.getAttribute(BASKET_ATTRIBUTE);
+				if (basket == null) {
+					basket = new Basket();
+					session.setAttribute(BASKET_ATTRIBUTE, basket);
+				}
+			}
+		}
+		return basket;
+	}
+
+	/*
+	 * Строки корзины в виде товаров каталога, у которых количество - количество
+	 * единиц в корзине. Товары, которых больше нет в каталоге, пропускаются.
+	 */
+	public static IntObjectMap<Product> getBufferProducts(Basket basket, Storage storage) {
+		Basket lines = basket.copy();
+		IntObjectMap<Product> bufferProducts = new IntObjectMap<>(lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			Product product = storage.getProductById(lines.productIdAt(i));
+			if (product != null) {
+				Product bufferProduct = new Product(product);
+				bufferProduct.setAmount(lines.amountAt(i));
+				bufferProducts.put(bufferProduct.getId(), bufferProduct);
+			}
+		}
+		return bufferProducts.freeze();
+	}
+
+}
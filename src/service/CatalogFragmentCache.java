@@ -0,0 +1,101 @@
+package service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Кэш отрисованных фрагментов каталога: строки таблицы товаров одной страницы
+ * каталога одинаковы для всех посетителей, поэтому они строятся один раз и
+ * дальше выводятся в ответ копированием готового массива символов, без
+ * вычисления EL для каждой ячейки (jstl.CatalogRowsTag). Отличаются между
+ * посетителями только корзина и данные пользователя, они по-прежнему
+ * выводятся JSP.
+ * <p>
+ * Фрагменты хранятся для одной, самой новой версии каталога
+ * (Storage.getCatalogVersion()): как только встречается страница более новой
+ * версии, все фрагменты старой версии отбрасываются разом. Страница, выбранная
+ * из уже устаревшей версии, отрисовывается без кэша. Число фрагментов
+ * ограничено (fragment.cache.max.entries в JDBC.properties), при
+ * fragment.cache.enabled=false фрагменты не кэшируются.
+ *
+ * @author Anatolii Melchenko
+ */
+public class CatalogFragmentCache {
+
+	private static final int DEFAULT_MAX_ENTRIES = 500;
+
+	/* Фрагменты одной версии каталога */
+	private static class Generation {
+
+		private final long catalogVersion;
+		private final ConcurrentHashMap<String, char[]> fragments = new ConcurrentHashMap<>();
+
+		private Generation(long catalogVersion) {
+			this.catalogVersion = catalogVersion;
+		}
+
+	}
+
+	private final boolean enabled;
+	private final int maxEntries;
+
+	private volatile Generation generation = new Generation(-1);
+
+	private CatalogFragmentCache() {
+		Settings settings = Settings.getInstance();
+		this.enabled = !"false".equals(settings.value("fragment.cache.enabled"));
+		this.maxEntries = Math.max(0, settings.intValue("fragment.cache.max.entries", DEFAULT_MAX_ENTRIES));
+	}
+
+	/**
+	 * CacheHolder is loaded on the first execution of
+	 * CatalogFragmentCache.getInstance(), not before.
+	 */
+	private static class CacheHolder {
+		private static final CatalogFragmentCache INSTANCE = new CatalogFragmentCache();
+	}
+
+	public static CatalogFragmentCache getInstance() {
+		return CacheHolder.INSTANCE;
+	}
+
+	/*
+	 * Фрагмент с ключом key для версии каталога catalogVersion; если его нет в
+	 * кэше, он строится renderer. Ключ должен однозначно задавать содержимое
+	 * фрагмента в пределах версии каталога.
+	 */
+	public char[] getFragment(long catalogVersion, String key, Supplier<String> renderer) {
+		if (!enabled) {
+			return renderer.get().toCharArray();
+		}
+		Generation current = this.generation;
+		if (catalogVersion > current.catalogVersion) {
+			current = this.advance(catalogVersion);
+		}
+		if (catalogVersion != current.catalogVersion) {
+			return renderer.get().toCharArray();
+		}
+		char[] fragment = current.fragments.get(key);
+		if (fragment == null) {
+			fragment = renderer.get().toCharArray();
+			if (current.fragments.size() < maxEntries) {
+				char[] previous = current.fragments.putIfAbsent(key, fragment);
+				fragment = previous != null ? previous : fragment;
+			}
+		}
+		return fragment;
+	}
+
+	/* Число фрагментов текущей версии каталога */
+	public int size() {
+		return generation.fragments.size();
+	}
+
+	private synchronized Generation advance(long catalogVersion) {
+		if (catalogVersion > generation.catalogVersion) {
+			generation = new Generation(catalogVersion);
+		}
+		return generation;
+	}
+
+}
@@ -0,0 +1,42 @@
+package service;
+
+import models.ProductPage;
+import models.ProductSort;
+import service.AsyncRequestUtil.PageData;
+import storages.Storage;
+
+/**
+ * Класс выбирает страницу каталога по параметрам запроса sort (id, price,
+ * name) и after (курсор, полученный со ссылки на следующую страницу) и
+ * передает ее в JSP. Размер страницы задается в JDBC.properties
+ * (catalog.page.size). Версия каталога, из которой выбрана страница,
+ * передается в JSP и в заголовке ответа X-Catalog-Version.
+ * 
+ * @author Anatolii Melchenko
+ */
+public class CatalogPageUtil {
+
+	private static final int DEFAULT_PAGE_SIZE = 20;
+
+	public static final String CATALOG_VERSION_HEADER = "X-Catalog-Version";
+
+	/*
+	 * Выбирает страницу каталога по значениям параметров sort и after. Не
+	 * обращается к запросу, поэтому может выполняться в другом потоке
+	 * (ParallelReads).
+	 */
+	public static ProductPage loadProductPage(String sortParameter, String cursor, Storage storage) {
+		ProductSort sort = ProductSort.fromParameter(sortParameter);
+		int pageSize = Math.max(1, Settings.getInstance().intValue("catalog.page.size", DEFAULT_PAGE_SIZE));
+		return storage.getProductPage(sort, cursor, pageSize);
+	}
+
+	/* Передает страницу каталога в JSP через данные асинхронного запроса */
+	public static void showProductPage(PageData data, ProductPage page) {
+		data.setAttribute("products", page.getProducts());
+		data.setAttribute("productPage", page);
+		data.setAttribute("catalogVersion", page.getCatalogVersion());
+		data.setHeader(CATALOG_VERSION_HEADER, String.valueOf(page.getCatalogVersion()));
+	}
+
+}
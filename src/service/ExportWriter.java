@@ -0,0 +1,158 @@
+package service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Класс записывает строки выгрузки (товары, заказы, строки заказов) прямо в
+ * поток ответа в формате CSV или JSON - по одной строке по мере их чтения из
+ * хранилища, не накапливая выгрузку в памяти. Если клиент разорвал соединение,
+ * запись выбрасывает UncheckedIOException (соединение проверяется раз в
+ * CHECK_INTERVAL строк, т.к. checkError() сбрасывает буфер в сокет), и чтение
+ * из БД прекращается.
+ * 
+ * @author Anatolii Melchenko
+ */
+public class ExportWriter {
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_JSON = "json";
+
+	/* Через сколько строк проверяется, что клиент еще читает выгрузку */
+	private static final int CHECK_INTERVAL = 1000;
+
+	private final PrintWriter writer;
+	private final boolean json;
+	private final String[] columns;
+	private long rows;
+
+	public ExportWriter(PrintWriter writer, String format, String... columns) {
+		this.writer = writer;
+		this.json = FORMAT_JSON.equals(format);
+		this.columns = columns;
+	}
+
+	public static String contentType(String format) {
+		return FORMAT_JSON.equals(format) ? "application/json; charset=UTF-8" : "text/csv; charset=UTF-8";
+	}
+
+	/* Начало выгрузки: заголовок CSV или открывающая скобка массива JSON */
+	public void begin() {
+		if (json) {
+			writer.write('[');
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write(columns[i]);
+			}
+			writer.write("\r\n");
+		}
+	}
+
+	/* Одна строка выгрузки, значения в порядке столбцов */
+	public void row(Object... values) {
+		if (json) {
+			writer.write(rows == 0 ? "\n{" : ",\n{");
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write('"');
+				writer.write(columns[i]);
+				writer.write("\":");
+				this.writeJsonValue(values[i]);
+			}
+			writer.write('}');
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				this.writeCsvValue(values[i]);
+			}
+			writer.write("\r\n");
+		}
+		rows++;
+		if (rows % CHECK_INTERVAL == 0 && writer.checkError()) {
+			throw new UncheckedIOException(new IOException("Export is interrupted by client after " + rows + " rows"));
+		}
+	}
+
+	/*
+	 * Конец выгрузки. Вызывается, только если все строки прочитаны: при ошибке
+	 * чтения исключение уходит в контейнер, и ответ обрывается без
+	 * завершающей части.
+	 */
+	public void end() {
+		if (json) {
+			writer.write("\n]");
+		}
+		writer.flush();
+		if (writer.checkError()) {
+			throw new UncheckedIOException(new IOException("Export is interrupted by client after " + rows + " rows"));
+		}
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	private void writeCsvValue(Object value) {
+		if (value == null) {
+			return;
+		}
+		String string = value.toString();
+		if (string.indexOf(',') < 0 && string.indexOf('"') < 0 && string.indexOf('\n') < 0
+				&& string.indexOf('\r') < 0) {
+			writer.write(string);
+			return;
+		}
+		writer.write('"');
+		writer.write(string.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	private void writeJsonValue(Object value) {
+		if (value == null) {
+			writer.write("null");
+			return;
+		}
+		if (value instanceof Number || value instanceof Boolean) {
+			writer.write(value.toString());
+			return;
+		}
+		String string = value.toString();
+		writer.write('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					writer.write(String.format("\\u%04x", (int) c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+}
@@ -0,0 +1,253 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import models.Order;
+import models.OrderTicket;
+import models.Product;
+import storages.OrderResult;
+import storages.Storage;
+
+/**
+ * Очередь оформления заказов. Поток запроса только ставит заказ в
+ * ограниченную очередь и сразу получает заявку ({@link OrderTicket}), а
+ * единственный поток записи забирает из очереди все накопившиеся заказы и
+ * сохраняет их одной транзакцией (Storage.makeOrders). Пока идет фиксация
+ * одной группы, в очереди собирается следующая, поэтому при наплыве заказов
+ * число фиксаций в секунду остается прежним, а заказов в секунду - растет.
+ * <p>
+ * Если очередь заполнена, submit ждет не дольше order.queue.offer.timeout.ms
+ * и выбрасывает OrderQueueFullException. Размер очереди и наибольший размер
+ * группы задаются в JDBC.properties (order.queue.capacity,
+ * order.batch.max.size). Заявки пользователя показываются в личном кабинете,
+ * пока заказ в очереди, и еще order.ticket.ttl.ms после завершения
+ * оформления. На протяжении всего жизненного цикла приложения создается только один
+ * экземпляр данного класса (шаблон проектирования Singleton).
+ *
+ * @author Anatolii Melchenko
+ */
+public class OrderPipeline {
+
+	private static final Logger LOG = Logger.getLogger(OrderPipeline.class);
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final int DEFAULT_OFFER_TIMEOUT_MS = 100;
+	private static final int DEFAULT_TICKET_TTL_MS = 600000;
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private static final String MESSAGE_OUT_OF_STOCK = "Недостаточно товара на складе: ";
+	private static final String MESSAGE_FAILED = "Заказ не сохранен из-за ошибки, повторите заказ позже.";
+
+	private final Storage storage;
+	private final BlockingQueue<OrderTicket> queue;
+	private final int capacity;
+	private final int maxBatchSize;
+	private final long offerTimeoutMillis;
+	private final long ticketTtlNanos;
+
+	/* Заявки по логину пользователя: в очереди и недавно завершенные */
+	private final ConcurrentHashMap<String, Queue<OrderTicket>> tickets = new ConcurrentHashMap<>();
+
+	private final AtomicLong ticketIds = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong writtenOrders = new AtomicLong();
+
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	public OrderPipeline(Storage storage, int capacity, int maxBatchSize, long offerTimeoutMillis,
+			long ticketTtlMillis) {
+		this.storage = storage;
+		this.capacity = capacity;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.maxBatchSize = maxBatchSize;
+		this.offerTimeoutMillis = offerTimeoutMillis;
+		this.ticketTtlNanos = TimeUnit.MILLISECONDS.toNanos(ticketTtlMillis);
+		this.writer = new Thread(this::writeOrders, "order-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * OrderPipelineHolder is loaded on the first execution of
+	 * OrderPipeline.getInstance(), not before.
+	 */
+	private static class OrderPipelineHolder {
+		private static final OrderPipeline INSTANCE = createOrderPipeline();
+	}
+
+	private static OrderPipeline createOrderPipeline() {
+		Settings settings = Settings.getInstance();
+		return new OrderPipeline(StorageIdentifier.getStorage(),
+				Math.max(1, settings.intValue("order.queue.capacity", DEFAULT_QUEUE_CAPACITY)),
+				Math.max(1, settings.intValue("order.batch.max.size", DEFAULT_BATCH_SIZE)),
+				settings.intValue("order.queue.offer.timeout.ms", DEFAULT_OFFER_TIMEOUT_MS),
+				settings.intValue("order.ticket.ttl.ms", DEFAULT_TICKET_TTL_MS));
+	}
+
+	public static OrderPipeline getInstance() {
+		return OrderPipelineHolder.INSTANCE;
+	}
+
+	/*
+	 * Ставит заказ в очередь и возвращает заявку; заявка видна в кабинете
+	 * пользователя ownerLogin (логин залогиненного аккаунта из сессии). Если
+	 * очередь заполнена или прием заказов остановлен, выбрасывает
+	 * OrderQueueFullException.
+	 */
+	public OrderTicket submit(String ownerLogin, Order order) {
+		if (!running) {
+			throw new OrderQueueFullException(capacity);
+		}
+		OrderTicket ticket = new OrderTicket(ticketIds.incrementAndGet(), order);
+		try {
+			if (!queue.offer(ticket, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new OrderQueueFullException(capacity);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OrderQueueFullException(capacity);
+		}
+		/*
+		 * shutdown() мог остановить поток записи между проверкой running и
+		 * постановкой в очередь. Если заявку из очереди еще никто не забрал, она
+		 * не принимается; иначе ее уже забрал поток записи и сохранит.
+		 */
+		if (!running && queue.remove(ticket)) {
+			throw new OrderQueueFullException(capacity);
+		}
+		if (ownerLogin != null) {
+			tickets.compute(ownerLogin, (login, userTickets) -> {
+				Queue<OrderTicket> result = userTickets != null ? userTickets : new ConcurrentLinkedQueue<>();
+				result.add(ticket);
+				return result;
+			});
+		}
+		return ticket;
+	}
+
+	/* Заявки пользователя в порядке подачи: в очереди и недавно завершенные */
+	public List<OrderTicket> getTickets(String login) {
+		Queue<OrderTicket> userTickets = login == null ? null : tickets.get(login);
+		return userTickets == null ? new ArrayList<>() : new ArrayList<>(userTickets);
+	}
+
+	/* Количество заказов, ожидающих записи */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/*
+	 * Останавливает прием заказов и ждет, пока поток записи сохранит уже
+	 * принятые. Вызывается при остановке приложения до закрытия пула соединений.
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(30));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOG.info("Order pipeline stopped: " + writtenOrders.get() + " orders in " + batches.get()
+				+ " batches, not written: " + queue.size());
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	/* Цикл потока записи: группа - все заказы, накопившиеся в очереди */
+	private void writeOrders() {
+		List<OrderTicket> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				OrderTicket first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, maxBatchSize - 1);
+					this.writeBatch(batch);
+					batch.clear();
+				}
+				this.evictFinishedTickets();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				LOG.error("Order writer failed", e);
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<OrderTicket> batch) {
+		List<Order> orders = new ArrayList<>(batch.size());
+		for (OrderTicket ticket : batch) {
+			orders.add(ticket.getOrder());
+		}
+		List<OrderResult> results;
+		try {
+			results = storage.makeOrders(orders);
+		} catch (RuntimeException e) {
+			LOG.error("Could not write " + batch.size() + " orders", e);
+			for (OrderTicket ticket : batch) {
+				ticket.finish(OrderTicket.State.FAILED, -1, MESSAGE_FAILED);
+			}
+			return;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			OrderTicket ticket = batch.get(i);
+			OrderResult result = results.get(i);
+			if (result.isPlaced()) {
+				ticket.finish(OrderTicket.State.PLACED, result.getOrderId(), null);
+			} else if (result.getOutOfStock() != null) {
+				ticket.finish(OrderTicket.State.REJECTED, -1,
+						this.describeShortProducts(result.getOutOfStock().getShortProductIds(), ticket.getOrder()));
+			} else {
+				ticket.finish(OrderTicket.State.FAILED, -1, MESSAGE_FAILED);
+			}
+		}
+		batches.incrementAndGet();
+		writtenOrders.addAndGet(batch.size());
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Batch of " + batch.size() + " orders written, queue size " + queue.size());
+		}
+	}
+
+	/* Формирует сообщение со списком товаров, которых не хватает на складе */
+	private String describeShortProducts(List<Integer> shortProductIds, Order order) {
+		StringBuilder message = new StringBuilder(MESSAGE_OUT_OF_STOCK);
+		for (Integer productId : shortProductIds) {
+			Product product = order.getOrderedProducts().get(productId);
+			message.append(product != null ? product.getProductName() : productId).append("; ");
+		}
+		return message.toString();
+	}
+
+	/* Удаляет заявки, оформление которых завершилось больше order.ticket.ttl.ms назад */
+	private void evictFinishedTickets() {
+		long now = System.nanoTime();
+		for (String login : tickets.keySet()) {
+			tickets.computeIfPresent(login, (key, userTickets) -> {
+				for (Iterator<OrderTicket> iterator = userTickets.iterator(); iterator.hasNext();) {
+					OrderTicket ticket = iterator.next();
+					if (ticket.isFinished() && now - ticket.getFinishedAtNanos() > ticketTtlNanos) {
+						iterator.remove();
+					}
+				}
+				return userTickets.isEmpty() ? null : userTickets;
+			});
+		}
+	}
+
+}
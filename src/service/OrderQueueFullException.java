@@ -0,0 +1,18 @@
+package service;
+
+/**
+ * Исключение выбрасывается, если очередь оформления заказов заполнена и заказ
+ * не удалось поставить в нее за отведенное время. Заказ при этом не принят,
+ * корзина пользователя не меняется.
+ *
+ * @author Anatolii Melchenko
+ */
+public class OrderQueueFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OrderQueueFullException(int capacity) {
+		super("Order queue is full, capacity: " + capacity);
+	}
+
+}
@@ -0,0 +1,119 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+
+/**
+ * Независимые чтения из хранилища, нужные для одной страницы, выполняются
+ * одновременно (каждое - на своем соединении из пула), поэтому время
+ * подготовки страницы определяется самым медленным запросом, а не суммой
+ * всех. Экземпляр создается на один запрос: fork() запускает чтение, join()
+ * ждет его результат, но не дольше общего для всех чтений срока
+ * (parallel.reads.timeout.ms в JDBC.properties).
+ * <p>
+ * Чтения выполняются в отдельном пуле потоков (parallel.reads.threads) без
+ * очереди: если свободного потока нет, чтение выполняется в вызывающем потоке
+ * сразу при вызове fork(). Поэтому перегрузка пула только возвращает
+ * последовательное выполнение и не может привести к взаимной блокировке с
+ * пулом асинхронных запросов (AsyncRequestUtil).
+ *
+ * @author Anatolii Melchenko
+ */
+public class ParallelReads {
+
+	private static final int DEFAULT_THREADS = 20;
+	private static final int DEFAULT_TIMEOUT_MS = 5000;
+
+	/**
+	 * ExecutorHolder is loaded on the first execution of ParallelReads.fork(),
+	 * not before.
+	 */
+	private static class ExecutorHolder {
+		private static final ExecutorService INSTANCE = createExecutor();
+	}
+
+	private static ExecutorService createExecutor() {
+		int threads = Math.max(1, Settings.getInstance().intValue("parallel.reads.threads", DEFAULT_THREADS));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "storage-read-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/* Останавливает пул при остановке приложения */
+	public static void shutdown() {
+		ExecutorHolder.INSTANCE.shutdown();
+	}
+
+	private final long deadlineNanos;
+	private final List<Future<?>> reads = new ArrayList<>();
+
+	public ParallelReads() {
+		this(Settings.getInstance().intValue("parallel.reads.timeout.ms", DEFAULT_TIMEOUT_MS));
+	}
+
+	public ParallelReads(long timeoutMillis) {
+		this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	/*
+	 * Запускает чтение. Чтение не должно обращаться к запросу и сессии: их
+	 * данные нужно прочитать заранее, в потоке запроса.
+	 */
+	public <T> Future<T> fork(Callable<T> read) {
+		FutureTask<T> task = new FutureTask<>(read);
+		reads.add(task);
+		ExecutorHolder.INSTANCE.execute(task);
+		return task;
+	}
+
+	/*
+	 * Результат чтения. Если срок истек, остальные чтения прерываются и
+	 * выбрасывается ServletException с причиной TimeoutException.
+	 */
+	public <T> T join(Future<T> read) throws ServletException {
+		try {
+			return read.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			this.cancelAll();
+			throw new ServletException("Storage reads did not finish in time", e);
+		} catch (ExecutionException e) {
+			this.cancelAll();
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new ServletException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.cancelAll();
+			throw new ServletException(e);
+		}
+	}
+
+	private void cancelAll() {
+		for (Future<?> read : reads) {
+			read.cancel(true);
+		}
+	}
+
+}
@@ -1,8 +1,8 @@
 package service;
 
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 
 
@@ -12,8 +12,14 @@ public class Settings {
     private final Properties properties = new Properties();
 
     private Settings() {
-        try {
-            properties.load(new FileInputStream(this.getClass().getClassLoader().getResource("/resources/JDBC.properties").getFile()));
+        /*
+         * The file is read as a classpath resource, so settings are available both in
+         * Tomcat and when the storage layer is run as a plain Java application.
+         */
+        try (InputStream input = this.getClass().getClassLoader().getResourceAsStream("resources/JDBC.properties")) {
+            if (input != null) {
+                properties.load(input);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -35,4 +41,20 @@ public class Settings {
         return this.properties.getProperty(key);
     }
 
+    /**
+     * Returns the integer value of the key, or defaultValue if the key is absent or
+     * is not a number.
+     */
+    public int intValue(String key, int defaultValue) {
+        String value = this.properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
 }
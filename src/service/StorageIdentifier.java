@@ -1,5 +1,6 @@
 package service;
 
+import storages.CachingStorage;
 import storages.Storage;
 import storages.WebShop;
 import storages.WebShopJDBC;
@@ -16,12 +17,32 @@ public class StorageIdentifier {
 
 	private static String storageType = "jdbc";
 
+	/**
+	 * WebShopJDBC does not hold a connection of its own (every operation leases one
+	 * from the pool), so all servlets share one instance. The catalog is served from
+	 * an in-memory snapshot by CachingStorage unless catalog.cache.enabled=false.
+	 * JdbcStorageHolder is loaded on the first access to JdbcStorageHolder.INSTANCE,
+	 * not before.
+	 */
+	private static class JdbcStorageHolder {
+		private static final Storage INSTANCE = createJdbcStorage();
+	}
+
+	private static Storage createJdbcStorage() {
+		Settings settings = Settings.getInstance();
+		Storage storage = new WebShopJDBC();
+		if ("false".equals(settings.value("catalog.cache.enabled"))) {
+			return storage;
+		}
+		return new CachingStorage(storage, settings.intValue("catalog.cache.max.staleness.ms", 30000));
+	}
+
 	public static Storage getStorage() {
 		switch (storageType) {
 		case "memory":
 			return WebShop.getInstance();
 		case "jdbc":
-			return new WebShopJDBC();
+			return JdbcStorageHolder.INSTANCE;
 		default:
 			throw new RuntimeException("Error! Storage type is undefined.");
 		}
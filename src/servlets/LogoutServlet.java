@@ -7,8 +7,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
-import models.Basket;
-
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
@@ -25,13 +23,12 @@ public class LogoutServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 	private static final String LOGIN_PATH = "/login";
-	private static final Basket BASKET = Basket.getInstance();
 
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		HttpSession session = req.getSession();
+		/* Корзина хранится в сессии и удаляется вместе с ней */
 		session.invalidate();
-		BASKET.removeAllBufferProducts();
 		resp.sendRedirect(String.format("%s%s", req.getContextPath(), LOGIN_PATH));
 	}
 
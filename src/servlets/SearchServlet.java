@@ -0,0 +1,48 @@
+package servlets;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import models.Product;
+import service.Settings;
+import service.StorageIdentifier;
+import storages.Storage;
+
+/**
+ * Сервлет обслуживает полнотекстовый поиск товаров по наименованию и
+ * производителю (параметр q). Поиск учитывает начала слов и опечатки, товары
+ * выводятся в порядке релевантности вместе со временем выполнения запроса.
+ * 
+ * @author Anatolii Melchenko
+ */
+public class SearchServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private static final String SEARCH_JSP = "/views/Search.jsp";
+	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
+	private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		req.setCharacterEncoding("UTF-8");
+		String query = req.getParameter("q");
+		if (query != null && !query.trim().isEmpty()) {
+			long start = System.nanoTime();
+			List<Product> foundedProducts = SHOP_WEB.searchProducts(query,
+					Settings.getInstance().intValue("search.limit", DEFAULT_SEARCH_LIMIT));
+			req.setAttribute("searchMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+			req.setAttribute("foundedProducts", foundedProducts);
+		}
+		req.setAttribute("query", query);
+		RequestDispatcher dispatcher = req.getRequestDispatcher(SEARCH_JSP);
+		dispatcher.forward(req, resp);
+	}
+
+}
@@ -1,19 +1,26 @@
 package servlets;
 
+import service.AsyncRequestUtil;
+import service.BasketUtil;
+import service.CatalogPageUtil;
+import service.ParallelReads;
 import service.StorageIdentifier;
 import storages.Storage;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import models.Basket;
+import models.IntObjectMap;
+import models.Product;
+import models.ProductPage;
 
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Сервлет обслуживает вывод основных элементов интернет-магазина для незарегистрированного (каталог товаров, корзина).
@@ -25,14 +32,23 @@ public class ViewShopUnregisteredServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;	
 	private static final String VIEWSHOP_UNREGISTERED_JSP = "/views/ViewShopUnregistered.jsp";
 	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
-	private static final Basket BASKET = Basket.getInstance();
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        req.setAttribute("products", SHOP_WEB.getProducts().values());
-        req.setAttribute("bufferProducts", BASKET.getBufferProducts().values());
-        RequestDispatcher dispatcher = req.getRequestDispatcher(VIEWSHOP_UNREGISTERED_JSP);
-        dispatcher.forward(req, resp);
+        AsyncRequestUtil.process(req, resp, VIEWSHOP_UNREGISTERED_JSP, request -> {
+            String sort = request.getParameter("sort");
+            String after = request.getParameter("after");
+            Basket basket = BasketUtil.getBasket(request.getSession());
+            return data -> {
+                /* Страница каталога и корзина читаются из хранилища одновременно */
+                ParallelReads reads = new ParallelReads();
+                Future<ProductPage> page = reads.fork(() -> CatalogPageUtil.loadProductPage(sort, after, SHOP_WEB));
+                Future<IntObjectMap<Product>> bufferProducts = reads
+                        .fork(() -> BasketUtil.getBufferProducts(basket, SHOP_WEB));
+                CatalogPageUtil.showProductPage(data, reads.join(page));
+                data.setAttribute("bufferProducts", reads.join(bufferProducts).values());
+            };
+        });
     }
 
     /*
@@ -9,6 +9,7 @@ import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 
+import models.Money;
 import models.Product;
 import service.DateParserUtil;
 import service.StorageIdentifier;
@@ -33,14 +34,14 @@ public class CreateProductServlet extends HttpServlet {
 		req.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/html; charset=UTF-8");
 		try {
-		if ((Double.valueOf(req.getParameter("price")) <= 0)
+		if ((Money.parse(req.getParameter("price")) <= 0)
 				|| (Integer.valueOf(req.getParameter("amount_in_storage")) <= 0)) {
 			req.getSession().setAttribute("ERROR_PRODUCT_CREATE", ERROR_PRODUCT_CREATE + ERROR_PRODUCT_CREATE_NEGATIVE_VALUE);
 			resp.sendRedirect(String.format("%s%s", req.getContextPath(), CREATEPRODUCT_JSP));
 		} else {
 			SHOP_WEB.addProduct(new Product(SHOP_WEB.generateProductId(), req.getParameter("productname"),
 					Integer.valueOf(req.getParameter("category_id_fk")), req.getParameter("manufacturer_name_fk"),
-					Double.valueOf(req.getParameter("price")),
+					Money.parse(req.getParameter("price")),
 					DateParserUtil.recognizeSqlDate(req.getParameter("creation_date")), req.getParameter("colour"),
 					(req.getParameter("size")), Integer.valueOf(req.getParameter("amount_in_storage"))));
 			req.getSession().setAttribute("ERROR_PRODUCT_CREATE", "");
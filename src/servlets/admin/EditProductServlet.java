@@ -8,6 +8,9 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import models.Money;
+import models.Product;
+import models.ProductUpdate;
 import service.DateParserUtil;
 import service.StorageIdentifier;
 import storages.Storage;
@@ -22,6 +25,7 @@ public class EditProductServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 	private static final String VIEWADMIN_PATH = "/admin/view";
 	private static final String EDITPRODUCT_JSP = "/views/Admin/EditProduct.jsp";
+	private static final String ERROR_PRODUCT_EDIT_CONFLICT = "Товар был изменен или удален другим пользователем, проверьте текущие данные и повторите изменение";
 	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
 
 	@Override
@@ -36,10 +40,39 @@ public class EditProductServlet extends HttpServlet {
 		req.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/html; charset=UTF-8");
 		
-		SHOP_WEB.editProduct(Integer.valueOf(req.getParameter("id")), req.getParameter("productname"), Integer.valueOf(req.getParameter("category_id_fk")), req.getParameter("manufacturer_name_fk"),
-				Double.valueOf(req.getParameter("price")), DateParserUtil.recognizeSqlDate(req.getParameter("creation_date")), req.getParameter("colour"),
+		int id = Integer.valueOf(req.getParameter("id"));
+		int version = Integer.valueOf(req.getParameter("version"));
+		Product current = SHOP_WEB.getProductById(id);
+		/*
+		 * В хранилище записываются только те атрибуты, которые отличаются от текущих
+		 * значений товара. Если товар успели изменить после открытия формы (версия не
+		 * совпадает), изменения не записываются, и форма показывается заново.
+		 */
+		if (current == null || current.getVersion() != version) {
+			req.setAttribute("ERROR_PRODUCT_EDIT", ERROR_PRODUCT_EDIT_CONFLICT);
+			this.doGet(req, resp);
+			return;
+		}
+		Product edited = new Product(id, req.getParameter("productname"), Integer.valueOf(req.getParameter("category_id_fk")), req.getParameter("manufacturer_name_fk"),
+				Money.parse(req.getParameter("price")), DateParserUtil.recognizeSqlDate(req.getParameter("creation_date")), req.getParameter("colour"),
 				(req.getParameter("size")), Integer.valueOf(req.getParameter("amount_in_storage")));
+		ProductUpdate update = ProductUpdate.diff(current, edited, version);
+		if (!update.isEmpty() && !SHOP_WEB.updateProduct(update) && this.isChangedConcurrently(id, version)) {
+			req.setAttribute("ERROR_PRODUCT_EDIT", ERROR_PRODUCT_EDIT_CONFLICT);
+			this.doGet(req, resp);
+			return;
+		}
 		resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWADMIN_PATH));
 	}
 
+	/*
+	 * Обновление не выполнено либо из-за конфликта версий (или удаления товара),
+	 * либо потому, что в хранилище уже записаны такие же значения. Конфликтом
+	 * считается только первый случай.
+	 */
+	private boolean isChangedConcurrently(int id, int version) {
+		Product product = SHOP_WEB.getProductById(id);
+		return product == null || product.getVersion() != version;
+	}
+
 }
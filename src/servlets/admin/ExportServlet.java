@@ -0,0 +1,77 @@
+package servlets.admin;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import models.Money;
+import service.ExportWriter;
+import service.StorageIdentifier;
+import storages.Storage;
+
+/**
+ * Сервлет обслуживает выгрузку товаров, заказов и строк заказов в формате CSV
+ * или JSON (параметры type = products | orders | order-lines и format = csv |
+ * json). Строки пишутся в ответ по мере чтения из БД, поэтому объем памяти не
+ * зависит от размера выгрузки.
+ * 
+ * @author AnatoliiMelchenko
+ */
+public class ExportServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
+	private static final String[] PRODUCT_COLUMNS = { "product_id", "product_name", "category_id",
+			"manufacturer_name", "price", "creation_date", "colour", "size", "amount_in_storage" };
+	private static final String[] ORDER_COLUMNS = { "order_id", "account_name", "status", "total_price" };
+	private static final String[] ORDER_LINE_COLUMNS = { "order_id", "product_id", "product_name", "category_id",
+			"manufacturer_name", "price", "creation_date", "colour", "size", "ordered_amount" };
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String type = req.getParameter("type") == null ? "products" : req.getParameter("type");
+		String format = ExportWriter.FORMAT_JSON.equals(req.getParameter("format")) ? ExportWriter.FORMAT_JSON
+				: ExportWriter.FORMAT_CSV;
+		String[] columns;
+		switch (type) {
+		case "products":
+			columns = PRODUCT_COLUMNS;
+			break;
+		case "orders":
+			columns = ORDER_COLUMNS;
+			break;
+		case "order-lines":
+			columns = ORDER_LINE_COLUMNS;
+			break;
+		default:
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown export type: " + type);
+			return;
+		}
+		resp.setContentType(ExportWriter.contentType(format));
+		resp.setHeader("Content-Disposition", "attachment; filename=\"" + type + "." + format + "\"");
+		ExportWriter export = new ExportWriter(resp.getWriter(), format, columns);
+		export.begin();
+		switch (type) {
+		case "products":
+			SHOP_WEB.exportProducts(product -> export.row(product.getId(), product.getProductName(),
+					product.getCategoryId(), product.getManufacturerName(),
+					Money.toDecimal(product.getPrice()), product.getCreationDate(), product.getColour(),
+					product.getSize(), product.getAmount()));
+			break;
+		case "orders":
+			SHOP_WEB.exportOrders(order -> export.row(order.getId(), order.getUserLogin(), order.getStatus(),
+					Money.toDecimal(order.getTotalPrice())));
+			break;
+		default:
+			SHOP_WEB.exportOrderLines((orderId, product) -> export.row(orderId, product.getId(),
+					product.getProductName(), product.getCategoryId(), product.getManufacturerName(),
+					Money.toDecimal(product.getPrice()), product.getCreationDate(), product.getColour(),
+					product.getSize(), product.getAmount()));
+		}
+		export.end();
+	}
+
+}
@@ -1,19 +1,24 @@
 package servlets.admin;
 
+import service.AsyncRequestUtil;
+import service.CatalogPageUtil;
+import service.ParallelReads;
 import service.StorageIdentifier;
 import storages.Storage;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import models.Account;
+import models.ProductPage;
 
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 /**
  * Сервлет обслуживает вывод основных элементов магазина (товары, пользователи, заказы) в режиме администратора и возможные операции над ними.
@@ -28,14 +33,22 @@ public class ViewAdminPanelServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        req.setAttribute("products", SHOP_WEB.getProducts().values());
-        req.setAttribute("accounts", SHOP_WEB.getAccounts().values());
-        String loggedAccount = ((Account) req.getSession().getAttribute("LOGGED_ACCOUNT")).getLogin(); 
-        req.setAttribute("LOGGED_ACCOUNT", loggedAccount);
-        String accountRole = (String) req.getSession().getAttribute("ACCOUNT_ROLE"); 
-        req.setAttribute("ACCOUNT_ROLE", accountRole);
-        RequestDispatcher dispatcher = req.getRequestDispatcher(VIEWADMIN_PATH);
-        dispatcher.forward(req, resp);
+        AsyncRequestUtil.process(req, resp, VIEWADMIN_PATH, request -> {
+            String sort = request.getParameter("sort");
+            String after = request.getParameter("after");
+            String loggedAccount = ((Account) request.getSession().getAttribute("LOGGED_ACCOUNT")).getLogin();
+            String accountRole = (String) request.getSession().getAttribute("ACCOUNT_ROLE");
+            return data -> {
+                /* Страница каталога и аккаунты читаются из хранилища одновременно */
+                ParallelReads reads = new ParallelReads();
+                Future<ProductPage> page = reads.fork(() -> CatalogPageUtil.loadProductPage(sort, after, SHOP_WEB));
+                Future<ConcurrentHashMap<String, Account>> accounts = reads.fork(SHOP_WEB::getAccounts);
+                CatalogPageUtil.showProductPage(data, reads.join(page));
+                data.setAttribute("accounts", reads.join(accounts).values());
+                data.setAttribute("LOGGED_ACCOUNT", loggedAccount);
+                data.setAttribute("ACCOUNT_ROLE", accountRole);
+            };
+        });
         /* Очищаем строку в сессии, выводящую сообщения об ошибке */
 //        req.getSession().setAttribute("ERROR_PRODUCT_CREATE", "");
     }
@@ -1,9 +1,9 @@
 package servlets.admin;
 
+import service.AsyncRequestUtil;
 import service.StorageIdentifier;
 import storages.Storage;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,10 +32,10 @@ public class ViewOrdersServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-    	/* Список всех заказов */   	
-        req.setAttribute("orders", SHOP_WEB.getAllOrders());
-        RequestDispatcher dispatcher = req.getRequestDispatcher(VIEWORDERS_JSP);
-        dispatcher.forward(req, resp);
+        AsyncRequestUtil.process(req, resp, VIEWORDERS_JSP, request -> data -> {
+            /* Список всех заказов */
+            data.setAttribute("orders", SHOP_WEB.getAllOrders().values());
+        });
     }
     
     /*
@@ -8,6 +8,7 @@ import javax.servlet.http.HttpServletResponse;
 import models.Account;
 import models.Basket;
 import models.Product;
+import service.BasketUtil;
 import service.StorageIdentifier;
 import storages.Storage;
 
@@ -19,11 +20,12 @@ public class AddToBasketServlet extends HttpServlet {
 	private static final String VIEWUSER_PATH = "/user/view";
 	private static final String VIEWUNREGISTERED_PATH = "/unregistered";
 	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
-	private static final Basket BASKET = Basket.getInstance();
 
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		Product productForAdd = SHOP_WEB.getProductById(Integer.valueOf(req.getParameter("productId")));
-		BASKET.addToBasket(productForAdd);
+		if (productForAdd != null) {
+			BasketUtil.getBasket(req.getSession()).addToBasket(productForAdd.getId());
+		}
 		/*
 		 * Проверяем, залогинен ли пользователь, для того чтобы сделать корректный
 		 * редирект
@@ -8,6 +8,7 @@ import javax.servlet.http.HttpServletResponse;
 import models.Account;
 import models.Basket;
 import models.Product;
+import service.BasketUtil;
 import service.StorageIdentifier;
 import storages.Storage;
 
@@ -17,13 +18,12 @@ public class ChangeProductsAmountInBasketServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 	private static final String VIEWUSER_PATH = "/user/view";
-	private static final Basket BASKET = Basket.getInstance();
 	private static final String ERROR_PRODUCT_AMOUNT = "Неверно введенные данные! ";
 
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		try {
-			BASKET.changeProductAmount(Integer.valueOf(req.getParameter("bufferProductId")),
+			BasketUtil.getBasket(req.getSession()).changeProductAmount(Integer.valueOf(req.getParameter("bufferProductId")),
 					Integer.valueOf(req.getParameter("newAmount")));
 		} catch (NumberFormatException e) {
 			req.getSession().setAttribute("ERROR_PRODUCT_AMOUNT", ERROR_PRODUCT_AMOUNT + e.getMessage());
@@ -8,6 +8,7 @@ import javax.servlet.http.HttpServletResponse;
 import models.Account;
 import models.Basket;
 import models.Product;
+import service.BasketUtil;
 import service.StorageIdentifier;
 import storages.Storage;
 
@@ -19,11 +20,10 @@ public class RemoveFromBasketServlet extends HttpServlet {
 	private static final String VIEWUSER_PATH = "/user/view";
 	private static final String VIEWUNREGISTERED_PATH = "/unregistered"; 
 //	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
-	private static final Basket BASKET = Basket.getInstance(); 
 
 	@Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {    	
-    	BASKET.removeProduct(Integer.valueOf(req.getParameter("productId")));
+    	BasketUtil.getBasket(req.getSession()).removeProduct(Integer.valueOf(req.getParameter("productId")));
 		/*
 		 * Проверяем, залогинен ли пользователь, для того чтобы сделать корректный редирект 
 		 */
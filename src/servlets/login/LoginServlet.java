@@ -39,9 +39,10 @@ public class LoginServlet extends HttpServlet {
 		req.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/html; charset=UTF-8");
 		String enteredLogin = req.getParameter("login"); 
-		String accountRole = SHOP_WEB.checkAccountRole(enteredLogin);
-		boolean authenticationResult = SHOP_WEB.checkLoginPassword(enteredLogin, req.getParameter("password"));
-		if (authenticationResult == true) {
+		/* Пароль, статус и роль аккаунта проверяются за одно обращение к хранилищу */
+		Account authenticatedAccount = SHOP_WEB.authenticate(enteredLogin, req.getParameter("password"));
+		if (authenticatedAccount != null && authenticatedAccount.getIsActive() && authenticatedAccount.getRole() != null) {
+			String accountRole = authenticatedAccount.getRole();
 			Account accountBean = new Account(enteredLogin);
 			req.getSession().setAttribute("LOGGED_ACCOUNT", accountBean); 
 			req.getSession().setAttribute("ACCOUNT_ROLE", accountRole.toLowerCase()); // String
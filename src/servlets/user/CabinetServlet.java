@@ -1,9 +1,10 @@
 package servlets.user;
 
+import service.AsyncRequestUtil;
+import service.OrderPipeline;
 import service.StorageIdentifier;
 import storages.Storage;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,10 +33,20 @@ public class CabinetServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-    	/* Список заказов залогиненного пользователя*/   	
-        req.setAttribute("userOrders", SHOP_WEB.getUserOrders(req.getParameter("userLogin")));
-        RequestDispatcher dispatcher = req.getRequestDispatcher(VIEWCABINET_JSP);
-        dispatcher.forward(req, resp);
+        AsyncRequestUtil.process(req, resp, VIEWCABINET_JSP, request -> {
+            String acceptedTicket = request.getParameter("ticket");
+            /* Заказы и заявки берутся только для залогиненного аккаунта */
+            Account loggedAccount = (Account) request.getSession().getAttribute("LOGGED_ACCOUNT");
+            String userLogin = loggedAccount == null ? null : loggedAccount.getLogin();
+            return data -> {
+                /* Список заказов залогиненного пользователя*/
+                data.setAttribute("userOrders", SHOP_WEB.getUserOrders(userLogin).values());
+                /* Заявки, которые еще в очереди оформления или недавно оформлены */
+                data.setAttribute("orderTickets",
+                        OrderPipeline.getInstance().getTickets(userLogin));
+                data.setAttribute("acceptedTicket", acceptedTicket);
+            };
+        });
     }
     
     /*
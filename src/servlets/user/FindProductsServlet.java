@@ -1,12 +1,13 @@
 package servlets.user;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 
+import models.IntObjectMap;
 import models.Product;
+import models.ProductFilter;
 import service.StorageIdentifier;
 import storages.Storage;
 
@@ -25,13 +26,16 @@ public class FindProductsServlet extends HttpServlet {
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		req.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/html; charset=UTF-8");
-		ConcurrentHashMap<Integer, Product> foundedProducts = SHOP_WEB.findProducts(
-				req.getParameter("manufacturerName"), req.getParameter("minPrice"),
+		ProductFilter filter = new ProductFilter(req.getParameter("manufacturerName"), req.getParameter("minPrice"),
 				req.getParameter("maxPrice"), req.getParameter("colour"));
+		IntObjectMap<Product> foundedProducts = SHOP_WEB.findProducts(filter.getManufacturerName(),
+				filter.getMinPrice(), filter.getMaxPrice(), filter.getColour());
 //		System.out.println(req.getParameter("manufacturerName") + req.getParameter("minPrice") +
 //				req.getParameter("maxPrice") + req.getParameter("colour"));
 		/* Результат выборки сохраняем в сессии */
 		req.getSession().setAttribute("foundedProducts", foundedProducts.values());
+		/* По параметрам выборки на странице магазина считаются фасеты */
+		req.getSession().setAttribute("productFilter", filter);
 		resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWUSER_PATH));
 	}
 
@@ -6,10 +6,16 @@ import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 
+import models.Account;
 import models.Basket;
+import models.IntObjectMap;
 import models.Order;
 import models.OrderStatus;
+import models.OrderTicket;
 import models.Product;
+import service.BasketUtil;
+import service.OrderPipeline;
+import service.OrderQueueFullException;
 import service.StorageIdentifier;
 import storages.Storage;
 
@@ -22,19 +28,21 @@ public class MakeOrderServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 	private static final String VIEWUSER_PATH = "/user/view";
+	private static final String CABINET_PATH = "/user/cabinet";
 	private static final String MAKEORDER_JSP = "/views/User/MakeOrder.jsp";
 	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
-	private static final Basket BASKET = Basket.getInstance();
 	private static final String ERROR_EMPTY_BASKET = "В корзине нет товаров! ";
+	private static final String ERROR_ORDER_QUEUE_FULL = "Слишком много заказов, повторите заказ через несколько секунд. ";
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		if (BASKET.getBufferProducts().size() == 0) {
+		IntObjectMap<Product> bufferProducts = BasketUtil.getBufferProducts(BasketUtil.getBasket(req.getSession()),
+				SHOP_WEB);
+		if (bufferProducts.isEmpty()) {
 			req.getSession().setAttribute("ERROR_EMPTY_BASKET", ERROR_EMPTY_BASKET);
 			resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWUSER_PATH));
 		} else {
-			req.setAttribute("bufferProducts", BASKET.getBufferProducts().values());
-			req.setAttribute("userLogin", req.getParameter("userLogin"));
+			req.setAttribute("bufferProducts", bufferProducts.values());
 			RequestDispatcher dispatcher = req.getRequestDispatcher(MAKEORDER_JSP);
 			dispatcher.forward(req, resp);
 		}
@@ -44,11 +52,34 @@ public class MakeOrderServlet extends HttpServlet {
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		req.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/html; charset=UTF-8");
-		SHOP_WEB.makeOrder(new Order(SHOP_WEB.generateOrderId(), req.getParameter("userLogin"),
-				BASKET.getBufferProducts(), OrderStatus.REGISTERED));
+		Basket basket = BasketUtil.getBasket(req.getSession());
+		/* Цены и наименования берутся из каталога в момент оформления заказа */
+		IntObjectMap<Product> bufferProducts = BasketUtil.getBufferProducts(basket, SHOP_WEB);
+		if (bufferProducts.isEmpty()) {
+			req.getSession().setAttribute("ERROR_EMPTY_BASKET", ERROR_EMPTY_BASKET);
+			resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWUSER_PATH));
+			return;
+		}
+		/* Заказ и заявка привязываются к залогиненному аккаунту, а не к параметру запроса */
+		Account loggedAccount = (Account) req.getSession().getAttribute("LOGGED_ACCOUNT");
+		String userLogin = loggedAccount == null ? null : loggedAccount.getLogin();
+		OrderTicket ticket;
+		try {
+			/*
+			 * Заказ только ставится в очередь оформления, а записывается в БД позже,
+			 * вместе с другими заказами. Итог оформления виден в личном кабинете.
+			 */
+			ticket = OrderPipeline.getInstance().submit(userLogin,
+					new Order(SHOP_WEB.generateOrderId(), userLogin, bufferProducts, OrderStatus.REGISTERED));
+		} catch (OrderQueueFullException e) {
+			/* Заказ не принят, корзина остается без изменений */
+			req.getSession().setAttribute("ERROR_ORDER_QUEUE_FULL", ERROR_ORDER_QUEUE_FULL);
+			resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWUSER_PATH));
+			return;
+		}
 		/* Очищаем корзину */
-		BASKET.removeAllBufferProducts();
-		resp.sendRedirect(String.format("%s%s", req.getContextPath(), VIEWUSER_PATH));
+		basket.removeAllBufferProducts();
+		resp.sendRedirect(String.format("%s%s?ticket=%d", req.getContextPath(), CABINET_PATH, ticket.getId()));
 	}
 
 }
@@ -1,9 +1,13 @@
 package servlets.user;
 
+import service.AsyncRequestUtil;
+import service.AsyncRequestUtil.StorageRead;
+import service.BasketUtil;
+import service.CatalogPageUtil;
+import service.ParallelReads;
 import service.StorageIdentifier;
 import storages.Storage;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -12,11 +16,16 @@ import javax.servlet.http.HttpSession;
 
 import models.Account;
 import models.Basket;
+import models.IntObjectMap;
 import models.Product;
+import models.ProductFacets;
+import models.ProductFilter;
+import models.ProductPage;
 
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Сервлет обслуживает вывод основных элементов интернет-магазина (каталог
@@ -29,27 +38,62 @@ public class ViewShopServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L; 
 	private static final String VIEWSHOP_JSP = "/views/User/ViewShop.jsp";
 	private static final Storage SHOP_WEB = StorageIdentifier.getStorage();
-	private static final Basket BASKET = Basket.getInstance();
+
+	/* Сообщения об ошибках, которые хранятся в сессии до первого показа */
+	private static final String[] ERROR_ATTRIBUTES = { "ERROR_PRODUCT_AMOUNT", "ERROR_EMPTY_BASKET",
+			"ERROR_ORDER_QUEUE_FULL" };
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		/* Каталог товаров */
-		req.setAttribute("products", SHOP_WEB.getProducts().values());
-		/* Товары в корзине */
-		req.setAttribute("bufferProducts", BASKET.getBufferProducts().values());
-		/* Список всех производителей */
-		req.setAttribute("manufacturers", SHOP_WEB.getManufacturers().values());
-		/* Найденные товары */
-//		req.setAttribute("foundedProducts", SHOP_WEB.getManufacturers().values());
+		AsyncRequestUtil.process(req, resp, VIEWSHOP_JSP, this::prepareShop);
+	}
+
+	/*
+	 * Параметры и сессия читаются в потоке запроса, а возвращаемое чтение
+	 * выполняется в пуле потоков хранилища
+	 */
+	private StorageRead prepareShop(HttpServletRequest req) {
+		String sort = req.getParameter("sort");
+		String after = req.getParameter("after");
+		Basket basket = BasketUtil.getBasket(req.getSession());
+		/*
+		 * Фасеты для последней выборки пользователя (или для всего каталога):
+		 * производители с количеством товаров, цвета и ценовые диапазоны
+		 */
+		ProductFilter storedFilter = (ProductFilter) req.getSession().getAttribute("productFilter");
+		ProductFilter filter = storedFilter != null ? storedFilter : new ProductFilter(null, null, null, null);
 		Account loggedAccount = ((Account) req.getSession().getAttribute("LOGGED_ACCOUNT"));
-		req.setAttribute("LOGGED_ACCOUNT", loggedAccount);
 		String accountRole = (String) req.getSession().getAttribute("ACCOUNT_ROLE");
-		req.setAttribute("ACCOUNT_ROLE", accountRole);
-		RequestDispatcher dispatcher = req.getRequestDispatcher(VIEWSHOP_JSP);
-		dispatcher.forward(req, resp); 
-		/* Очищаем строку в сессии, выводящую сообщения об ошибке */
-		req.getSession().setAttribute("ERROR_PRODUCT_AMOUNT", "");
-		req.getSession().setAttribute("ERROR_EMPTY_BASKET", ""); 
+		Object[] errorMessages = new Object[ERROR_ATTRIBUTES.length];
+		for (int i = 0; i < ERROR_ATTRIBUTES.length; i++) {
+			errorMessages[i] = req.getSession().getAttribute(ERROR_ATTRIBUTES[i]);
+		}
+		return data -> {
+			/* Страница каталога, корзина и фасеты читаются из хранилища одновременно */
+			ParallelReads reads = new ParallelReads();
+			Future<ProductPage> page = reads.fork(() -> CatalogPageUtil.loadProductPage(sort, after, SHOP_WEB));
+			Future<IntObjectMap<Product>> bufferProducts = reads
+					.fork(() -> BasketUtil.getBufferProducts(basket, SHOP_WEB));
+			Future<ProductFacets> facets = reads.fork(() -> SHOP_WEB.getProductFacets(filter.getManufacturerName(),
+					filter.getMinPrice(), filter.getMaxPrice(), filter.getColour()));
+			/* Страница каталога товаров */
+			CatalogPageUtil.showProductPage(data, reads.join(page));
+			/* Товары в корзине */
+			data.setAttribute("bufferProducts", reads.join(bufferProducts).values());
+			data.setAttribute("productFilter", filter);
+			data.setAttribute("facets", reads.join(facets));
+			data.setAttribute("LOGGED_ACCOUNT", loggedAccount);
+			data.setAttribute("ACCOUNT_ROLE", accountRole);
+			/*
+			 * Сообщения об ошибках переносятся в запрос (JSP ищет атрибут сначала в
+			 * запросе), а строка в сессии очищается, только если страница будет
+			 * показана
+			 */
+			for (int i = 0; i < ERROR_ATTRIBUTES.length; i++) {
+				data.setAttribute(ERROR_ATTRIBUTES[i], errorMessages[i]);
+				data.setSessionAttribute(ERROR_ATTRIBUTES[i], "");
+			}
+		};
 	}
 
 	/*
@@ -0,0 +1,146 @@
+package storages;
+
+import java.util.Arrays;
+
+/**
+ * Битовая карта позиций товаров для индексов каталога. В отличие от
+ * java.util.BitSet умеет считать мощность пересечения двух карт без создания
+ * промежуточной карты (andCardinality) - на этом построен подсчет фасетов, где
+ * пересечений на один запрос столько же, сколько значений у фасета.
+ * <p>
+ * Класс не синхронизирован, доступ к нему упорядочивает владеющий индекс.
+ *
+ * @author Anatolii Melchenko
+ */
+final class Bitmap {
+
+	private long[] words;
+
+	/* Количество используемых слов: старше них все биты равны нулю */
+	private int wordsInUse;
+
+	Bitmap() {
+		this.words = new long[1];
+	}
+
+	private Bitmap(long[] words, int wordsInUse) {
+		this.words = words;
+		this.wordsInUse = wordsInUse;
+	}
+
+	void set(int bit) {
+		int index = bit >>> 6;
+		if (index >= words.length) {
+			words = Arrays.copyOf(words, Math.max(words.length * 2, index + 1));
+		}
+		words[index] |= 1L << bit;
+		wordsInUse = Math.max(wordsInUse, index + 1);
+	}
+
+	void clear(int bit) {
+		int index = bit >>> 6;
+		if (index < wordsInUse) {
+			words[index] &= ~(1L << bit);
+			this.trim();
+		}
+	}
+
+	boolean get(int bit) {
+		int index = bit >>> 6;
+		return index < wordsInUse && (words[index] & (1L << bit)) != 0;
+	}
+
+	void clearAll() {
+		Arrays.fill(words, 0, wordsInUse, 0L);
+		wordsInUse = 0;
+	}
+
+	boolean isEmpty() {
+		return wordsInUse == 0;
+	}
+
+	Bitmap copy() {
+		return new Bitmap(Arrays.copyOf(words, Math.max(1, wordsInUse)), wordsInUse);
+	}
+
+	void and(Bitmap other) {
+		int common = Math.min(wordsInUse, other.wordsInUse);
+		for (int i = 0; i < common; i++) {
+			words[i] &= other.words[i];
+		}
+		Arrays.fill(words, common, wordsInUse, 0L);
+		wordsInUse = common;
+		this.trim();
+	}
+
+	void or(Bitmap other) {
+		if (other.wordsInUse > words.length) {
+			words = Arrays.copyOf(words, other.wordsInUse);
+		}
+		for (int i = 0; i < other.wordsInUse; i++) {
+			words[i] |= other.words[i];
+		}
+		wordsInUse = Math.max(wordsInUse, other.wordsInUse);
+	}
+
+	int cardinality() {
+		int count = 0;
+		for (int i = 0; i < wordsInUse; i++) {
+			count += Long.bitCount(words[i]);
+		}
+		return count;
+	}
+
+	/* Мощность пересечения с другой картой, сами карты не меняются */
+	int andCardinality(Bitmap other) {
+		int common = Math.min(wordsInUse, other.wordsInUse);
+		int count = 0;
+		for (int i = 0; i < common; i++) {
+			count += Long.bitCount(words[i] & other.words[i]);
+		}
+		return count;
+	}
+
+	/* Первый установленный бит начиная с from, -1 - если таких нет */
+	int nextSetBit(int from) {
+		int index = from >>> 6;
+		if (index >= wordsInUse) {
+			return -1;
+		}
+		long word = words[index] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return index * 64 + Long.numberOfTrailingZeros(word);
+			}
+			if (++index == wordsInUse) {
+				return -1;
+			}
+			word = words[index];
+		}
+	}
+
+	/* Первый сброшенный бит начиная с from */
+	int nextClearBit(int from) {
+		int index = from >>> 6;
+		if (index >= wordsInUse) {
+			return from;
+		}
+		long word = ~words[index] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return index * 64 + Long.numberOfTrailingZeros(word);
+			}
+			if (++index == wordsInUse) {
+				return wordsInUse * 64;
+			}
+			word = ~words[index];
+		}
+	}
+
+	private void trim() {
+		while (wordsInUse > 0 && words[wordsInUse - 1] == 0) {
+			wordsInUse--;
+		}
+	}
+
+}
@@ -0,0 +1,564 @@
+package storages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import models.Account;
+import models.IntObjectMap;
+import models.Manufacturer;
+import models.Order;
+import models.Product;
+import models.ProductFacets;
+import models.ProductPage;
+import models.ProductSort;
+import models.ProductUpdate;
+
+/**
+ * Хранилище-обертка, которое выдает каталог товаров из неизменяемого снимка в
+ * памяти ({@link CatalogSnapshot}) вместо запроса к БД при каждом просмотре
+ * каталога. После каждого изменения товаров через это хранилище (добавление,
+ * редактирование, удаление, оформление заказа, который меняет остатки)
+ * измененные товары перечитываются из БД и публикуется новая версия снимка, а
+ * изменения, сделанные в обход приложения, становятся видны не позже чем через
+ * maxStalenessMillis. Чтение каталога не берет блокировок и не копирует
+ * товары. Все остальные методы передаются исходному хранилищу без изменений.
+ *
+ * @author Anatolii Melchenko
+ */
+public class CachingStorage implements Storage {
+
+	private static final Logger LOG = Logger.getLogger(CachingStorage.class);
+
+	private final Storage delegate;
+	private final long maxStalenessNanos;
+
+	/* Текущий снимок, null - если еще не загружен */
+	private volatile CatalogSnapshot snapshot;
+
+	/*
+	 * Счетчик версий каталога. Новую версию получает каждый загруженный снимок и
+	 * каждое изменение товаров, даже если снимка еще нет. Снимок, во время
+	 * загрузки которого каталог изменился, не публикуется - иначе он мог бы
+	 * вернуть в кэш уже измененный товар.
+	 */
+	private final AtomicLong versions = new AtomicLong();
+	private final Object refreshLock = new Object();
+
+	/*
+	 * Если загрузить каталог не удалось, выдается прежний снимок, а следующая
+	 * попытка загрузки делается не раньше этого момента.
+	 */
+	private volatile long reloadRetryAtNanos;
+
+	/* Публикация снимков: загруженного и с изменениями. Читатели ее не ждут */
+	private final Object publishLock = new Object();
+
+	/*
+	 * Индекс для выборки товаров. Обновляется по одному товару при каждом
+	 * изменении через это хранилище и перестраивается целиком, только если
+	 * устарел (так же, как снимок, - не реже чем раз в maxStalenessMillis).
+	 * Перестроенный индекс заменяет прежний.
+	 */
+	private volatile ProductSearchIndex searchIndex = new ProductSearchIndex();
+	private volatile long searchIndexBuiltAtNanos;
+	private volatile boolean searchIndexBuilt;
+
+	/* Индекс полнотекстового поиска, обновляется так же, как индекс выборки */
+	private volatile ProductNameIndex nameIndex = new ProductNameIndex();
+
+	/* Перестройка индексов, одновременно идет только одна */
+	private final ReentrantLock rebuildLock = new ReentrantLock();
+
+	/*
+	 * ID товаров, опубликованных во время перестройки индексов; null - если
+	 * перестройка не идет. Изменяется под publishLock.
+	 */
+	private List<Integer> publishedDuringRebuild;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong totalRefreshNanos = new AtomicLong();
+	private final AtomicLong maxRefreshNanos = new AtomicLong();
+
+	public CachingStorage(Storage delegate, long maxStalenessMillis) {
+		this.delegate = delegate;
+		this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+	}
+
+	/*
+	 * Снимок каталога для чтения. Если каталог ни разу не удалось загрузить,
+	 * выдается пустой снимок, который не публикуется и не меняет версию.
+	 */
+	private CatalogSnapshot currentSnapshot() {
+		CatalogSnapshot current = this.reloadedSnapshot();
+		return current != null ? current
+				: CatalogSnapshot.of(new IntObjectMap<>(), versions.get(), System.nanoTime());
+	}
+
+	/*
+	 * Снимок каталога: текущий, если он не устарел, иначе загруженный заново.
+	 * Если загрузить каталог не удалось, выдается прежний снимок, а версия не
+	 * меняется; null - если снимка нет и загрузить его не удалось.
+	 */
+	private CatalogSnapshot reloadedSnapshot() {
+		CatalogSnapshot current = this.snapshot;
+		if (this.isFresh(current) || current != null && System.nanoTime() < reloadRetryAtNanos) {
+			hits.incrementAndGet();
+			return current;
+		}
+		misses.incrementAndGet();
+		synchronized (refreshLock) {
+			/* Пока поток ждал, снимок мог загрузить другой поток */
+			current = this.snapshot;
+			if (this.isFresh(current) || current != null && System.nanoTime() < reloadRetryAtNanos) {
+				return current;
+			}
+			long seenVersion = versions.get();
+			long start = System.nanoTime();
+			IntObjectMap<Product> products = delegate.getProducts();
+			long elapsed = System.nanoTime() - start;
+			if (products == null) {
+				reloadRetryAtNanos = System.nanoTime() + maxStalenessNanos;
+				LOG.warn("Catalog snapshot reload failed, the previous snapshot is kept");
+				return current;
+			}
+			refreshes.incrementAndGet();
+			totalRefreshNanos.addAndGet(elapsed);
+			maxRefreshNanos.accumulateAndGet(elapsed, Math::max);
+			CatalogSnapshot loaded;
+			synchronized (publishLock) {
+				long version = versions.incrementAndGet();
+				loaded = CatalogSnapshot.of(products, version, start);
+				/* Если каталог менялся во время загрузки, снимок выдается один раз и не публикуется */
+				if (version == seenVersion + 1 && this.snapshot == current) {
+					this.snapshot = loaded;
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Catalog snapshot of " + loaded.getProducts().size() + " products loaded in "
+						+ TimeUnit.NANOSECONDS.toMicros(elapsed) + " us, " + this.getStats());
+			}
+			return loaded;
+		}
+	}
+
+	private boolean isFresh(CatalogSnapshot current) {
+		return current != null && System.nanoTime() - current.getLoadedAtNanos() <= maxStalenessNanos;
+	}
+
+	/*
+	 * Индекс выборки, перестроенный из снимка, если он устарел. Пока устаревшие
+	 * индексы перестраиваются, читатели получают прежние; ждать перестройки
+	 * приходится только до того, как индексы построены в первый раз.
+	 */
+	private ProductSearchIndex currentSearchIndex() {
+		if (searchIndexBuilt && System.nanoTime() - searchIndexBuiltAtNanos <= maxStalenessNanos) {
+			return searchIndex;
+		}
+		if (searchIndexBuilt) {
+			if (rebuildLock.tryLock()) {
+				try {
+					if (System.nanoTime() - searchIndexBuiltAtNanos > maxStalenessNanos) {
+						this.rebuildIndexes();
+					}
+				} finally {
+					rebuildLock.unlock();
+				}
+			}
+			return searchIndex;
+		}
+		rebuildLock.lock();
+		try {
+			if (!searchIndexBuilt) {
+				this.rebuildIndexes();
+			}
+		} finally {
+			rebuildLock.unlock();
+		}
+		return searchIndex;
+	}
+
+	/*
+	 * Строит новые индексы из опубликованного снимка без блокировок, поэтому
+	 * изменения товаров и чтения их не ждут. Затем под publishLock новые индексы
+	 * заменяют прежние, а товары, опубликованные за время перестройки, заново
+	 * берутся из текущего снимка. Если снимок за это время сброшен (перечитать
+	 * товары не удалось), построенные индексы отбрасываются.
+	 */
+	private void rebuildIndexes() {
+		while (true) {
+			/* Загруженный снимок не публикуется, если каталог менялся во время загрузки */
+			if (this.reloadedSnapshot() == null) {
+				/* Каталог не загружен: индексы остаются прежними до следующего чтения */
+				return;
+			}
+			CatalogSnapshot published;
+			synchronized (publishLock) {
+				published = this.snapshot;
+				if (published == null) {
+					continue;
+				}
+				publishedDuringRebuild = new ArrayList<>();
+			}
+			long start = System.nanoTime();
+			Collection<Product> products = published.getProducts().values();
+			ProductSearchIndex builtSearchIndex = new ProductSearchIndex();
+			builtSearchIndex.rebuild(products);
+			ProductNameIndex builtNameIndex = new ProductNameIndex();
+			builtNameIndex.rebuild(products);
+			synchronized (publishLock) {
+				List<Integer> ids = publishedDuringRebuild;
+				publishedDuringRebuild = null;
+				CatalogSnapshot current = this.snapshot;
+				if (current == null) {
+					return;
+				}
+				for (int id : ids) {
+					Product product = current.getProducts().get(id);
+					if (product != null) {
+						builtSearchIndex.put(product);
+						builtNameIndex.put(product);
+					} else {
+						builtSearchIndex.remove(id);
+						builtNameIndex.remove(id);
+					}
+				}
+				searchIndex = builtSearchIndex;
+				nameIndex = builtNameIndex;
+				searchIndexBuiltAtNanos = start;
+				searchIndexBuilt = true;
+			}
+			LOG.info("Search indexes of " + products.size() + " products built in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+			return;
+		}
+	}
+
+	/*
+	 * Публикует новую версию снимка, в которой товары ids перечитаны из хранилища
+	 * после их изменения (товар, которого в хранилище больше нет, удаляется), и
+	 * обновляет эти товары в индексах поиска. Товары перечитываются одним
+	 * запросом; перечитывание и публикация идут под одной блокировкой, поэтому
+	 * более раннее состояние товара не может заменить более позднее. Если
+	 * перечитать товары не удалось, снимок и индексы сбрасываются и
+	 * загружаются заново при следующем чтении.
+	 */
+	private void publish(int... ids) {
+		synchronized (publishLock) {
+			IntObjectMap<Product> reread = delegate.getProductsByIds(ids);
+			if (reread == null) {
+				versions.incrementAndGet();
+				this.snapshot = null;
+				searchIndexBuilt = false;
+				invalidations.incrementAndGet();
+				return;
+			}
+			List<Product> changed = new ArrayList<>(ids.length);
+			int[] removedIds = new int[ids.length];
+			int removedCount = 0;
+			for (int id : ids) {
+				Product product = reread.get(id);
+				if (product != null) {
+					changed.add(product);
+				} else {
+					removedIds[removedCount++] = id;
+				}
+			}
+			removedIds = Arrays.copyOf(removedIds, removedCount);
+			long version = versions.incrementAndGet();
+			CatalogSnapshot current = this.snapshot;
+			if (current != null) {
+				this.snapshot = current.withChanges(changed, removedIds, version);
+				invalidations.incrementAndGet();
+			}
+			if (searchIndexBuilt) {
+				for (Product product : changed) {
+					searchIndex.put(product);
+					nameIndex.put(product);
+				}
+				for (int id : removedIds) {
+					searchIndex.remove(id);
+					nameIndex.remove(id);
+				}
+			}
+			if (publishedDuringRebuild != null) {
+				for (int id : ids) {
+					publishedDuringRebuild.add(id);
+				}
+			}
+		}
+	}
+
+	/* Версия каталога, из которого сейчас выдаются товары */
+	@Override
+	public long getCatalogVersion() {
+		return this.currentSnapshot().getVersion();
+	}
+
+	public CatalogCacheStats getStats() {
+		CatalogSnapshot current = this.snapshot;
+		return new CatalogCacheStats(hits.get(), misses.get(), refreshes.get(), invalidations.get(),
+				totalRefreshNanos.get(), maxRefreshNanos.get(), current == null ? 0 : current.getProducts().size());
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	/*
+	 * Каталог выдается только для чтения: изменять товары нужно через методы
+	 * хранилища, а не через возвращенную коллекцию.
+	 */
+	@Override
+	public IntObjectMap<Product> getProducts() {
+		return this.currentSnapshot().getProducts();
+	}
+
+	/*
+	 * Страница выбирается из упорядоченного списка снимка двоичным поиском по
+	 * курсору, поэтому просмотр каталога не обращается к БД.
+	 */
+	@Override
+	public ProductPage getProductPage(ProductSort sort, String cursor, int pageSize) {
+		CatalogSnapshot current = this.currentSnapshot();
+		return ProductPage.slice(current.getSorted(sort), sort, cursor, pageSize, current.getVersion());
+	}
+
+	@Override
+	public Product getProductById(int id) {
+		Product product = this.currentSnapshot().getProducts().get(id);
+		return product != null ? product : delegate.getProductById(id);
+	}
+
+	@Override
+	public IntObjectMap<Product> getProductsByIds(int... ids) {
+		IntObjectMap<Product> products = this.currentSnapshot().getProducts();
+		IntObjectMap<Product> foundedProducts = new IntObjectMap<>(ids.length);
+		for (int id : ids) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.put(id, product);
+			}
+		}
+		return foundedProducts.freeze();
+	}
+
+	@Override
+	public int addProduct(Product product) {
+		int id = delegate.addProduct(product);
+		this.publish(id);
+		return id;
+	}
+
+	@Override
+	public void deleteProduct(int id) {
+		try {
+			delegate.deleteProduct(id);
+		} finally {
+			this.publish(id);
+		}
+	}
+
+	@Override
+	public void editProduct(int id, String newProductName, int newCategoryId, String newManufacturerName,
+			long newPrice, Date newDate, String newColour, String newSize, int newAmount) {
+		try {
+			delegate.editProduct(id, newProductName, newCategoryId, newManufacturerName, newPrice, newDate, newColour,
+					newSize, newAmount);
+		} finally {
+			this.publish(id);
+		}
+	}
+
+	@Override
+	public boolean updateProduct(ProductUpdate update) {
+		boolean updated = delegate.updateProduct(update);
+		if (updated) {
+			this.publish(update.getId());
+		}
+		return updated;
+	}
+
+	/* Заказ меняет остатки товаров на складе */
+	@Override
+	public int makeOrder(Order order) {
+		IntObjectMap<Product> orderedProducts = order.getOrderedProducts();
+		int[] ids = new int[orderedProducts.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = orderedProducts.keyAt(i);
+		}
+		try {
+			return delegate.makeOrder(order);
+		} finally {
+			this.publish(ids);
+		}
+	}
+
+	/*
+	 * Перечитываются только товары оформленных заказов: если вся группа
+	 * отклонена, остатки не изменились, и снимок не меняется.
+	 */
+	@Override
+	public List<OrderResult> makeOrders(List<Order> orders) {
+		List<OrderResult> results = null;
+		try {
+			results = delegate.makeOrders(orders);
+			return results;
+		} finally {
+			IntObjectMap<Product> orderedProducts = new IntObjectMap<>();
+			for (int i = 0; i < orders.size(); i++) {
+				/* Если группа завершилась исключением, итог неизвестен - перечитываются все товары */
+				if (results == null || results.get(i).isPlaced()) {
+					for (Product product : orders.get(i).getOrderedProducts().values()) {
+						orderedProducts.put(product.getId(), product);
+					}
+				}
+			}
+			if (!orderedProducts.isEmpty()) {
+				int[] ids = new int[orderedProducts.size()];
+				for (int i = 0; i < ids.length; i++) {
+					ids[i] = orderedProducts.keyAt(i);
+				}
+				this.publish(ids);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public int generateProductId() {
+		return delegate.generateProductId();
+	}
+
+	@Override
+	public Product getProductByProductName(String productName) {
+		return delegate.getProductByProductName(productName);
+	}
+
+	@Override
+	public String checkAccountRole(String login) {
+		return delegate.checkAccountRole(login);
+	}
+
+	@Override
+	public boolean checkLoginPassword(String login, String password) {
+		return delegate.checkLoginPassword(login, password);
+	}
+
+	@Override
+	public Account authenticate(String login, String password) {
+		return delegate.authenticate(login, password);
+	}
+
+	@Override
+	public int generateOrderId() {
+		return delegate.generateOrderId();
+	}
+
+	@Override
+	public IntObjectMap<Order> getUserOrders(String login) {
+		return delegate.getUserOrders(login);
+	}
+
+	@Override
+	public IntObjectMap<Order> getAllOrders() {
+		return delegate.getAllOrders();
+	}
+
+	@Override
+	public void changeOrderStatus(int orderId, String newOrderStatus) {
+		delegate.changeOrderStatus(orderId, newOrderStatus);
+	}
+
+	@Override
+	public ConcurrentHashMap<String, Account> getAccounts() {
+		return delegate.getAccounts();
+	}
+
+	@Override
+	public void changeAccountStatus(String login, Boolean currentStatus) {
+		delegate.changeAccountStatus(login, currentStatus);
+	}
+
+	@Override
+	public void addAccount(String role, Account account) {
+		delegate.addAccount(role, account);
+	}
+
+	/* Выгрузка читает БД напрямую, а не снимок, чтобы не держать весь каталог в куче */
+	@Override
+	public void exportProducts(Consumer<Product> consumer) {
+		delegate.exportProducts(consumer);
+	}
+
+	@Override
+	public void exportOrders(Consumer<Order> consumer) {
+		delegate.exportOrders(consumer);
+	}
+
+	@Override
+	public void exportOrderLines(BiConsumer<Integer, Product> consumer) {
+		delegate.exportOrderLines(consumer);
+	}
+
+	@Override
+	public ConcurrentMap<String, Manufacturer> getManufacturers() {
+		return delegate.getManufacturers();
+	}
+
+	@Override
+	public List<Product> searchProducts(String query, int limit) {
+		this.currentSearchIndex();
+		ProductNameIndex currentNameIndex = nameIndex;
+		IntObjectMap<Product> products = this.currentSnapshot().getProducts();
+		List<Product> foundedProducts = new ArrayList<>();
+		for (Integer id : currentNameIndex.search(query, limit)) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.add(product);
+			}
+		}
+		return foundedProducts;
+	}
+
+	@Override
+	public ProductFacets getProductFacets(String manufacturerName, String minPrice, String maxPrice,
+			String colour) {
+		return this.currentSearchIndex().facets(manufacturerName, minPrice, maxPrice, colour);
+	}
+
+	/* Выборка выполняется по индексу в памяти, товары берутся из снимка */
+	@Override
+	public IntObjectMap<Product> findProducts(String manufacturerName, String minPrice, String maxPrice,
+			String colour) {
+		int[] ids = this.currentSearchIndex().find(manufacturerName, minPrice, maxPrice, colour);
+		IntObjectMap<Product> products = this.currentSnapshot().getProducts();
+		IntObjectMap<Product> foundedProducts = new IntObjectMap<>(ids.length);
+		for (int id : ids) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.put(id, product);
+			}
+		}
+		return foundedProducts.freeze();
+	}
+
+}
@@ -0,0 +1,78 @@
+package storages;
+
+/**
+ * Снимок метрик кэша каталога {@link CachingStorage} на момент вызова
+ * {@link CachingStorage#getStats()}. Доля попаданий показывает, сколько
+ * просмотров каталога обслужено без обращения к БД, а время обновления - во
+ * что обходится каждая перезагрузка снимка.
+ *
+ * @author Anatolii Melchenko
+ */
+public class CatalogCacheStats {
+
+	private final long hits;
+	private final long misses;
+	private final long refreshes;
+	private final long invalidations;
+	private final long totalRefreshNanos;
+	private final long maxRefreshNanos;
+	private final int size;
+
+	public CatalogCacheStats(long hits, long misses, long refreshes, long invalidations, long totalRefreshNanos,
+			long maxRefreshNanos, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.refreshes = refreshes;
+		this.invalidations = invalidations;
+		this.totalRefreshNanos = totalRefreshNanos;
+		this.maxRefreshNanos = maxRefreshNanos;
+		this.size = size;
+	}
+
+	/* Сколько раз каталог выдан из снимка */
+	public long getHits() {
+		return hits;
+	}
+
+	/* Сколько раз снимок пришлось загружать (отсутствовал или устарел) */
+	public long getMisses() {
+		return misses;
+	}
+
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getRefreshes() {
+		return refreshes;
+	}
+
+	/* Сколько раз снимок заменен новой версией из-за изменения товаров */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	/* Среднее время загрузки снимка, мкс */
+	public long getAverageRefreshMicros() {
+		return refreshes == 0 ? 0 : totalRefreshNanos / refreshes / 1000;
+	}
+
+	/* Наибольшее время загрузки снимка, мкс */
+	public long getMaxRefreshMicros() {
+		return maxRefreshNanos / 1000;
+	}
+
+	/* Количество товаров в текущем снимке */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", hitRatio=" + String.format("%.3f", this.getHitRatio())
+				+ ", refreshes=" + refreshes + ", invalidations=" + invalidations + ", avgRefresh(us)="
+				+ this.getAverageRefreshMicros() + ", maxRefresh(us)=" + this.getMaxRefreshMicros() + ", size=" + size;
+	}
+
+}
@@ -0,0 +1,140 @@
+package storages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import models.IntObjectMap;
+import models.Product;
+import models.ProductSort;
+
+/**
+ * Неизменяемый версионированный снимок каталога товаров. Снимок целиком
+ * заменяется новым при загрузке из хранилища и при каждом изменении товаров
+ * (новый снимок строится из предыдущего заменой измененных товаров), поэтому
+ * потоки, которые его читают, не нуждаются в синхронизации и видят каталог
+ * целиком одной версии. Товары снимка заморожены (Product.freeze()): один и
+ * тот же объект одновременно выдается всем запросам.
+ *
+ * @author Anatolii Melchenko
+ */
+final class CatalogSnapshot {
+
+	private final IntObjectMap<Product> products;
+
+	/* Товары, упорядоченные для постраничного просмотра; строятся при первом обращении */
+	private final ConcurrentHashMap<ProductSort, List<Product>> sorted = new ConcurrentHashMap<>();
+
+	/* Версия каталога, растет с каждым новым снимком */
+	private final long version;
+
+	/* Момент загрузки снимка из хранилища, System.nanoTime() */
+	private final long loadedAtNanos;
+
+	/* products - товары, уже упорядоченные по ID и замороженные */
+	private CatalogSnapshot(IntObjectMap<Product> products, long version, long loadedAtNanos) {
+		this.products = products.freeze();
+		this.version = version;
+		this.loadedAtNanos = loadedAtNanos;
+	}
+
+	/* Снимок товаров, загруженных из хранилища */
+	static CatalogSnapshot of(IntObjectMap<Product> loadedProducts, long version, long loadedAtNanos) {
+		return new CatalogSnapshot(CatalogSnapshot.orderById(loadedProducts), version, loadedAtNanos);
+	}
+
+	/* Копия товаров в порядке возрастания ID, товары при этом замораживаются */
+	private static IntObjectMap<Product> orderById(IntObjectMap<Product> products) {
+		int[] ids = new int[products.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = products.keyAt(i);
+		}
+		Arrays.sort(ids);
+		IntObjectMap<Product> ordered = new IntObjectMap<>(ids.length);
+		for (int id : ids) {
+			ordered.put(id, products.get(id).freeze());
+		}
+		return ordered;
+	}
+
+	/*
+	 * Новая версия снимка, в которой товары changed добавлены или заменены, а
+	 * товары с ID из removedIds удалены. Текущий снимок не меняется. Уже
+	 * построенные упорядоченные списки переносятся в новый снимок с заменой
+	 * только измененных товаров, без повторной сортировки. Момент загрузки
+	 * остается прежним: остальные товары не перечитывались из хранилища.
+	 */
+	CatalogSnapshot withChanges(Collection<Product> changed, int[] removedIds, long newVersion) {
+		List<Product> removed = new ArrayList<>();
+		boolean ordered = true;
+		int lastId = products.isEmpty() ? Integer.MIN_VALUE : products.keyAt(products.size() - 1);
+		IntObjectMap<Product> next = products.copy();
+		for (int id : removedIds) {
+			Product previous = next.remove(id);
+			if (previous != null) {
+				removed.add(previous);
+				ordered = false;
+			}
+		}
+		for (Product product : changed) {
+			Product previous = next.put(product.getId(), product.freeze());
+			if (previous != null) {
+				removed.add(previous);
+			} else if (product.getId() < lastId) {
+				ordered = false;
+			} else {
+				lastId = product.getId();
+			}
+		}
+		/* Удаление и вставка в середину нарушают порядок ID - его восстанавливает сортировка */
+		return new CatalogSnapshot(ordered ? next : CatalogSnapshot.orderById(next), newVersion, loadedAtNanos)
+				.withSorted(this, removed, changed);
+	}
+
+	/* Переносит упорядоченные списки из предыдущего снимка с заменой товаров */
+	private CatalogSnapshot withSorted(CatalogSnapshot previous, List<Product> removed,
+			Collection<Product> added) {
+		for (Map.Entry<ProductSort, List<Product>> entry : previous.sorted.entrySet()) {
+			List<Product> list = new ArrayList<>(entry.getValue());
+			for (Product product : removed) {
+				int position = Collections.binarySearch(list, product, entry.getKey().getComparator());
+				if (position >= 0) {
+					list.remove(position);
+				}
+			}
+			for (Product product : added) {
+				int position = Collections.binarySearch(list, product, entry.getKey().getComparator());
+				list.add(position >= 0 ? position : -position - 1, product);
+			}
+			sorted.put(entry.getKey(), Collections.unmodifiableList(list));
+		}
+		return this;
+	}
+
+	/* Товары каталога в порядке возрастания ID */
+	IntObjectMap<Product> getProducts() {
+		return products;
+	}
+
+	/* Товары каталога в порядке sort */
+	List<Product> getSorted(ProductSort sort) {
+		return sorted.computeIfAbsent(sort, key -> {
+			List<Product> list = new ArrayList<>(products.values());
+			list.sort(key.getComparator());
+			return Collections.unmodifiableList(list);
+		});
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	long getLoadedAtNanos() {
+		return loadedAtNanos;
+	}
+
+}
@@ -0,0 +1,454 @@
+package storages;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import models.Product;
+
+/**
+ * Хранилище товаров в памяти по столбцам: каждый атрибут товара хранится в
+ * отдельном массиве примитивов, товару соответствует номер позиции (slot) во
+ * всех массивах. Производитель, цвет и размер кодируются по словарю (в
+ * столбце хранится номер значения, сами строки - по одному экземпляру на
+ * значение), дата изготовления - номер дня от 1970-01-01. Поэтому товар не
+ * требует отдельных объектов в куче, а перебор одного атрибута идет по
+ * непрерывному массиву.
+ * <p>
+ * Объекты Product создаются только на границе - при выдаче товара наружу - и
+ * являются копиями: изменения в них не попадают в хранилище, для этого товар
+ * нужно снова записать методом put.
+ * <p>
+ * Чтение и изменение разделены блокировкой ReadWriteLock. Остатки товаров на
+ * складе хранятся в AtomicIntegerArray и меняются через compareAndSet под
+ * блокировкой чтения: списание разных товаров не выстраивается в очередь за
+ * блокировкой записи, а столбец остатков остается единственным местом, где
+ * хранится остаток.
+ *
+ * @author Anatolii Melchenko
+ */
+final class ColumnarProductStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/* Код отсутствующего значения (null) в словарных столбцах и столбце дат */
+	private static final int NULL_CODE = -1;
+	private static final int NULL_DAY = Integer.MIN_VALUE;
+
+	/* Признак свободной ячейки в таблице ID -> позиция */
+	private static final int EMPTY = -1;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/* Столбцы */
+	private int[] ids = new int[INITIAL_CAPACITY];
+	private String[] productNames = new String[INITIAL_CAPACITY];
+	private int[] categoryIds = new int[INITIAL_CAPACITY];
+	private int[] manufacturerCodes = new int[INITIAL_CAPACITY];
+	private long[] prices = new long[INITIAL_CAPACITY];
+	private int[] creationDays = new int[INITIAL_CAPACITY];
+	private int[] colourCodes = new int[INITIAL_CAPACITY];
+	private int[] sizeCodes = new int[INITIAL_CAPACITY];
+	private AtomicIntegerArray amounts = new AtomicIntegerArray(INITIAL_CAPACITY);
+	private AtomicIntegerArray versions = new AtomicIntegerArray(INITIAL_CAPACITY);
+
+	private final Dictionary manufacturers = new Dictionary();
+	private final Dictionary colours = new Dictionary();
+	private final Dictionary sizes = new Dictionary();
+
+	/* Занятые позиции и стек освободившихся позиций */
+	private final Bitmap live = new Bitmap();
+	private int slotCount;
+	private int[] freeSlots = new int[INITIAL_CAPACITY];
+	private int freeCount;
+
+	/*
+	 * Таблица ID -> позиция с открытой адресацией (линейное пробирование), без
+	 * упаковки ключей в Integer.
+	 */
+	private int[] tableIds = new int[INITIAL_CAPACITY * 2];
+	private int[] tableSlots = ColumnarProductStore.emptyTable(INITIAL_CAPACITY * 2);
+	private int size;
+
+	/* Добавляет товар или заменяет все атрибуты уже сохраненного товара */
+	public void put(Product product) {
+		lock.writeLock().lock();
+		try {
+			int slot = this.slotOf(product.getId());
+			if (slot == EMPTY) {
+				slot = this.allocateSlot();
+				this.insertSlot(product.getId(), slot);
+			}
+			this.write(slot, product);
+			amounts.set(slot, product.getAmount());
+			versions.set(slot, product.getVersion());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Заменяет атрибуты сохраненного товара, кроме остатка на складе: остаток
+	 * в копии товара мог устареть, пока шло списание. Версия товара
+	 * увеличивается. Возвращает false, если товара нет.
+	 */
+	public boolean update(Product product) {
+		lock.writeLock().lock();
+		try {
+			int slot = this.slotOf(product.getId());
+			if (slot == EMPTY) {
+				return false;
+			}
+			this.write(slot, product);
+			versions.incrementAndGet(slot);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Заменяет атрибуты сохраненного товара, только если его версия все еще
+	 * равна expectedVersion, и увеличивает версию. Остаток записывается, только
+	 * если withAmount. Списание со склада тоже увеличивает версию, поэтому
+	 * остаток, прочитанный до продажи, ее не затирает. Возвращает false, если
+	 * товара нет или его версия изменилась.
+	 */
+	public boolean update(Product product, int expectedVersion, boolean withAmount) {
+		lock.writeLock().lock();
+		try {
+			int slot = this.slotOf(product.getId());
+			if (slot == EMPTY || versions.get(slot) != expectedVersion) {
+				return false;
+			}
+			this.write(slot, product);
+			if (withAmount) {
+				amounts.set(slot, product.getAmount());
+			}
+			versions.set(slot, expectedVersion + 1);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(int id) {
+		lock.writeLock().lock();
+		try {
+			int slot = this.deleteSlot(id);
+			if (slot == EMPTY) {
+				return;
+			}
+			live.clear(slot);
+			productNames[slot] = null;
+			if (freeCount == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+			}
+			freeSlots[freeCount++] = slot;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/* Копия товара или null, если товара с таким ID нет */
+	public Product get(int id) {
+		lock.readLock().lock();
+		try {
+			int slot = this.slotOf(id);
+			return slot == EMPTY ? null : this.read(slot);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean contains(int id) {
+		lock.readLock().lock();
+		try {
+			return this.slotOf(id) != EMPTY;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Атомарно уменьшает остаток товара на amount, если на складе достаточно
+	 * единиц. Возвращает false, если товара нет или его не хватает.
+	 */
+	public boolean tryDecreaseAmount(int id, int amount) {
+		lock.readLock().lock();
+		try {
+			int slot = this.slotOf(id);
+			if (slot == EMPTY) {
+				return false;
+			}
+			while (true) {
+				int available = amounts.get(slot);
+				if (available < amount) {
+					return false;
+				}
+				if (amounts.compareAndSet(slot, available, available - amount)) {
+					versions.incrementAndGet(slot);
+					return true;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/* Атомарно увеличивает остаток товара на amount (возврат на склад) */
+	public void increaseAmount(int id, int amount) {
+		lock.readLock().lock();
+		try {
+			int slot = this.slotOf(id);
+			if (slot != EMPTY) {
+				amounts.addAndGet(slot, amount);
+				versions.incrementAndGet(slot);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/* Копии всех товаров в порядке позиций */
+	public List<Product> values() {
+		lock.readLock().lock();
+		try {
+			List<Product> products = new ArrayList<>(size);
+			for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+				products.add(this.read(slot));
+			}
+			return products;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/* Передает обработчику копии всех товаров по одной */
+	public void forEach(Consumer<Product> consumer) {
+		for (Product product : this.values()) {
+			consumer.accept(product);
+		}
+	}
+
+	/*
+	 * Поиск товара по наименованию без учета регистра: перебирается только столбец
+	 * наименований, товар создается для найденной позиции. Если подходящих
+	 * товаров несколько, возвращается последний, null - если таких нет.
+	 */
+	public Product findByProductName(String productName) {
+		lock.readLock().lock();
+		try {
+			int found = EMPTY;
+			for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+				if (productNames[slot] != null && productNames[slot].equalsIgnoreCase(productName)) {
+					found = slot;
+				}
+			}
+			return found == EMPTY ? null : this.read(found);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	private void write(int slot, Product product) {
+		ids[slot] = product.getId();
+		productNames[slot] = product.getProductName();
+		categoryIds[slot] = product.getCategoryId();
+		manufacturerCodes[slot] = manufacturers.encode(product.getManufacturerName());
+		prices[slot] = product.getPrice();
+		creationDays[slot] = ColumnarProductStore.toEpochDay(product.getCreationDate());
+		colourCodes[slot] = colours.encode(product.getColour());
+		sizeCodes[slot] = sizes.encode(product.getSize());
+	}
+
+	private Product read(int slot) {
+		Product product = new Product(ids[slot], productNames[slot], categoryIds[slot],
+				manufacturers.decode(manufacturerCodes[slot]), prices[slot],
+				ColumnarProductStore.fromEpochDay(creationDays[slot]), colours.decode(colourCodes[slot]),
+				sizes.decode(sizeCodes[slot]), amounts.get(slot));
+		product.setVersion(versions.get(slot));
+		return product;
+	}
+
+	private int allocateSlot() {
+		int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+		if (slot >= ids.length) {
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			productNames = Arrays.copyOf(productNames, capacity);
+			categoryIds = Arrays.copyOf(categoryIds, capacity);
+			manufacturerCodes = Arrays.copyOf(manufacturerCodes, capacity);
+			prices = Arrays.copyOf(prices, capacity);
+			creationDays = Arrays.copyOf(creationDays, capacity);
+			colourCodes = Arrays.copyOf(colourCodes, capacity);
+			sizeCodes = Arrays.copyOf(sizeCodes, capacity);
+			amounts = ColumnarProductStore.copyOf(amounts, capacity);
+			versions = ColumnarProductStore.copyOf(versions, capacity);
+		}
+		live.set(slot);
+		return slot;
+	}
+
+	private static AtomicIntegerArray copyOf(AtomicIntegerArray array, int capacity) {
+		AtomicIntegerArray copy = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < array.length(); i++) {
+			copy.set(i, array.get(i));
+		}
+		return copy;
+	}
+
+	private static int toEpochDay(Date date) {
+		if (date == null) {
+			return NULL_DAY;
+		}
+		/* java.sql.Date не поддерживает toInstant() */
+		LocalDate localDate = date instanceof java.sql.Date ? ((java.sql.Date) date).toLocalDate()
+				: date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+		return (int) localDate.toEpochDay();
+	}
+
+	private static Date fromEpochDay(int day) {
+		return day == NULL_DAY ? null : java.sql.Date.valueOf(LocalDate.ofEpochDay(day));
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// Таблица ID -> позиция
+	// ------------------------------------------------------------------------------------------------------------------
+
+	private static int[] emptyTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+
+	private static int hash(int id, int mask) {
+		int hash = id * 0x9E3779B9;
+		return (hash ^ hash >>> 16) & mask;
+	}
+
+	private int slotOf(int id) {
+		int mask = tableSlots.length - 1;
+		for (int i = ColumnarProductStore.hash(id, mask); tableSlots[i] != EMPTY; i = (i + 1) & mask) {
+			if (tableIds[i] == id) {
+				return tableSlots[i];
+			}
+		}
+		return EMPTY;
+	}
+
+	private void insertSlot(int id, int slot) {
+		/* Заполнение таблицы не выше 1/2 */
+		if ((size + 1) * 2 > tableSlots.length) {
+			this.resizeTable(tableSlots.length * 2);
+		}
+		int mask = tableSlots.length - 1;
+		int i = ColumnarProductStore.hash(id, mask);
+		while (tableSlots[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		tableIds[i] = id;
+		tableSlots[i] = slot;
+		size++;
+	}
+
+	/*
+	 * Удаляет ID из таблицы и возвращает его позицию. Следующие за удаленной
+	 * ячейки цепочки сдвигаются назад, чтобы поиск не обрывался на пустой ячейке.
+	 */
+	private int deleteSlot(int id) {
+		int mask = tableSlots.length - 1;
+		int i = ColumnarProductStore.hash(id, mask);
+		while (tableSlots[i] != EMPTY && tableIds[i] != id) {
+			i = (i + 1) & mask;
+		}
+		if (tableSlots[i] == EMPTY) {
+			return EMPTY;
+		}
+		int slot = tableSlots[i];
+		int gap = i;
+		for (int j = (gap + 1) & mask; tableSlots[j] != EMPTY; j = (j + 1) & mask) {
+			int home = ColumnarProductStore.hash(tableIds[j], mask);
+			/* Элемент j можно перенести в gap, если gap лежит между home и j по кругу */
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				tableIds[gap] = tableIds[j];
+				tableSlots[gap] = tableSlots[j];
+				gap = j;
+			}
+		}
+		tableSlots[gap] = EMPTY;
+		size--;
+		return slot;
+	}
+
+	private void resizeTable(int capacity) {
+		int[] oldIds = tableIds;
+		int[] oldSlots = tableSlots;
+		tableIds = new int[capacity];
+		tableSlots = ColumnarProductStore.emptyTable(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != EMPTY) {
+				int j = ColumnarProductStore.hash(oldIds[i], mask);
+				while (tableSlots[j] != EMPTY) {
+					j = (j + 1) & mask;
+				}
+				tableIds[j] = oldIds[i];
+				tableSlots[j] = oldSlots[i];
+			}
+		}
+	}
+
+	/**
+	 * Словарь значений строкового столбца: каждое значение хранится один раз, в
+	 * столбце - его номер. Значения из словаря не удаляются - их немного
+	 * (производители, цвета, размеры).
+	 */
+	private static final class Dictionary {
+
+		private final Map<String, Integer> codes = new HashMap<>();
+		private String[] values = new String[16];
+
+		private int encode(String value) {
+			if (value == null) {
+				return NULL_CODE;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = codes.size();
+				if (code == values.length) {
+					values = Arrays.copyOf(values, code * 2);
+				}
+				values[code] = value;
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		private String decode(int code) {
+			return code == NULL_CODE ? null : values[code];
+		}
+	}
+
+}
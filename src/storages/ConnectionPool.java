@@ -2,42 +2,105 @@ package storages;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Properties;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+import org.apache.log4j.Logger;
+
+import service.Settings;
+
 /**
- * This connection pool is Tomcat connection pool. We can't just run application
- * as java app. We should run on Tomcat.
+ * Точка получения соединений с БД. Если приложение запущено в Tomcat и в
+ * Context.xml объявлен пул jdbc/tomcat_connection_pool, соединения выдает он.
+ * Иначе (или если в JDBC.properties указано pool.type=builtin) используется
+ * встроенный пул {@link InstrumentedConnectionPool}, поэтому слой хранилища
+ * можно запускать и как обычное Java-приложение. Поиск в JNDI выполняется один
+ * раз при создании экземпляра, а не при каждой выдаче соединения.
  */
 public class ConnectionPool {
 
+	private static final Logger LOG = Logger.getLogger(ConnectionPool.class);
+	private static final String JNDI_NAME = "java:comp/env/jdbc/tomcat_connection_pool";
+
+	/* Пул Tomcat, null - если используется встроенный пул */
+	private final DataSource dataSource;
+
+	/* Встроенный пул, null - если используется пул Tomcat */
+	private final InstrumentedConnectionPool builtinPool;
+
 	private ConnectionPool() {
-		// private constructor
+		final Settings settings = Settings.getInstance();
+		final String poolType = settings.value("pool.type") == null ? "auto" : settings.value("pool.type");
+		this.dataSource = "builtin".equals(poolType) ? null : lookupDataSource();
+		if (this.dataSource != null) {
+			this.builtinPool = null;
+			LOG.info("Using Tomcat connection pool " + JNDI_NAME);
+		} else {
+			if ("jndi".equals(poolType)) {
+				LOG.error("Tomcat connection pool " + JNDI_NAME + " is not available, using built-in pool");
+			}
+			this.builtinPool = createBuiltinPool(settings);
+		}
 	}
 
-	private static ConnectionPool instance = null;
+	/* Пулом пользуются одновременно все потоки запросов, поэтому экземпляр создается сразу */
+	private static final ConnectionPool INSTANCE = new ConnectionPool();
 
 	public static ConnectionPool getInstance() {
-		if (instance == null)
-			instance = new ConnectionPool();
-		return instance;
+		return INSTANCE;
+	}
+
+	public Connection getConnection() throws SQLException {
+		if (dataSource != null) {
+			return dataSource.getConnection();
+		}
+		return builtinPool.getConnection();
 	}
 
-	public Connection getConnection() {
-		Context context;
-		Connection connection = null;
+	/* Состояние встроенного пула или null, если соединения выдает пул Tomcat */
+	public PoolStats getStats() {
+		return builtinPool == null ? null : builtinPool.getStats();
+	}
+
+	/* Закрывает встроенный пул, пулом Tomcat управляет сам Tomcat */
+	public void shutdown() {
+		if (builtinPool != null) {
+			builtinPool.shutdown();
+		}
+	}
+
+	private static DataSource lookupDataSource() {
 		try {
-			context = new InitialContext();
-			DataSource dataSource = (DataSource) context.lookup("java:comp/env/jdbc/tomcat_connection_pool");
-			connection = dataSource.getConnection();
+			Context context = new InitialContext();
+			return (DataSource) context.lookup(JNDI_NAME);
 		} catch (NamingException e) {
-			e.printStackTrace();
-		} catch (SQLException e) {
-			e.printStackTrace();
+			LOG.debug("JNDI lookup of " + JNDI_NAME + " failed", e);
+			return null;
+		}
+	}
+
+	private static InstrumentedConnectionPool createBuiltinPool(Settings settings) {
+		try {
+			Class.forName(settings.value("jdbc.driver_class"));
+		} catch (ClassNotFoundException e) {
+			LOG.error("JDBC driver class is not found", e);
 		}
-		return connection;
+		Properties connectionProperties = new Properties();
+		connectionProperties.setProperty("user", settings.value("jdbc.username"));
+		connectionProperties.setProperty("password", settings.value("jdbc.password"));
+		/*
+		 * Серверная подготовка запроса (named prepared statement) уже со второго
+		 * выполнения одного и того же PreparedStatement из кэша соединения.
+		 */
+		connectionProperties.setProperty("prepareThreshold",
+				String.valueOf(settings.intValue("jdbc.prepare.threshold", 1)));
+		return new InstrumentedConnectionPool(settings.value("jdbc.url"), connectionProperties,
+				settings.intValue("pool.max.size", 10), settings.intValue("pool.min.idle", 2),
+				settings.intValue("pool.borrow.timeout.ms", 5000), settings.intValue("pool.validation.interval.ms", 30000),
+				settings.intValue("pool.leak.threshold.ms", 60000), settings.intValue("pool.statement.cache.size", 50));
 	}
 }
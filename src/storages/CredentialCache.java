@@ -0,0 +1,108 @@
+package storages;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import models.Account;
+import service.Settings;
+
+/**
+ * Кэш учетных данных (пароль, статус, роль) для входа в систему. Размер кэша
+ * ограничен, при переполнении вытесняется аккаунт, к которому дольше всего не
+ * обращались (LRU), кроме того записи устаревают через заданное время. На
+ * протяжении всего жизненного цикла приложения создается только один экземпляр
+ * данного класса (шаблон проектирования Singleton), поэтому все хранилища видят
+ * один и тот же кэш и сброс записи сразу действует для всех сервлетов.
+ *
+ * @author Anatolii Melchenko
+ */
+public class CredentialCache {
+
+	private static final int DEFAULT_MAX_SIZE = 1000;
+	private static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, CachedAccount> entries;
+
+	/*
+	 * Счетчик сбросов. Запись, загруженная из БД до очередного сброса, в кэш не
+	 * попадает - иначе заблокированный аккаунт мог бы вернуться в кэш со старым
+	 * статусом.
+	 */
+	private long generation;
+
+	private CredentialCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, CachedAccount>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedAccount> eldest) {
+				return size() > CredentialCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * SingletonHolder is loaded on the first execution of
+	 * CredentialCache.getInstance() or the first access to
+	 * CredentialCacheHolder.INSTANCE, not before.
+	 */
+	private static class CredentialCacheHolder {
+		private static final CredentialCache INSTANCE = new CredentialCache(
+				Settings.getInstance().intValue("credentials.cache.size", DEFAULT_MAX_SIZE),
+				Settings.getInstance().intValue("credentials.cache.ttl.ms", (int) DEFAULT_TTL_MILLIS));
+	}
+
+	public static CredentialCache getInstance() {
+		return CredentialCacheHolder.INSTANCE;
+	}
+
+	/* Возвращает аккаунт из кэша или null, если записи нет или она устарела. */
+	public synchronized Account get(String login) {
+		CachedAccount entry = entries.get(login);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+			entries.remove(login);
+			return null;
+		}
+		return entry.account;
+	}
+
+	/* Текущее значение счетчика сбросов, его нужно запомнить до чтения из БД. */
+	public synchronized long generation() {
+		return generation;
+	}
+
+	/*
+	 * Добавляет загруженный из БД аккаунт, если с момента начала загрузки не было
+	 * сбросов.
+	 */
+	public synchronized void put(String login, Account account, long loadedGeneration) {
+		if (loadedGeneration == generation) {
+			entries.put(login, new CachedAccount(account, System.currentTimeMillis()));
+		}
+	}
+
+	/* Сбрасывает запись аккаунта после изменения его данных. */
+	public synchronized void invalidate(String login) {
+		generation++;
+		entries.remove(login);
+	}
+
+	private static final class CachedAccount {
+
+		private final Account account;
+		private final long loadedAt;
+
+		private CachedAccount(Account account, long loadedAt) {
+			this.account = account;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+}
@@ -0,0 +1,408 @@
+package storages;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Встроенный пул соединений с БД, не зависящий от Tomcat JNDI. Позволяет
+ * запускать слой хранилища как обычное Java-приложение (например, в
+ * бенчмарках).
+ * <ul>
+ * <li>Размер пула ограничен; выдача соединений справедливая (fair semaphore),
+ * поток ждет не дольше заданного таймаута.</li>
+ * <li>Простаивающие соединения проверяются фоновым потоком, а не запросом
+ * select 1 при каждой выдаче.</li>
+ * <li>При создании пул сразу открывает минимальное количество соединений
+ * (прогрев).</li>
+ * <li>Соединения, которые не вернули в пул дольше заданного времени, считаются
+ * утечкой: в журнал пишется стек вызова, взявшего соединение.</li>
+ * <li>У каждого соединения есть свой кэш подготовленных запросов
+ * ({@link StatementCache}).</li>
+ * <li>Текущее состояние пула доступно через {@link #getStats()}.</li>
+ * </ul>
+ *
+ * @author Anatolii Melchenko
+ */
+public class InstrumentedConnectionPool {
+
+	private static final Logger LOG = Logger.getLogger(InstrumentedConnectionPool.class);
+
+	/* SQLState класса 08 означает потерю соединения с сервером */
+	private static final String SQL_STATE_CONNECTION_EXCEPTION = "08";
+
+	private final String url;
+	private final Properties connectionProperties;
+	private final int maxSize;
+	private final int minIdle;
+	private final long borrowTimeoutMillis;
+	private final long leakThresholdMillis;
+	private final int validationTimeoutSeconds;
+	private final int statementCacheSize;
+
+	/* Разрешения на выдачу соединений, их ровно maxSize */
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService housekeeper;
+
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong borrowTimeouts = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaksDetected = new AtomicLong();
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+	private final AtomicLongArray borrowWaitHistogram = new AtomicLongArray(PoolStats.borrowWaitBucketCount());
+
+	private volatile boolean closed;
+
+	public InstrumentedConnectionPool(String url, Properties connectionProperties, int maxSize, int minIdle,
+			long borrowTimeoutMillis, long validationIntervalMillis, long leakThresholdMillis, int statementCacheSize) {
+		if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+			throw new IllegalArgumentException("Wrong pool size: max=" + maxSize + ", minIdle=" + minIdle);
+		}
+		this.url = url;
+		this.connectionProperties = connectionProperties;
+		this.maxSize = maxSize;
+		this.minIdle = minIdle;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.validationTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(borrowTimeoutMillis));
+		this.permits = new Semaphore(maxSize, true);
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.warmUp();
+		this.housekeeper.scheduleWithFixedDelay(this::housekeep, validationIntervalMillis, validationIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Выдает соединение из пула. Соединение обязательно нужно закрыть - при этом
+	 * оно не закрывается физически, а возвращается в пул.
+	 *
+	 * @throws SQLTimeoutException
+	 *             если за время ожидания свободное соединение так и не появилось
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		long waitStart = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+		this.recordBorrowWait(System.nanoTime() - waitStart);
+		if (!acquired) {
+			borrowTimeouts.incrementAndGet();
+			throw new SQLTimeoutException("No free connection in pool within " + borrowTimeoutMillis + " ms ("
+					+ this.getStats() + ")");
+		}
+		try {
+			PooledConnection pooledConnection = idle.pollFirst();
+			if (pooledConnection == null) {
+				pooledConnection = this.openConnection();
+			}
+			Lease lease = new Lease(pooledConnection);
+			leased.add(lease);
+			borrows.incrementAndGet();
+			return lease.proxy;
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/* Снимок текущего состояния пула */
+	public PoolStats getStats() {
+		long[] histogram = new long[borrowWaitHistogram.length()];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = borrowWaitHistogram.get(i);
+		}
+		return new PoolStats(maxSize, leased.size(), idle.size(), permits.getQueueLength(), borrows.get(),
+				borrowTimeouts.get(), created.get(), destroyed.get(), validationFailures.get(), leaksDetected.get(),
+				statementCacheHits.get(), statementCacheMisses.get(), histogram);
+	}
+
+	/*
+	 * Закрывает пул: простаивающие соединения закрываются сразу, выданные - при
+	 * возврате.
+	 */
+	public void shutdown() {
+		closed = true;
+		housekeeper.shutdownNow();
+		PooledConnection pooledConnection;
+		while ((pooledConnection = idle.pollFirst()) != null) {
+			this.destroy(pooledConnection);
+		}
+		LOG.info("Connection pool closed: " + this.getStats());
+	}
+
+	private void warmUp() {
+		try {
+			for (int i = 0; i < minIdle; i++) {
+				idle.offerLast(this.openConnection());
+			}
+			LOG.info("Connection pool warmed up with " + minIdle + " connections, max size " + maxSize);
+		} catch (SQLException e) {
+			/* Пул все равно создается: соединения откроются при первой выдаче */
+			LOG.error("Could not warm up connection pool", e);
+		}
+	}
+
+	private PooledConnection openConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, connectionProperties);
+		openConnections.incrementAndGet();
+		created.incrementAndGet();
+		return new PooledConnection(connection);
+	}
+
+	private void destroy(PooledConnection pooledConnection) {
+		openConnections.decrementAndGet();
+		destroyed.incrementAndGet();
+		try {
+			pooledConnection.connection.close();
+		} catch (SQLException e) {
+			LOG.debug("Error while closing pooled connection", e);
+		}
+	}
+
+	/* Возврат соединения в пул, вызывается из close() выданного соединения */
+	private void giveBack(Lease lease) {
+		leased.remove(lease);
+		PooledConnection pooledConnection = lease.pooledConnection;
+		try {
+			if (closed || pooledConnection.broken || !pooledConnection.reset()) {
+				this.destroy(pooledConnection);
+			} else {
+				idle.offerFirst(pooledConnection);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void recordBorrowWait(long waitNanos) {
+		borrowWaitHistogram.incrementAndGet(PoolStats.borrowWaitBucket(TimeUnit.NANOSECONDS.toMicros(waitNanos)));
+	}
+
+	/*
+	 * Фоновая проверка: ищет утечки, проверяет простаивающие соединения и
+	 * восполняет их до минимального количества.
+	 */
+	private void housekeep() {
+		try {
+			this.detectLeaks();
+			this.validateIdle();
+			this.replenishIdle();
+		} catch (RuntimeException e) {
+			LOG.error("Connection pool housekeeping failed", e);
+		}
+	}
+
+	private void detectLeaks() {
+		if (leakThresholdMillis <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (Lease lease : leased) {
+			if (!lease.leakReported && now - lease.leasedAt > leakThresholdMillis) {
+				lease.leakReported = true;
+				leaksDetected.incrementAndGet();
+				LOG.warn("Connection is not returned to pool for " + (now - lease.leasedAt)
+						+ " ms, possible leak. Borrowed at:", lease.leaseTrace);
+			}
+		}
+	}
+
+	private void validateIdle() {
+		for (PooledConnection pooledConnection : idle) {
+			/*
+			 * Проверяемое соединение на время проверки занимает разрешение, чтобы общее
+			 * количество соединений не превысило maxSize. Если свободных разрешений нет,
+			 * пул загружен и проверка подождет до следующего раза.
+			 */
+			if (!permits.tryAcquire()) {
+				return;
+			}
+			try {
+				if (!idle.remove(pooledConnection)) {
+					continue;
+				}
+				if (pooledConnection.isValid()) {
+					idle.offerLast(pooledConnection);
+				} else {
+					validationFailures.incrementAndGet();
+					this.destroy(pooledConnection);
+				}
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	private void replenishIdle() {
+		while (!closed && idle.size() < minIdle && openConnections.get() < maxSize) {
+			if (!permits.tryAcquire()) {
+				return;
+			}
+			try {
+				idle.offerLast(this.openConnection());
+			} catch (SQLException e) {
+				LOG.warn("Could not open connection to replenish pool", e);
+				return;
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Физическое соединение пула.
+	 */
+	private final class PooledConnection {
+
+		private final Connection connection;
+
+		/* null - если кэш подготовленных запросов отключен */
+		private final StatementCache statementCache;
+		private volatile boolean broken;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.statementCache = statementCacheSize > 0
+					? new StatementCache(statementCacheSize, statementCacheHits, statementCacheMisses)
+					: null;
+		}
+
+		/* Возвращает соединение в исходное состояние перед возвратом в пул */
+		private boolean reset() {
+			try {
+				if (!connection.getAutoCommit()) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				connection.clearWarnings();
+				return true;
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+
+		private boolean isValid() {
+			try {
+				return connection.isValid(validationTimeoutSeconds);
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Одна выдача соединения. Наружу выдается не само соединение, а прокси, у
+	 * которого close() возвращает соединение в пул. Для каждой выдачи создается
+	 * свой прокси, поэтому повторный close() старого прокси не затронет соединение,
+	 * уже выданное другому потоку.
+	 */
+	private final class Lease implements InvocationHandler {
+
+		private final PooledConnection pooledConnection;
+		private final Connection proxy;
+		private final long leasedAt = System.currentTimeMillis();
+		private final Throwable leaseTrace;
+		private volatile boolean returned;
+		private volatile boolean leakReported;
+
+		private Lease(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+			this.leaseTrace = leakThresholdMillis > 0 ? new Throwable("Connection lease") : null;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!returned) {
+					returned = true;
+					giveBack(this);
+				}
+				return null;
+			case "isClosed":
+				return returned || pooledConnection.connection.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled " + pooledConnection.connection;
+			default:
+				if (returned) {
+					throw new SQLException("Connection is already returned to pool");
+				}
+				try {
+					if (this.isCacheable(method, args)) {
+						return pooledConnection.statementCache.prepare(pooledConnection.connection, this.proxy,
+								(String) args[0], args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1]);
+					}
+					return method.invoke(pooledConnection.connection, args);
+				} catch (InvocationTargetException e) {
+					throw this.checkBroken(e.getCause());
+				} catch (SQLException e) {
+					throw this.checkBroken(e);
+				}
+			}
+		}
+
+		/*
+		 * Кэшируются prepareStatement(sql) и prepareStatement(sql, autoGeneratedKeys),
+		 * остальные варианты передаются соединению напрямую.
+		 */
+		private boolean isCacheable(Method method, Object[] args) {
+			return pooledConnection.statementCache != null && "prepareStatement".equals(method.getName())
+					&& (args.length == 1 || (args.length == 2 && method.getParameterTypes()[1] == int.class));
+		}
+
+		/* Соединение с потерянной связью с сервером в пул не возвращается */
+		private Throwable checkBroken(Throwable cause) {
+			if (cause instanceof SQLException) {
+				String sqlState = ((SQLException) cause).getSQLState();
+				if (sqlState != null && sqlState.startsWith(SQL_STATE_CONNECTION_EXCEPTION)) {
+					pooledConnection.broken = true;
+				}
+			}
+			return cause;
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package storages;
+
+/**
+ * Результат оформления одного заказа из группы ({@link Storage#makeOrders}):
+ * заказ сохранен, отклонен из-за нехватки товара на складе или не сохранен
+ * из-за ошибки хранилища.
+ *
+ * @author Anatolii Melchenko
+ */
+public class OrderResult {
+
+	private static final OrderResult FAILED = new OrderResult(-1, null, false);
+
+	private final int orderId;
+	private final OutOfStockException outOfStock;
+	private final boolean placed;
+
+	private OrderResult(int orderId, OutOfStockException outOfStock, boolean placed) {
+		this.orderId = orderId;
+		this.outOfStock = outOfStock;
+		this.placed = placed;
+	}
+
+	public static OrderResult placed(int orderId) {
+		return new OrderResult(orderId, null, true);
+	}
+
+	public static OrderResult rejected(OutOfStockException outOfStock) {
+		return new OrderResult(-1, outOfStock, false);
+	}
+
+	public static OrderResult failed() {
+		return FAILED;
+	}
+
+	public boolean isPlaced() {
+		return placed;
+	}
+
+	/* ID сохраненного заказа, -1 - если заказ не сохранен */
+	public int getOrderId() {
+		return orderId;
+	}
+
+	/* Причина отклонения заказа, null - если заказ сохранен или не сохранен из-за ошибки */
+	public OutOfStockException getOutOfStock() {
+		return outOfStock;
+	}
+
+}
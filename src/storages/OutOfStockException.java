@@ -0,0 +1,29 @@
+package storages;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Исключение выбрасывается при оформлении заказа, если на складе недостаточно
+ * единиц хотя бы одного из заказанных товаров. В этом случае заказ не
+ * сохраняется и остатки на складе не меняются.
+ *
+ * @author Anatolii Melchenko
+ */
+public class OutOfStockException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/* ID товаров, которых на складе меньше, чем заказано */
+	private final List<Integer> shortProductIds;
+
+	public OutOfStockException(List<Integer> shortProductIds) {
+		super("Not enough products in storage, product ids: " + shortProductIds);
+		this.shortProductIds = Collections.unmodifiableList(shortProductIds);
+	}
+
+	public List<Integer> getShortProductIds() {
+		return shortProductIds;
+	}
+
+}
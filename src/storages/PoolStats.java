@@ -0,0 +1,141 @@
+package storages;
+
+import java.util.Arrays;
+
+/**
+ * Снимок состояния встроенного пула соединений на момент вызова
+ * {@link InstrumentedConnectionPool#getStats()}. По этим данным подбирается
+ * размер пула: если ожидающих потоков много, а время ожидания растет, пул мал;
+ * если большая часть соединений постоянно простаивает - велик.
+ *
+ * @author Anatolii Melchenko
+ */
+public class PoolStats {
+
+	/* Верхние границы интервалов гистограммы ожидания соединения, мкс */
+	private static final long[] BORROW_WAIT_BUCKETS_MICROS = { 100, 1_000, 10_000, 100_000, 1_000_000,
+			Long.MAX_VALUE };
+
+	private final int maxSize;
+	private final int active;
+	private final int idle;
+	private final int waiters;
+	private final long borrows;
+	private final long borrowTimeouts;
+	private final long created;
+	private final long destroyed;
+	private final long validationFailures;
+	private final long leaksDetected;
+	private final long statementCacheHits;
+	private final long statementCacheMisses;
+	private final long[] borrowWaitHistogram;
+
+	public PoolStats(int maxSize, int active, int idle, int waiters, long borrows, long borrowTimeouts, long created,
+			long destroyed, long validationFailures, long leaksDetected, long statementCacheHits,
+			long statementCacheMisses, long[] borrowWaitHistogram) {
+		this.maxSize = maxSize;
+		this.active = active;
+		this.idle = idle;
+		this.waiters = waiters;
+		this.borrows = borrows;
+		this.borrowTimeouts = borrowTimeouts;
+		this.created = created;
+		this.destroyed = destroyed;
+		this.validationFailures = validationFailures;
+		this.leaksDetected = leaksDetected;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+		this.borrowWaitHistogram = borrowWaitHistogram.clone();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/* Количество соединений, выданных потокам в данный момент */
+	public int getActive() {
+		return active;
+	}
+
+	/* Количество открытых соединений, ожидающих в пуле */
+	public int getIdle() {
+		return idle;
+	}
+
+	/* Количество потоков, ожидающих свободное соединение */
+	public int getWaiters() {
+		return waiters;
+	}
+
+	public long getBorrows() {
+		return borrows;
+	}
+
+	public long getBorrowTimeouts() {
+		return borrowTimeouts;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+
+	public long getLeaksDetected() {
+		return leaksDetected;
+	}
+
+	/* Сколько раз подготовленный запрос был взят из кэша соединения */
+	public long getStatementCacheHits() {
+		return statementCacheHits;
+	}
+
+	/* Сколько раз запрос пришлось подготавливать заново */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses;
+	}
+
+	/*
+	 * Количество выдач соединения по интервалам времени ожидания, границы
+	 * интервалов - getBorrowWaitBucketsMicros().
+	 */
+	public long[] getBorrowWaitHistogram() {
+		return borrowWaitHistogram.clone();
+	}
+
+	/* Верхние границы интервалов гистограммы ожидания (копия), мкс */
+	public static long[] getBorrowWaitBucketsMicros() {
+		return BORROW_WAIT_BUCKETS_MICROS.clone();
+	}
+
+	/* Количество интервалов гистограммы ожидания */
+	static int borrowWaitBucketCount() {
+		return BORROW_WAIT_BUCKETS_MICROS.length;
+	}
+
+	/* Номер интервала гистограммы, в который попадает время ожидания */
+	static int borrowWaitBucket(long waitMicros) {
+		int bucket = 0;
+		while (waitMicros > BORROW_WAIT_BUCKETS_MICROS[bucket]) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	@Override
+	public String toString() {
+		return "active=" + active + ", idle=" + idle + ", max=" + maxSize + ", waiters=" + waiters + ", borrows="
+				+ borrows + ", timeouts=" + borrowTimeouts + ", created=" + created + ", destroyed=" + destroyed
+				+ ", validationFailures=" + validationFailures + ", leaks=" + leaksDetected + ", statementCacheHits="
+				+ statementCacheHits + ", statementCacheMisses=" + statementCacheMisses + ", borrowWait(us<="
+				+ Arrays.toString(BORROW_WAIT_BUCKETS_MICROS).replace(String.valueOf(Long.MAX_VALUE), "inf") + ")="
+				+ Arrays.toString(borrowWaitHistogram);
+	}
+
+}
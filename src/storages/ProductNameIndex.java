@@ -0,0 +1,434 @@
+package storages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import models.Product;
+
+/**
+ * Инвертированный индекс для полнотекстового поиска товаров по наименованию и
+ * производителю. Тексты разбиваются на слова (термы), для каждого терма
+ * хранится отсортированный список ID товаров, в которых он встречается.
+ * <p>
+ * Слово запроса совпадает с термом:
+ * <ul>
+ * <li>точно (вес 3);</li>
+ * <li>как начало терма - "keyb" находит "keyboard" (вес 2), термы с нужным
+ * началом берутся из отсортированного словаря;</li>
+ * <li>с опечаткой - не более одной (для слов до 5 символов) или двух правок
+ * (вес 1). Кандидаты находятся по общим триграммам в индексе триграмм
+ * словаря, затем проверяется расстояние Дамерау-Левенштейна.</li>
+ * </ul>
+ * В результат попадают товары, в которых найдено каждое слово запроса; они
+ * упорядочены по сумме весов. Индекс обновляется по одному товару при
+ * изменениях каталога.
+ *
+ * @author Anatolii Melchenko
+ */
+public class ProductNameIndex {
+
+	private static final int EXACT_WEIGHT = 3;
+	private static final int PREFIX_WEIGHT = 2;
+	private static final int TYPO_WEIGHT = 1;
+
+	/* Ограничения на число термов, в которые разворачивается одно слово запроса */
+	private static final int MAX_PREFIX_TERMS = 64;
+	private static final int MAX_TYPO_TERMS = 16;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/* Словарь: терм - ID товаров, упорядочен для поиска по началу слова */
+	private final TreeMap<String, Postings> terms = new TreeMap<>();
+
+	/* Триграмма - термы словаря, в которых она встречается */
+	private final Map<String, Set<String>> trigrams = new HashMap<>();
+
+	/* Термы каждого товара - нужны для удаления товара из индекса */
+	private final Map<Integer, String[]> productTerms = new HashMap<>();
+
+	/* Заново строит индекс по всему каталогу */
+	public void rebuild(Collection<Product> products) {
+		lock.writeLock().lock();
+		try {
+			terms.clear();
+			trigrams.clear();
+			productTerms.clear();
+			for (Product product : products) {
+				this.insert(product);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/* Добавляет товар или переиндексирует уже проиндексированный */
+	public void put(Product product) {
+		lock.writeLock().lock();
+		try {
+			this.delete(product.getId());
+			this.insert(product);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(int id) {
+		lock.writeLock().lock();
+		try {
+			this.delete(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return productTerms.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Возвращает ID не более чем limit товаров, подходящих под запрос, в порядке
+	 * убывания релевантности (при равной релевантности - по ID). Кандидаты
+	 * берутся по самому редкому слову запроса, остальные слова только
+	 * проверяются у этих кандидатов двоичным поиском в списках их термов. Все
+	 * вычисления идут на массивах примитивов.
+	 */
+	public List<Integer> search(String query, int limit) {
+		String[] words = tokenize(query);
+		if (words.length == 0 || limit <= 0) {
+			return Collections.emptyList();
+		}
+		lock.readLock().lock();
+		try {
+			List<List<Match>> wordMatches = new ArrayList<>(words.length);
+			for (String word : words) {
+				List<Match> matches = this.match(word);
+				if (matches.isEmpty()) {
+					return Collections.emptyList();
+				}
+				wordMatches.add(matches);
+			}
+			wordMatches.sort((a, b) -> Long.compare(postingsSize(a), postingsSize(b)));
+			/* Кандидаты по самому редкому слову: ID по возрастанию и вес совпадения */
+			Postings candidates = new Postings();
+			int[] scores = new int[0];
+			/* Короткие списки объединяются первыми, длинный - один раз в конце */
+			List<Match> rarest = new ArrayList<>(wordMatches.get(0));
+			rarest.sort((a, b) -> Integer.compare(a.postings.size, b.postings.size));
+			for (Match match : rarest) {
+				scores = candidates.merge(scores, match.postings, match.weight);
+			}
+			/* Остальные слова: кандидат остается, только если содержит каждое из них */
+			int remaining = 0;
+			candidates: for (int c = 0; c < candidates.size; c++) {
+				int id = candidates.ids[c];
+				int score = scores[c];
+				for (int i = 1; i < wordMatches.size(); i++) {
+					int best = 0;
+					for (Match match : wordMatches.get(i)) {
+						if (match.weight > best && match.postings.contains(id)) {
+							best = match.weight;
+						}
+					}
+					if (best == 0) {
+						continue candidates;
+					}
+					score += best;
+				}
+				candidates.ids[remaining] = id;
+				scores[remaining] = score;
+				remaining++;
+			}
+			/*
+			 * Кандидаты уже упорядочены по ID, поэтому для каждого значения веса
+			 * достаточно первых limit товаров.
+			 */
+			int maxScore = EXACT_WEIGHT * words.length;
+			int[][] byScore = new int[maxScore + 1][];
+			int[] counts = new int[maxScore + 1];
+			for (int c = 0; c < remaining; c++) {
+				int score = scores[c];
+				if (counts[score] < limit) {
+					if (byScore[score] == null) {
+						byScore[score] = new int[Math.min(limit, remaining)];
+					}
+					byScore[score][counts[score]++] = candidates.ids[c];
+				}
+			}
+			List<Integer> ids = new ArrayList<>(Math.min(limit, remaining));
+			for (int score = maxScore; score > 0 && ids.size() < limit; score--) {
+				for (int c = 0; c < counts[score] && ids.size() < limit; c++) {
+					ids.add(byScore[score][c]);
+				}
+			}
+			return ids;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/* Разбивает текст на слова в нижнем регистре */
+	public static String[] tokenize(String text) {
+		if (text == null || text.isEmpty()) {
+			return new String[0];
+		}
+		List<String> tokens = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	/* Термы, с которыми совпадает слово запроса, с весом совпадения */
+	private List<Match> match(String word) {
+		List<Match> matches = new ArrayList<>();
+		Postings exact = terms.get(word);
+		if (exact != null) {
+			matches.add(new Match(exact, EXACT_WEIGHT));
+		}
+		int expanded = 0;
+		for (Postings postings : terms.subMap(word, false, word + Character.MAX_VALUE, false).values()) {
+			if (++expanded > MAX_PREFIX_TERMS) {
+				break;
+			}
+			matches.add(new Match(postings, PREFIX_WEIGHT));
+		}
+		if (word.length() >= 3) {
+			for (String term : this.similarTerms(word)) {
+				matches.add(new Match(terms.get(term), TYPO_WEIGHT));
+			}
+		}
+		return matches;
+	}
+
+	private static long postingsSize(List<Match> matches) {
+		long size = 0;
+		for (Match match : matches) {
+			size += match.postings.size;
+		}
+		return size;
+	}
+
+	/*
+	 * Термы словаря, отличающиеся от слова не более чем на допустимое число
+	 * правок. Проверяются только термы, имеющие со словом достаточно общих
+	 * триграмм: каждая правка меняет не более трех триграмм.
+	 */
+	private List<String> similarTerms(String word) {
+		int maxEdits = word.length() <= 5 ? 1 : 2;
+		String[] wordTrigrams = trigramsOf(word);
+		int minShared = wordTrigrams.length - 3 * maxEdits;
+		Map<String, Integer> shared = new HashMap<>();
+		for (String trigram : wordTrigrams) {
+			Set<String> candidates = trigrams.get(trigram);
+			if (candidates != null) {
+				for (String candidate : candidates) {
+					shared.merge(candidate, 1, Integer::sum);
+				}
+			}
+		}
+		List<String> similar = new ArrayList<>();
+		for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+			String term = entry.getKey();
+			if (entry.getValue() >= Math.max(1, minShared) && !term.equals(word)
+					&& Math.abs(term.length() - word.length()) <= maxEdits
+					&& editDistance(word, term, maxEdits) <= maxEdits) {
+				similar.add(term);
+				if (similar.size() >= MAX_TYPO_TERMS) {
+					break;
+				}
+			}
+		}
+		return similar;
+	}
+
+	private void insert(Product product) {
+		Set<String> unique = new HashSet<>();
+		Collections.addAll(unique, tokenize(product.getProductName()));
+		Collections.addAll(unique, tokenize(product.getManufacturerName()));
+		String[] tokens = unique.toArray(new String[unique.size()]);
+		productTerms.put(product.getId(), tokens);
+		for (String token : tokens) {
+			Postings postings = terms.get(token);
+			if (postings == null) {
+				postings = new Postings();
+				terms.put(token, postings);
+				for (String trigram : trigramsOf(token)) {
+					trigrams.computeIfAbsent(trigram, key -> new HashSet<>()).add(token);
+				}
+			}
+			postings.add(product.getId());
+		}
+	}
+
+	private void delete(int id) {
+		String[] tokens = productTerms.remove(id);
+		if (tokens == null) {
+			return;
+		}
+		for (String token : tokens) {
+			Postings postings = terms.get(token);
+			if (postings != null && postings.remove(id) && postings.size == 0) {
+				terms.remove(token);
+				for (String trigram : trigramsOf(token)) {
+					Set<String> termsWithTrigram = trigrams.get(trigram);
+					if (termsWithTrigram != null) {
+						termsWithTrigram.remove(token);
+						if (termsWithTrigram.isEmpty()) {
+							trigrams.remove(trigram);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/* Триграммы слова, дополненного с краев символом '$' */
+	private static String[] trigramsOf(String term) {
+		String padded = "$" + term + "$";
+		String[] result = new String[padded.length() - 2];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = padded.substring(i, i + 3);
+		}
+		return result;
+	}
+
+	/*
+	 * Расстояние Дамерау-Левенштейна (с перестановкой соседних символов). Если
+	 * расстояние заведомо больше max, вычисление прекращается досрочно.
+	 */
+	static int editDistance(String a, String b, int max) {
+		int[] previous2 = new int[b.length() + 1];
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			int rowMin = current[0];
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					value = Math.min(value, previous2[j - 2] + 1);
+				}
+				current[j] = value;
+				rowMin = Math.min(rowMin, value);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] swap = previous2;
+			previous2 = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	/**
+	 * Терм, с которым совпало слово запроса, и вес совпадения.
+	 */
+	private static final class Match {
+
+		private final Postings postings;
+		private final int weight;
+
+		private Match(Postings postings, int weight) {
+			this.postings = postings;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Отсортированный список ID товаров одного терма в массиве примитивов.
+	 */
+	private static final class Postings {
+
+		private int[] ids = new int[2];
+		private int size;
+
+		private void add(int id) {
+			int position = Arrays.binarySearch(ids, 0, size, id);
+			if (position >= 0) {
+				return;
+			}
+			position = -position - 1;
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			System.arraycopy(ids, position, ids, position + 1, size - position);
+			ids[position] = id;
+			size++;
+		}
+
+		private boolean remove(int id) {
+			int position = Arrays.binarySearch(ids, 0, size, id);
+			if (position < 0) {
+				return false;
+			}
+			System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+			size--;
+			return true;
+		}
+
+		private boolean contains(int id) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+
+		/*
+		 * Объединяет этот список (веса - scores) со списком терма other с весом
+		 * weight; для общих ID остается больший вес. Возвращает новые веса.
+		 */
+		private int[] merge(int[] scores, Postings other, int weight) {
+			int[] mergedIds = new int[size + other.size];
+			int[] mergedScores = new int[size + other.size];
+			int i = 0;
+			int j = 0;
+			int n = 0;
+			while (i < size || j < other.size) {
+				if (j == other.size || (i < size && ids[i] < other.ids[j])) {
+					mergedIds[n] = ids[i];
+					mergedScores[n++] = scores[i++];
+				} else if (i == size || other.ids[j] < ids[i]) {
+					mergedIds[n] = other.ids[j++];
+					mergedScores[n++] = weight;
+				} else {
+					mergedIds[n] = ids[i];
+					mergedScores[n++] = Math.max(scores[i++], weight);
+					j++;
+				}
+			}
+			ids = mergedIds;
+			size = n;
+			return mergedScores;
+		}
+	}
+
+}
@@ -0,0 +1,473 @@
+package storages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import models.Money;
+import models.Product;
+import models.ProductFacets;
+import service.Settings;
+
+/**
+ * Индекс каталога в памяти для выборки товаров по производителю, цвету и
+ * диапазону цены (findProducts). Каждому товару выделяется номер позиции
+ * (slot), для каждого производителя и каждого цвета хранится битовая карта
+ * позиций товаров с этим значением, а цены хранятся в отсортированном массиве
+ * примитивов, по которому диапазон находится двоичным поиском. Выборка - это
+ * пересечение битовых карт, без обращения к БД.
+ * <p>
+ * По тем же битовым картам (и картам ценовых диапазонов) считаются фасеты -
+ * количество товаров для каждого значения производителя, цвета и диапазона
+ * цены при текущем фильтре.
+ * <p>
+ * Индекс обновляется по одному товару при добавлении, изменении и удалении.
+ * Чтение и изменение разделены блокировкой ReadWriteLock, поэтому выборки
+ * выполняются параллельно.
+ *
+ * @author Anatolii Melchenko
+ */
+public class ProductSearchIndex {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/* Границы цены, если они не заданы в запросе */
+	public static final long NO_MIN_PRICE = 0;
+	public static final long NO_MAX_PRICE = Long.MAX_VALUE;
+
+	private static final String DEFAULT_PRICE_BUCKETS = "0,100,500,1000,5000,10000";
+	private static final int DEFAULT_FACETS_BUDGET_MICROS = 10000;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/* Позиция товара по его ID */
+	private final Map<Integer, Integer> slotById = new HashMap<>();
+
+	/* Атрибуты товаров по позициям */
+	private int[] ids = new int[INITIAL_CAPACITY];
+	private long[] prices = new long[INITIAL_CAPACITY];
+	private String[] manufacturers = new String[INITIAL_CAPACITY];
+	private String[] colours = new String[INITIAL_CAPACITY];
+
+	/* Занятые позиции; освободившиеся позиции используются повторно */
+	private final Bitmap live = new Bitmap();
+	private int slotCount;
+
+	private final Map<String, Bitmap> byManufacturer = new HashMap<>();
+	private final Map<String, Bitmap> byColour = new HashMap<>();
+
+	/* Товары без цвета попадают в выборку с любым цветом (как colour is null в SQL) */
+	private final Bitmap withoutColour = new Bitmap();
+
+	/* Цены в порядке возрастания и соответствующие им позиции */
+	private long[] sortedPrices = new long[INITIAL_CAPACITY];
+	private int[] sortedSlots = new int[INITIAL_CAPACITY];
+	private int size;
+
+	/*
+	 * Нижние границы ценовых диапазонов для фасета цены и карты товаров каждого
+	 * диапазона
+	 */
+	private final long[] priceBucketBounds;
+	private final Bitmap[] byPriceBucket;
+
+	/* Время, отведенное на подсчет фасетов одного запроса */
+	private final long facetsBudgetNanos;
+
+	public ProductSearchIndex() {
+		this(priceBucketBounds(),
+				Settings.getInstance().intValue("facets.budget.micros", DEFAULT_FACETS_BUDGET_MICROS) * 1000L);
+	}
+
+	public ProductSearchIndex(long[] priceBucketBounds, long facetsBudgetNanos) {
+		this.priceBucketBounds = priceBucketBounds;
+		this.byPriceBucket = new Bitmap[priceBucketBounds.length];
+		for (int i = 0; i < byPriceBucket.length; i++) {
+			byPriceBucket[i] = new Bitmap();
+		}
+		this.facetsBudgetNanos = facetsBudgetNanos;
+	}
+
+	/* Нижние границы ценовых диапазонов из настройки facets.price.buckets, по возрастанию */
+	static long[] priceBucketBounds() {
+		return parseBounds(Settings.getInstance().value("facets.price.buckets"));
+	}
+
+	/* Нижняя граница цены из параметра запроса; пустая граница не ограничивает выборку */
+	public static long minPriceBound(String minPrice) {
+		return minPrice == null || minPrice.isEmpty() ? NO_MIN_PRICE : Money.parse(minPrice);
+	}
+
+	/* Верхняя граница цены из параметра запроса; пустая граница не ограничивает выборку */
+	public static long maxPriceBound(String maxPrice) {
+		return maxPrice == null || maxPrice.isEmpty() ? NO_MAX_PRICE : Money.parse(maxPrice);
+	}
+
+	private static long[] parseBounds(String bounds) {
+		String[] values = (bounds == null || bounds.trim().isEmpty() ? DEFAULT_PRICE_BUCKETS : bounds).split(",");
+		long[] result = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Money.parse(values[i]);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/* Заново строит индекс по всему каталогу */
+	public void rebuild(Collection<Product> products) {
+		lock.writeLock().lock();
+		try {
+			slotById.clear();
+			live.clearAll();
+			slotCount = 0;
+			byManufacturer.clear();
+			byColour.clear();
+			withoutColour.clearAll();
+			for (Bitmap bucket : byPriceBucket) {
+				bucket.clearAll();
+			}
+			size = 0;
+			/*
+			 * Позиции выдаются подряд, а массив цен сортируется один раз в конце -
+			 * вставка каждого товара в отсортированный массив на большом каталоге
+			 * обходится квадратичным временем.
+			 */
+			for (Product product : products) {
+				this.place(product, slotCount);
+			}
+			Integer[] order = new Integer[slotCount];
+			for (int slot = 0; slot < slotCount; slot++) {
+				order[slot] = slot;
+			}
+			Arrays.sort(order, (first, second) -> Long.compare(prices[first], prices[second]));
+			if (slotCount > sortedPrices.length) {
+				sortedPrices = new long[ids.length];
+				sortedSlots = new int[ids.length];
+			}
+			for (int position = 0; position < slotCount; position++) {
+				sortedSlots[position] = order[position];
+				sortedPrices[position] = prices[order[position]];
+			}
+			size = slotCount;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/* Добавляет товар или обновляет атрибуты уже проиндексированного товара */
+	public void put(Product product) {
+		lock.writeLock().lock();
+		try {
+			this.delete(product.getId());
+			this.insert(product);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(int id) {
+		lock.writeLock().lock();
+		try {
+			this.delete(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Возвращает ID товаров, подходящих под все заданные условия. null (или
+	 * пустая строка) в производителе или цвете означает любое значение, границы
+	 * цены включаются в диапазон.
+	 */
+	public int[] find(String manufacturerName, String colour, long minPrice, long maxPrice) {
+		lock.readLock().lock();
+		try {
+			Bitmap result = live.copy();
+			Bitmap manufacturerSlots = this.manufacturerSlots(manufacturerName);
+			if (manufacturerSlots != null) {
+				result.and(manufacturerSlots);
+			}
+			Bitmap colourSlots = this.colourSlots(colour);
+			if (colourSlots != null) {
+				result.and(colourSlots);
+			}
+			int from = this.lowerBound(minPrice);
+			int to = this.upperBound(maxPrice);
+			if (from > 0 || to < size) {
+				if (result.cardinality() <= to - from) {
+					/* Кандидатов мало - проверяем цену каждого напрямую */
+					for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1)) {
+						if (prices[slot] < minPrice || prices[slot] > maxPrice) {
+							result.clear(slot);
+						}
+					}
+				} else {
+					result.and(this.priceSlots(from, to));
+				}
+			}
+			int[] found = new int[result.cardinality()];
+			int index = 0;
+			for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1)) {
+				found[index++] = ids[slot];
+			}
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Выборка по параметрам запроса в том виде, в котором их получает
+	 * findProducts: пустая граница цены не ограничивает выборку.
+	 */
+	public int[] find(String manufacturerName, String minPrice, String maxPrice, String colour) {
+		return this.find(manufacturerName, colour, ProductSearchIndex.minPriceBound(minPrice),
+				ProductSearchIndex.maxPriceBound(maxPrice));
+	}
+
+	/*
+	 * Фасеты для фильтра с параметрами в том виде, в котором их получает
+	 * findProducts. Значения каждого фасета считаются при всех условиях фильтра,
+	 * кроме условия по самому этому фасету, - как мощность пересечения
+	 * битовых карт, без перебора товаров. Если подсчет не укладывается в
+	 * отведенное время, оставшиеся значения не считаются, а результат
+	 * помечается как неполный.
+	 */
+	public ProductFacets facets(String manufacturerName, String minPrice, String maxPrice, String colour) {
+		long min = ProductSearchIndex.minPriceBound(minPrice);
+		long max = ProductSearchIndex.maxPriceBound(maxPrice);
+		/* Сравнение через разность не ломается при переполнении с большим бюджетом */
+		long deadline = System.nanoTime() + facetsBudgetNanos;
+		lock.readLock().lock();
+		try {
+			Bitmap manufacturerSlots = this.manufacturerSlots(manufacturerName);
+			Bitmap colourSlots = this.colourSlots(colour);
+			int from = this.lowerBound(min);
+			int to = this.upperBound(max);
+			Bitmap priceSlots = from > 0 || to < size ? this.priceSlots(from, to) : null;
+
+			Bitmap exceptManufacturer = this.intersect(colourSlots, priceSlots);
+			Bitmap exceptColour = this.intersect(manufacturerSlots, priceSlots);
+			Bitmap exceptPrice = this.intersect(manufacturerSlots, colourSlots);
+			int total = manufacturerSlots == null ? exceptManufacturer.cardinality()
+					: exceptManufacturer.andCardinality(manufacturerSlots);
+			boolean complete = true;
+
+			Map<String, Integer> manufacturerCounts = new LinkedHashMap<>();
+			for (Map.Entry<String, Bitmap> entry : new TreeMap<>(byManufacturer).entrySet()) {
+				if (System.nanoTime() - deadline > 0) {
+					complete = false;
+					break;
+				}
+				int count = exceptManufacturer.andCardinality(entry.getValue());
+				if (count > 0) {
+					manufacturerCounts.put(entry.getKey(), count);
+				}
+			}
+
+			/* Товары без цвета подходят под любой цвет */
+			int withoutColourCount = exceptColour.andCardinality(withoutColour);
+			Map<String, Integer> colourCounts = new LinkedHashMap<>();
+			for (Map.Entry<String, Bitmap> entry : new TreeMap<>(byColour).entrySet()) {
+				if (!complete || System.nanoTime() - deadline > 0) {
+					complete = false;
+					break;
+				}
+				int count = exceptColour.andCardinality(entry.getValue());
+				if (count > 0) {
+					colourCounts.put(entry.getKey(), count + withoutColourCount);
+				}
+			}
+
+			List<ProductFacets.PriceBucket> priceBuckets = new ArrayList<>(byPriceBucket.length);
+			for (int i = 0; i < byPriceBucket.length && complete; i++) {
+				Long bucketMax = i + 1 < priceBucketBounds.length ? priceBucketBounds[i + 1] : null;
+				priceBuckets.add(new ProductFacets.PriceBucket(priceBucketBounds[i], bucketMax,
+						exceptPrice.andCardinality(byPriceBucket[i])));
+			}
+			return new ProductFacets(total, manufacturerCounts, colourCounts, priceBuckets, complete);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------
+	// ------------------------------------------------------------------------------------------------------------------
+
+	/* Карта товаров производителя; null - условие не задано */
+	private Bitmap manufacturerSlots(String manufacturerName) {
+		if (manufacturerName == null || manufacturerName.isEmpty()) {
+			return null;
+		}
+		Bitmap slots = byManufacturer.get(manufacturerName);
+		return slots != null ? slots : new Bitmap();
+	}
+
+	/* Карта товаров цвета вместе с товарами без цвета; null - условие не задано */
+	private Bitmap colourSlots(String colour) {
+		if (colour == null || colour.isEmpty()) {
+			return null;
+		}
+		Bitmap slots = withoutColour.copy();
+		Bitmap colourSlots = byColour.get(colour);
+		if (colourSlots != null) {
+			slots.or(colourSlots);
+		}
+		return slots;
+	}
+
+	/* Карта товаров с позициями from..to-1 в отсортированном массиве цен */
+	private Bitmap priceSlots(int from, int to) {
+		Bitmap slots = new Bitmap();
+		for (int i = from; i < to; i++) {
+			slots.set(sortedSlots[i]);
+		}
+		return slots;
+	}
+
+	/* Пересечение карты занятых позиций с заданными условиями (null - без условия) */
+	private Bitmap intersect(Bitmap first, Bitmap second) {
+		Bitmap result = live.copy();
+		if (first != null) {
+			result.and(first);
+		}
+		if (second != null) {
+			result.and(second);
+		}
+		return result;
+	}
+
+	/* Номер ценового диапазона фасета, -1 - если цена ниже первой границы */
+	private int priceBucket(long price) {
+		int bucket = -1;
+		while (bucket + 1 < priceBucketBounds.length && priceBucketBounds[bucket + 1] <= price) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	private void insert(Product product) {
+		int slot = live.nextClearBit(0);
+		this.place(product, slot);
+		if (size == sortedPrices.length) {
+			sortedPrices = Arrays.copyOf(sortedPrices, size * 2);
+			sortedSlots = Arrays.copyOf(sortedSlots, size * 2);
+		}
+		int position = this.upperBound(product.getPrice());
+		System.arraycopy(sortedPrices, position, sortedPrices, position + 1, size - position);
+		System.arraycopy(sortedSlots, position, sortedSlots, position + 1, size - position);
+		sortedPrices[position] = product.getPrice();
+		sortedSlots[position] = slot;
+		size++;
+	}
+
+	/* Записывает атрибуты товара в позицию slot и отмечает ее в битовых картах */
+	private void place(Product product, int slot) {
+		if (slot >= ids.length) {
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			prices = Arrays.copyOf(prices, capacity);
+			manufacturers = Arrays.copyOf(manufacturers, capacity);
+			colours = Arrays.copyOf(colours, capacity);
+		}
+		live.set(slot);
+		slotCount = Math.max(slotCount, slot + 1);
+		slotById.put(product.getId(), slot);
+		ids[slot] = product.getId();
+		prices[slot] = product.getPrice();
+		manufacturers[slot] = product.getManufacturerName();
+		colours[slot] = product.getColour();
+		if (product.getManufacturerName() != null) {
+			byManufacturer.computeIfAbsent(product.getManufacturerName(), key -> new Bitmap()).set(slot);
+		}
+		if (product.getColour() != null) {
+			byColour.computeIfAbsent(product.getColour(), key -> new Bitmap()).set(slot);
+		} else {
+			withoutColour.set(slot);
+		}
+		int bucket = this.priceBucket(product.getPrice());
+		if (bucket >= 0) {
+			byPriceBucket[bucket].set(slot);
+		}
+	}
+
+	private void delete(int id) {
+		Integer slot = slotById.remove(id);
+		if (slot == null) {
+			return;
+		}
+		live.clear(slot);
+		this.clearValue(byManufacturer, manufacturers[slot], slot);
+		if (colours[slot] != null) {
+			this.clearValue(byColour, colours[slot], slot);
+		} else {
+			withoutColour.clear(slot);
+		}
+		int bucket = this.priceBucket(prices[slot]);
+		if (bucket >= 0) {
+			byPriceBucket[bucket].clear(slot);
+		}
+		manufacturers[slot] = null;
+		colours[slot] = null;
+		/* Позиция ищется среди равных цен, начиная с первой */
+		for (int position = this.lowerBound(prices[slot]); position < size; position++) {
+			if (sortedSlots[position] == slot) {
+				System.arraycopy(sortedPrices, position + 1, sortedPrices, position, size - position - 1);
+				System.arraycopy(sortedSlots, position + 1, sortedSlots, position, size - position - 1);
+				size--;
+				break;
+			}
+		}
+	}
+
+	private void clearValue(Map<String, Bitmap> bitmaps, String value, int slot) {
+		if (value == null) {
+			return;
+		}
+		Bitmap slots = bitmaps.get(value);
+		if (slots != null) {
+			slots.clear(slot);
+			if (slots.isEmpty()) {
+				bitmaps.remove(value);
+			}
+		}
+	}
+
+	/* Первая позиция в sortedPrices с ценой >= price */
+	private int lowerBound(long price) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedPrices[middle] < price) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/* Первая позиция в sortedPrices с ценой > price */
+	private int upperBound(long price) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedPrices[middle] <= price) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+}
@@ -0,0 +1,175 @@
+package storages;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш подготовленных запросов одного физического соединения встроенного пула.
+ * Ключ - текст запроса (в WebShopJDBC это статические константы QUERY_...),
+ * размер ограничен, при переполнении закрывается запрос, который дольше всего
+ * не использовался (LRU). Благодаря повторному использованию одного и того же
+ * PreparedStatement драйвер PostgreSQL переходит на серверную подготовку
+ * запроса и не разбирает и не планирует его заново при каждом вызове.
+ * <p>
+ * Соединение в каждый момент используется только одним потоком, поэтому кэш
+ * не синхронизирован.
+ *
+ * @author Anatolii Melchenko
+ */
+class StatementCache {
+
+	private final LinkedHashMap<String, CachedStatement> statements;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	StatementCache(final int maxSize, AtomicLong hits, AtomicLong misses) {
+		this.hits = hits;
+		this.misses = misses;
+		this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if (size() <= maxSize) {
+					return false;
+				}
+				eldest.getValue().evict();
+				return true;
+			}
+		};
+	}
+
+	/*
+	 * Возвращает подготовленный запрос из кэша или подготавливает новый. Если
+	 * такой же запрос сейчас уже используется (открыт и не закрыт), выдается
+	 * обычный некэшируемый запрос.
+	 */
+	PreparedStatement prepare(Connection connection, Connection connectionProxy, String sql, int autoGeneratedKeys)
+			throws SQLException {
+		String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+		CachedStatement cachedStatement = statements.get(key);
+		if (cachedStatement != null && !cachedStatement.inUse) {
+			hits.incrementAndGet();
+			return cachedStatement.checkOut(connectionProxy);
+		}
+		misses.incrementAndGet();
+		PreparedStatement statement = connection.prepareStatement(sql, autoGeneratedKeys);
+		if (cachedStatement != null) {
+			return statement;
+		}
+		cachedStatement = new CachedStatement(key, statement);
+		statements.put(key, cachedStatement);
+		return cachedStatement.checkOut(connectionProxy);
+	}
+
+	/**
+	 * Физический подготовленный запрос, хранящийся в кэше.
+	 */
+	private final class CachedStatement {
+
+		private final String key;
+		private final PreparedStatement statement;
+		private boolean inUse;
+		private boolean evicted;
+
+		private CachedStatement(String key, PreparedStatement statement) {
+			this.key = key;
+			this.statement = statement;
+		}
+
+		private PreparedStatement checkOut(Connection connectionProxy) {
+			inUse = true;
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new Checkout(this, connectionProxy));
+		}
+
+		/* Логическое закрытие: запрос очищается и остается в кэше */
+		private void release() {
+			inUse = false;
+			if (evicted) {
+				this.closeQuietly();
+				return;
+			}
+			try {
+				statement.clearParameters();
+				statement.clearBatch();
+			} catch (SQLException e) {
+				statements.remove(key);
+				this.closeQuietly();
+			}
+		}
+
+		/* Вытеснение из кэша: используемый запрос закроется при освобождении */
+		private void evict() {
+			evicted = true;
+			if (!inUse) {
+				this.closeQuietly();
+			}
+		}
+
+		private void closeQuietly() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// соединение уже могло быть закрыто
+			}
+		}
+	}
+
+	/**
+	 * Одна выдача кэшированного запроса. close() не закрывает запрос, а
+	 * возвращает его в кэш.
+	 */
+	private static final class Checkout implements InvocationHandler {
+
+		private final CachedStatement cachedStatement;
+		private final Connection connectionProxy;
+		private boolean closed;
+
+		private Checkout(CachedStatement cachedStatement, Connection connectionProxy) {
+			this.cachedStatement = cachedStatement;
+			this.connectionProxy = connectionProxy;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!closed) {
+					closed = true;
+					cachedStatement.release();
+				}
+				return null;
+			case "isClosed":
+				return closed;
+			case "getConnection":
+				return connectionProxy;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Cached " + cachedStatement.statement;
+			default:
+				if (closed) {
+					throw new SQLException("Statement is closed");
+				}
+				try {
+					return method.invoke(cachedStatement.statement, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		}
+	}
+
+}
@@ -3,15 +3,23 @@ package storages;
 import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import models.Account;
+import models.IntObjectMap;
 import models.Manufacturer;
 import models.Order;
 import models.Product;
+import models.ProductFacets;
+import models.ProductPage;
+import models.ProductSort;
+import models.ProductUpdate;
 
 /**
  * Интерфейс определяет основные методы для работы с хранилищем данных в
@@ -29,7 +37,21 @@ public interface Storage {
 	/*
 	 * Методы для работы с товарами
 	 */
-	ConcurrentMap<Integer, Product> getProducts();
+
+	/* Весь каталог товаров; null - если прочитать товары не удалось */
+	IntObjectMap<Product> getProducts();
+
+	/*
+	 * Возвращает страницу каталога из pageSize товаров в порядке sort, которая
+	 * начинается после товара, заданного курсором (null - первая страница).
+	 */
+	public ProductPage getProductPage(ProductSort sort, String cursor, int pageSize);
+
+	/*
+	 * Версия каталога товаров: растет с каждым изменением товаров через
+	 * хранилище. Одинаковая версия означает одинаковое содержимое каталога.
+	 */
+	public long getCatalogVersion();
 	
 	public int addProduct(Product product);
 
@@ -37,12 +59,25 @@ public interface Storage {
 
 	public Product getProductById(int id);
 
+	/*
+	 * Товары с указанными ID одним обращением к хранилищу. Товаров, которых нет,
+	 * в результате нет; null - если прочитать товары не удалось.
+	 */
+	public IntObjectMap<Product> getProductsByIds(int... ids);
+
 	public void deleteProduct(int id);
 
-	public void editProduct(int id, String newProductName, int newCategoryId, String newManufacturerName, Double newPrice, Date newDate, String newColour, String newSize, int newAmount);
+	public void editProduct(int id, String newProductName, int newCategoryId, String newManufacturerName, long newPrice, Date newDate, String newColour, String newSize, int newAmount);
 
 	Product getProductByProductName(String productName);
 
+	/*
+	 * Записывает только измененные атрибуты товара одним запросом. Возвращает
+	 * true, если товар действительно изменился; false - если изменений нет, товар
+	 * удален или его версия уже не совпадает с ожидаемой.
+	 */
+	public boolean updateProduct(ProductUpdate update);
+
 	/*
 	 * Методы для входа в систему
 	 */
@@ -50,16 +85,36 @@ public interface Storage {
 	
 	public boolean checkLoginPassword(String login, String password);
 
+	/*
+	 * Проверяет логин и пароль одним запросом. Возвращает аккаунт со статусом и
+	 * ролью или null, если логин или пароль неверны.
+	 */
+	public Account authenticate(String login, String password);
+
 	/*
 	 * Методы для работы с заказами
 	 */	
+
+	/*
+	 * Сохраняет заказ и одновременно списывает со склада заказанное количество
+	 * каждого товара. Если хотя бы одного товара на складе не хватает, заказ не
+	 * сохраняется, остатки не меняются и выбрасывается OutOfStockException со
+	 * списком таких товаров.
+	 */
 	public int makeOrder(Order order);
 
+	/*
+	 * Групповое оформление заказов: все заказы сохраняются в одной транзакции,
+	 * при этом заказ, которому не хватает товара, отклоняется, не мешая
+	 * остальным. Возвращает результаты в порядке заказов.
+	 */
+	public List<OrderResult> makeOrders(List<Order> orders);
+
 	public int generateOrderId();
 
-	public ConcurrentHashMap<Integer, Order> getUserOrders(String login);
+	public IntObjectMap<Order> getUserOrders(String login);
 	
-	public ConcurrentHashMap<Integer, Order> getAllOrders();
+	public IntObjectMap<Order> getAllOrders();
 	
 	public void changeOrderStatus(int orderId, String newOrderStatus);	
 	
@@ -72,9 +127,34 @@ public interface Storage {
 
 	public void addAccount(String role, Account account);
 
+	/*
+	 * Методы для выгрузки данных. Строки передаются обработчику по одной по мере
+	 * чтения из хранилища и нигде не накапливаются, поэтому выгрузка любого
+	 * размера занимает постоянный объем памяти. Строка заказа передается вместе с
+	 * ID заказа, количество товара в строке - Product.getAmount().
+	 */
+	public void exportProducts(Consumer<Product> consumer);
+
+	public void exportOrders(Consumer<Order> consumer);
+
+	public void exportOrderLines(BiConsumer<Integer, Product> consumer);
+
 	/* Другие методы */
 	public ConcurrentMap<String, Manufacturer> getManufacturers();
 
-	public ConcurrentHashMap<Integer, Product> findProducts(String manufacturerName, String minPrice, String maxPrice, String colour);
+	public IntObjectMap<Product> findProducts(String manufacturerName, String minPrice, String maxPrice, String colour);
+
+	/*
+	 * Фасеты каталога для выборки с теми же параметрами, что и у findProducts:
+	 * количество товаров по производителям, цветам и ценовым диапазонам.
+	 */
+	public ProductFacets getProductFacets(String manufacturerName, String minPrice, String maxPrice, String colour);
+
+	/*
+	 * Полнотекстовый поиск товаров по наименованию и производителю: возвращает не
+	 * более limit товаров, содержащих все слова запроса, в порядке убывания
+	 * релевантности.
+	 */
+	public List<Product> searchProducts(String query, int limit);
 
 }
@@ -2,18 +2,32 @@ package storages;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import models.Account;
+import models.IntObjectMap;
+import models.Manufacturer;
 import models.Order;
+import models.OrderStatus;
 import models.Product;
+import models.ProductFacets;
+import models.ProductPage;
+import models.ProductSort;
+import models.ProductField;
+import models.ProductUpdate;
 
 /**
  * Класс описывает работу интернет-магазина товаров, реализованного в виде
  * web-приложения. В данной реализации в качестве хранилища данных будут
  * использованы стандартные средства Java - коллекции (в частности
- * ConcurrentHashMap). На протяжении всего жизненного цикла приложения создается
- * только один экземпляр данного класса (шаблон проектирования Singleton).
+ * ConcurrentHashMap), каталог товаров хранится по столбцам в массивах
+ * примитивов (ColumnarProductStore). На протяжении всего жизненного цикла
+ * приложения создается только один экземпляр данного класса (шаблон
+ * проектирования Singleton).
  * 
  * @author Anatolii Melchenko
  */
@@ -21,9 +35,38 @@ import models.Product;
 public class WebShop implements Storage {
 
 	/*
-	 * Каталог товаров
+	 * Каталог товаров. Товары, которые выдаются наружу, - копии, поэтому каждое
+	 * изменение товара записывается в каталог заново.
 	 */
-	private final ConcurrentHashMap<Integer, Product> products;
+	private final ColumnarProductStore products;
+
+	/* Индекс для выборки товаров по производителю, цвету и цене */
+	private final ProductSearchIndex searchIndex;
+
+	/* Индекс полнотекстового поиска по наименованию и производителю */
+	private final ProductNameIndex nameIndex;
+
+	/* Версия каталога, растет после каждого изменения товаров */
+	private final AtomicLong catalogVersion = new AtomicLong();
+
+	/*
+	 * Упорядоченные списки товаров для постраничного вывода. Строятся один раз на
+	 * версию каталога и сортировку, поэтому каждое изменение товаров их
+	 * сбрасывает, а просмотр страниц их только читает.
+	 */
+	private volatile SortedCatalog sortedCatalog;
+
+	/* Оформленные заказы по ID заказа */
+	private final ConcurrentHashMap<Integer, Order> orders = new ConcurrentHashMap<>();
+
+	/* Счетчик ID заказа */
+	private final AtomicInteger countOrdersID = new AtomicInteger();
+
+	/*
+	 * Аккаунты по логину. Хранятся копии, поэтому аккаунт, выданный наружу (и
+	 * сохраненный в сессии), не меняется вместе с хранилищем.
+	 */
+	private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
 	
 	/**
 	 * Счетчик ID товара. Генерируется автоматически при каждом добавлении новой
@@ -34,7 +77,9 @@ public class WebShop implements Storage {
 	private static final WebShop INSTANCE = new WebShop();
 
 	private WebShop() {
-		products = new ConcurrentHashMap<>();
+		products = new ColumnarProductStore();
+		searchIndex = new ProductSearchIndex();
+		nameIndex = new ProductNameIndex();
 		fillShop();
 	}
 
@@ -44,8 +89,13 @@ public class WebShop implements Storage {
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Product> getProducts() {
-		return products;
+	public IntObjectMap<Product> getProducts() {
+		List<Product> values = products.values();
+		IntObjectMap<Product> allProducts = new IntObjectMap<>(values.size());
+		for (Product product : values) {
+			allProducts.put(product.getId(), product);
+		}
+		return allProducts.freeze();
 	}
 
 	/*
@@ -55,33 +105,138 @@ public class WebShop implements Storage {
 		return INSTANCE;
 	}
 
+	/*
+	 * Страница выбирается двоичным поиском по курсору в упорядоченном списке
+	 * текущей версии каталога; список сортируется заново, только если каталог
+	 * изменился.
+	 */
+	@Override
+	public ProductPage getProductPage(ProductSort sort, String cursor, int pageSize) {
+		long version = catalogVersion.get();
+		SortedCatalog current = sortedCatalog;
+		if (current == null || current.version != version) {
+			current = new SortedCatalog(version);
+			sortedCatalog = current;
+		}
+		List<Product> sorted = current.sorted.computeIfAbsent(sort, key -> {
+			List<Product> list = products.values();
+			list.sort(key.getComparator());
+			return Collections.unmodifiableList(list);
+		});
+		return ProductPage.slice(sorted, sort, cursor, pageSize, version);
+	}
+
+	@Override
+	public void exportProducts(Consumer<Product> consumer) {
+		products.forEach(consumer);
+	}
+
+	@Override
+	public void exportOrders(Consumer<Order> consumer) {
+		for (Order order : this.getAllOrders().values()) {
+			consumer.accept(order);
+		}
+	}
+
+	@Override
+	public void exportOrderLines(BiConsumer<Integer, Product> consumer) {
+		for (Order order : this.getAllOrders().values()) {
+			for (Product product : order.getOrderedProducts().values()) {
+				consumer.accept(order.getId(), product);
+			}
+		}
+	}
+
 	@Override
 	public Product getProductById(int id) {
 		return products.get(id);
 	}
 
+	@Override
+	public IntObjectMap<Product> getProductsByIds(int... ids) {
+		IntObjectMap<Product> foundedProducts = new IntObjectMap<>(ids.length);
+		for (int id : ids) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.put(id, product);
+			}
+		}
+		return foundedProducts.freeze();
+	}
+
 //	@Override
 	public void editProduct(int id, String newProductName) {
 		// clients.get(id).setSurname(newSurname);
-		products.get(id).setProductName(newProductName);
+		Product product = products.get(id);
+		product.setProductName(newProductName);
+		products.update(product);
+		nameIndex.put(product);
+		catalogVersion.incrementAndGet();
+	}
+
+	@Override
+	public long getCatalogVersion() {
+		return catalogVersion.get();
+	}
+
+	@Override
+	public synchronized boolean updateProduct(ProductUpdate update) {
+		Product product = products.get(update.getId());
+		if (product == null || update.isEmpty() || (update.getExpectedVersion() != ProductUpdate.ANY_VERSION
+				&& update.getExpectedVersion() != product.getVersion())) {
+			return false;
+		}
+		int readVersion = product.getVersion();
+		update.applyTo(product);
+		/*
+		 * Остаток из копии записывается, только если его меняет само обновление.
+		 * Версия сверяется еще раз под блокировкой хранилища: списание, прошедшее
+		 * после чтения товара, не затирается.
+		 */
+		if (!products.update(product, readVersion, update.getChanges().containsKey(ProductField.AMOUNT))) {
+			return false;
+		}
+		searchIndex.put(product);
+		nameIndex.put(product);
+		catalogVersion.incrementAndGet();
+		return true;
 	}
 
 	@Override
 	public void deleteProduct(int id) {
 		products.remove(id);
+		searchIndex.remove(id);
+		nameIndex.remove(id);
+		catalogVersion.incrementAndGet();
+	}
+
+	/*
+	 * Атомарно уменьшает остаток товара на amount, если на складе достаточно
+	 * единиц. Остаток хранится только в столбце каталога и списывается в нем
+	 * через compareAndSet, поэтому заказы разных товаров не мешают друг другу.
+	 * Возвращает false, если товара не хватает.
+	 */
+	private boolean tryReserve(int productId, int amount) {
+		if (products.tryDecreaseAmount(productId, amount)) {
+			catalogVersion.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/* Возвращает на склад ранее списанное количество товара */
+	private void release(int productId, int amount) {
+		products.increaseAmount(productId, amount);
+		catalogVersion.incrementAndGet();
 	}
 
 	// Найти объект типа Product по названию.
 	// Поиск не чувствителен к регистру.
 	@Override
 	public Product getProductByProductName(String productName) {
-		Product foundedProduct = new Product(); // Здесь названию товара присваиваем ссылку на null.
-		for (Product product : this.products.values()) {
-			if (product.getProductName().equalsIgnoreCase(productName)) {
-				foundedProduct = product;
-			}
-		}
-		return foundedProduct;
+		Product foundedProduct = this.products.findByProductName(productName);
+		// Если товар не найден, возвращаем товар, у которого название равно null.
+		return foundedProduct != null ? foundedProduct : new Product();
 	}
 
 	/*
@@ -89,7 +244,10 @@ public class WebShop implements Storage {
 	 */
 	@Override
 	public int addProduct(Product product) {
-		this.products.put(product.getId(), product);
+		this.products.put(product);
+		this.searchIndex.put(product);
+		this.nameIndex.put(product);
+		catalogVersion.incrementAndGet();
 		return product.getId();
 	}
 
@@ -97,7 +255,11 @@ public class WebShop implements Storage {
 	 * Добавить товар с конкретным ключом.
 	 */
 	public void addProduct(int ID, Product client) {
-		this.products.put(ID, client);
+		client.setId(ID);
+		this.products.put(client);
+		this.searchIndex.put(client);
+		this.nameIndex.put(client);
+		catalogVersion.incrementAndGet();
 	}
 
 	// ------------------------------------------------------------------------------------------------------------------
@@ -130,63 +292,212 @@ public class WebShop implements Storage {
 
 	@Override
 	public String checkAccountRole(String login) {
-		// TODO Auto-generated method stub
-		return null;
+		Account account = login == null ? null : accounts.get(login);
+		if (account == null || account.getRole() == null) {
+			return new String();
+		}
+		return account.getRole();
 	}
 
 	@Override
 	public boolean checkLoginPassword(String login, String password) {
-		// TODO Auto-generated method stub
-		return false;
+		Account account = this.authenticate(login, password);
+		/* Также нужно, чтобы аккаунт не был заблокирован */
+		return account != null && account.getIsActive();
+	}
+
+	@Override
+	public Account authenticate(String login, String password) {
+		Account account = login == null ? null : accounts.get(login);
+		if (account == null || !account.getPassword().equals(password)) {
+			return null;
+		}
+		return WebShop.copyOf(account, account.getIsActive(), account.getRole());
 	}
 
 	@Override
 	public int makeOrder(Order order) {
-		// TODO Auto-generated method stub
-		return 0;
+		/*
+		 * Списываем остатки по всем строкам заказа. Если какого-то товара не хватает,
+		 * уже списанные строки возвращаются на склад, и заказ отклоняется.
+		 */
+		List<Product> reserved = new ArrayList<>();
+		List<Integer> shortProductIds = new ArrayList<>();
+		IntObjectMap<Product> orderedProducts = order.getOrderedProducts();
+		for (int i = 0; i < orderedProducts.size(); i++) {
+			Product orderedProduct = orderedProducts.valueAt(i);
+			if (this.tryReserve(orderedProduct.getId(), orderedProduct.getAmount())) {
+				reserved.add(orderedProduct);
+			} else {
+				shortProductIds.add(orderedProduct.getId());
+			}
+		}
+		if (!shortProductIds.isEmpty()) {
+			for (Product orderedProduct : reserved) {
+				this.release(orderedProduct.getId(), orderedProduct.getAmount());
+			}
+			throw new OutOfStockException(shortProductIds);
+		}
+		catalogVersion.incrementAndGet();
+		if (order.getId() <= 0) {
+			order.setId(this.generateOrderId());
+		}
+		orders.put(order.getId(), order);
+		return order.getId();
+	}
+
+	@Override
+	public List<OrderResult> makeOrders(List<Order> orders) {
+		List<OrderResult> results = new ArrayList<>(orders.size());
+		for (Order order : orders) {
+			try {
+				results.add(OrderResult.placed(this.makeOrder(order)));
+			} catch (OutOfStockException e) {
+				results.add(OrderResult.rejected(e));
+			}
+		}
+		return results;
 	}
 
 	@Override
 	public int generateOrderId() {
-		// TODO Auto-generated method stub
-		return 0;
+		return countOrdersID.incrementAndGet();
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Order> getUserOrders(String login) {
-		// TODO Auto-generated method stub
-		return null;
+	public IntObjectMap<Order> getUserOrders(String login) {
+		List<Order> userOrders = new ArrayList<>();
+		for (Order order : orders.values()) {
+			if (order.getUserLogin() != null && order.getUserLogin().equals(login)) {
+				userOrders.add(order);
+			}
+		}
+		return WebShop.toOrderMap(userOrders);
 	}
 
 	@Override
 	public void editProduct(int id, String newProductName, int newCategoryId, String newManufacturerName,
-			Double newPrice, Date newDate, String newColour, String newSize, int newAmount) {
-		// TODO Auto-generated method stub
-		
+			long newPrice, Date newDate, String newColour, String newSize, int newAmount) {
+		Product product = products.get(id);
+		if (product == null) {
+			return;
+		}
+		Product edited = new Product(id, newProductName, newCategoryId, newManufacturerName, newPrice, newDate,
+				newColour, newSize, newAmount);
+		edited.setVersion(product.getVersion() + 1);
+		products.put(edited);
+		searchIndex.put(edited);
+		nameIndex.put(edited);
+		catalogVersion.incrementAndGet();
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Order> getAllOrders() {
-		// TODO Auto-generated method stub
-		return null;
+	public IntObjectMap<Order> getAllOrders() {
+		return WebShop.toOrderMap(new ArrayList<>(orders.values()));
+	}
+
+	/* Заказы в порядке ID, как их выдает WebShopJDBC */
+	private static IntObjectMap<Order> toOrderMap(List<Order> orderList) {
+		orderList.sort(Comparator.comparingInt(Order::getId));
+		IntObjectMap<Order> result = new IntObjectMap<>(orderList.size());
+		for (Order order : orderList) {
+			result.put(order.getId(), order);
+		}
+		return result.freeze();
 	}
 
 	@Override
 	public void changeOrderStatus(int orderId, String newOrderStatus) {
-		// TODO Auto-generated method stub
-		
+		OrderStatus status = OrderStatus.recognizeOrderStatus(newOrderStatus);
+		orders.computeIfPresent(orderId, (id, order) -> {
+			order.setStatus(status);
+			return order;
+		});
 	}
 
+	/* Как и в БД, список аккаунтов содержит только логин и статус */
 	@Override
 	public ConcurrentHashMap<String, Account> getAccounts() {
-		// TODO Auto-generated method stub
-		return null;
+		ConcurrentHashMap<String, Account> foundedAccounts = new ConcurrentHashMap<>();
+		for (Account account : accounts.values()) {
+			foundedAccounts.put(account.getLogin(), new Account(account.getLogin(), account.getIsActive()));
+		}
+		return foundedAccounts;
 	}
 
 	@Override
 	public void changeAccountStatus(String login, Boolean currentStatus) {
-		// TODO Auto-generated method stub
-		
+		/* меняем статус аккаунта на противоположный */
+		accounts.computeIfPresent(login, (key, account) -> WebShop.copyOf(account, !currentStatus, account.getRole()));
+	}
+
+	/* Аккаунт с уже занятым логином не добавляется - так же, как в БД */
+	@Override
+	public void addAccount(String role, Account account) {
+		accounts.putIfAbsent(account.getLogin(), WebShop.copyOf(account, account.getIsActive(), role));
+	}
+
+	private static Account copyOf(Account account, boolean isActive, String role) {
+		Account copy = new Account(account.getLogin(), account.getPassword());
+		copy.setActive(isActive);
+		copy.setRole(role);
+		return copy;
+	}
+
+	/* Производители товаров каталога */
+	@Override
+	public ConcurrentMap<String, Manufacturer> getManufacturers() {
+		ConcurrentHashMap<String, Manufacturer> manufacturers = new ConcurrentHashMap<>();
+		for (Product product : products.values()) {
+			if (product.getManufacturerName() != null) {
+				manufacturers.putIfAbsent(product.getManufacturerName(), new Manufacturer(product.getManufacturerName()));
+			}
+		}
+		return manufacturers;
+	}
+
+	@Override
+	public IntObjectMap<Product> findProducts(String manufacturerName, String minPrice, String maxPrice,
+			String colour) {
+		int[] ids = searchIndex.find(manufacturerName, minPrice, maxPrice, colour);
+		IntObjectMap<Product> foundedProducts = new IntObjectMap<>(ids.length);
+		for (int id : ids) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.put(id, product);
+			}
+		}
+		return foundedProducts.freeze();
+	}
+
+	@Override
+	public ProductFacets getProductFacets(String manufacturerName, String minPrice, String maxPrice,
+			String colour) {
+		return searchIndex.facets(manufacturerName, minPrice, maxPrice, colour);
+	}
+
+	@Override
+	public List<Product> searchProducts(String query, int limit) {
+		List<Product> foundedProducts = new ArrayList<>();
+		for (Integer id : nameIndex.search(query, limit)) {
+			Product product = products.get(id);
+			if (product != null) {
+				foundedProducts.add(product);
+			}
+		}
+		return foundedProducts;
+	}
+
+	/* Упорядоченные списки товаров одной версии каталога по видам сортировки */
+	private static final class SortedCatalog {
+
+		private final long version;
+		private final ConcurrentMap<ProductSort, List<Product>> sorted = new ConcurrentHashMap<>();
+
+		SortedCatalog(long version) {
+			this.version = version;
+		}
+
 	}
 
 }
@@ -1,22 +1,35 @@
 package storages;
 
 import models.Account;
+import models.IntObjectMap;
 import models.Manufacturer;
+import models.Money;
 import models.Order;
 import models.OrderStatus;
 import models.Product;
+import models.ProductFacets;
+import models.ProductPage;
+import models.ProductSort;
+import models.ProductField;
+import models.ProductUpdate;
 import service.Settings;
 
+import java.math.BigDecimal;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Класс описывает работу магазина, где в качестве хранилища используется база
@@ -28,78 +41,337 @@ import java.util.concurrent.ConcurrentMap;
 
 public class WebShopJDBC implements Storage {
 
-	private Connection connection;
+	/*
+	 * Если true - соединения берутся из пула, иначе открываются напрямую через
+	 * DriverManager. Собственного соединения хранилище не держит: каждая операция
+	 * берет соединение на время своего выполнения и сразу же его возвращает, поэтому
+	 * один экземпляр хранилища можно безопасно использовать из разных потоков.
+	 */
+	private final boolean pooled;
 	private static final String QUERY_SELECT_ALL_PRODUCTS = "select * from products order by product_id;";
+	/*
+	 * Постраничная выборка каталога (keyset pagination): следующая страница
+	 * начинается строго после ключа последнего показанного товара, поэтому
+	 * запрос читает по индексу только строки самой страницы (см.
+	 * sql/create_indexes.sql), как бы далеко ни была эта страница от начала.
+	 */
+	private static final String QUERY_SELECT_PRODUCTS_PAGE_BY_ID = "select * from products where product_id > ? "
+			+ "order by product_id limit ?;";
+	private static final String QUERY_SELECT_FIRST_PRODUCTS_PAGE_BY_PRICE = "select * from products "
+			+ "order by coalesce(price, 0), product_id limit ?;";
+	private static final String QUERY_SELECT_PRODUCTS_PAGE_BY_PRICE = "select * from products "
+			+ "where (coalesce(price, 0), product_id) > (?, ?) order by coalesce(price, 0), product_id limit ?;";
+	private static final String QUERY_SELECT_FIRST_PRODUCTS_PAGE_BY_NAME = "select * from products "
+			+ "order by lower(product_name) collate \"C\", product_id limit ?;";
+	private static final String QUERY_SELECT_PRODUCTS_PAGE_BY_NAME = "select * from products "
+			+ "where (lower(product_name) collate \"C\", product_id) > (?, ?) order by lower(product_name) collate \"C\", product_id limit ?;";
+	private static final String QUERY_EXPORT_ORDERS = "select order_id, account_name_fk, status, total_price from orders order by order_id;";
+	private static final String QUERY_EXPORT_ORDER_LINES = "select order_id, product_id, product_name, category_id, manufacturer_name, "
+			+ "price, creation_date, colour, size, ordered_amount from order_product order by order_id;";
+	private static final int DEFAULT_EXPORT_FETCH_SIZE = 1000;
+	/* Условие для одного слова полнотекстового поиска без индекса в памяти */
+	private static final String CONDITION_SEARCH_WORD = "(lower(product_name) like ? or lower(manufacturer_name_fk) like ?)";
+	private static final String QUERY_SELECT_PRODUCT_BY_ID = "select * from products where product_id = ?;";
+	private static final String QUERY_SELECT_PRODUCTS_BY_IDS = "select * from products where product_id = any(?);";
+	private static final String QUERY_SELECT_PRODUCT_BY_NAME = "select * from products where lower(product_name) = lower(?) order by product_id desc limit 1;";
 	private static final String QUERY_INSERT_PRODUCT = "insert into products (product_name, category_id_fk, manufacturer_name_fk, price, creation_date, colour, size, amount_in_storage) values (?, ?, ?, ?, ?, ?, ?, ?);";
-	private static final String QUERY_UPDATE_PRODUCT = "update products as products set product_name = ? where products.product_id = ?;"
-			+ "update products as products set category_id_fk = ? where products.product_id = ?;"
-			+ "update products as products set manufacturer_name_fk = ? where products.product_id = ?;"
-			+ "update products as products set price = ? where products.product_id = ?;"
-			+ "update products as products set creation_date = ? where products.product_id = ?;"
-			+ "update products as products set colour = ? where products.product_id = ?;"
-			+ "update products as products set size = ? where products.product_id = ?;"
-			+ "update products as products set amount_in_storage = ? where products.product_id = ?;";
+	private static final String QUERY_UPDATE_PRODUCT = "update products set product_name = ?, category_id_fk = ?, manufacturer_name_fk = ?, price = ?, "
+			+ "creation_date = ?, colour = ?, size = ?, amount_in_storage = ?, version = version + 1 where product_id = ?;";
+	/*
+	 * Столбцы таблицы products, соответствующие изменяемым атрибутам товара. Из
+	 * них собирается запрос частичного обновления (см. updateProduct).
+	 */
+	private static final EnumMap<ProductField, String> PRODUCT_COLUMNS = new EnumMap<>(ProductField.class);
+	static {
+		PRODUCT_COLUMNS.put(ProductField.PRODUCT_NAME, "product_name");
+		PRODUCT_COLUMNS.put(ProductField.CATEGORY_ID, "category_id_fk");
+		PRODUCT_COLUMNS.put(ProductField.MANUFACTURER_NAME, "manufacturer_name_fk");
+		PRODUCT_COLUMNS.put(ProductField.PRICE, "price");
+		PRODUCT_COLUMNS.put(ProductField.CREATION_DATE, "creation_date");
+		PRODUCT_COLUMNS.put(ProductField.COLOUR, "colour");
+		PRODUCT_COLUMNS.put(ProductField.SIZE, "size");
+		PRODUCT_COLUMNS.put(ProductField.AMOUNT, "amount_in_storage");
+	}
 	private static final String QUERY_DELETE_PRODUCT = "delete from products as products where products.product_id = ?;";
-	private static final String QUERY_SELECT_ALL_ROLES = "select * from account_roles;";
 	private static final String QUERY_SELECT_ALL_ACCOUNTS = "select * from accounts;";
+	private static final String QUERY_SELECT_CREDENTIALS = "select accounts.account_pass, accounts.is_active, account_roles.role_name "
+			+ "from accounts as accounts left join account_roles as account_roles on account_roles.account_name_fk = accounts.account_name "
+			+ "where accounts.account_name = ?;";
+	/*
+	 * Резервирование и списание остатков всех строк заказа одним условным
+	 * запросом: строка товара уменьшается, только если на складе хватает единиц,
+	 * и возвращается в returning. Товары, которых нет в результате, - нехватка.
+	 * Конкурирующие заказы одного товара упорядочиваются блокировкой строки на
+	 * время транзакции, а повторная проверка условия после ожидания не дает
+	 * продать больше, чем есть на складе. Списание увеличивает версию товара,
+	 * поэтому форма редактирования, открытая до продажи, не запишет прежний
+	 * остаток.
+	 */
+	private static final String QUERY_RESERVE_STOCK = "update products as products "
+			+ "set amount_in_storage = products.amount_in_storage - reserved.amount, version = products.version + 1 "
+			+ "from unnest(?::integer[], ?::integer[]) as reserved(product_id, amount) "
+			+ "where products.product_id = reserved.product_id and products.amount_in_storage >= reserved.amount "
+			+ "returning products.product_id;";
+	/*
+	 * Строки товаров заказа блокируются в порядке возрастания ID: два заказа с
+	 * общими товарами ждут друг друга, а не захватывают строки навстречу друг
+	 * другу (взаимная блокировка).
+	 */
+	private static final String QUERY_LOCK_STOCK = "select product_id from products where product_id = any(?) "
+			+ "order by product_id for update;";
 	private static final String QUERY_INSERT_ORDER = "insert into orders (account_name_fk, status, total_price) values (?, ?, ?);";
 	private static final String QUERY_INSERT_INTO_ORDER_PRODUCT = "insert into order_product (order_id, product_id, product_name, category_id, manufacturer_name, price, creation_date, colour, size, ordered_amount) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
-	private static final String QUERY_SELECT_ALL_ORDERS = "select * from orders;";
-	private static final String QUERY_SELECT_ALL_ORDER_PRODUCT = "select * from order_product;";
+	private static final String QUERY_SELECT_ORDERS_WITH_PRODUCTS = "select orders.order_id, orders.account_name_fk, orders.status, "
+			+ "order_product.product_id, order_product.product_name, order_product.category_id, order_product.manufacturer_name, "
+			+ "order_product.price, order_product.creation_date, order_product.colour, order_product.size, order_product.ordered_amount "
+			+ "from orders as orders left join order_product as order_product on order_product.order_id = orders.order_id ";
+	private static final String QUERY_SELECT_ALL_ORDERS = QUERY_SELECT_ORDERS_WITH_PRODUCTS
+			+ "order by orders.order_id;";
+	private static final String QUERY_SELECT_USER_ORDERS = QUERY_SELECT_ORDERS_WITH_PRODUCTS
+			+ "where orders.account_name_fk = ? order by orders.order_id;";
 	private static final String QUERY_UPDATE_ACCOUNT_STATUS = "update accounts as accounts set is_active = ? where accounts.account_name = ?;";
 	private static final String QUERY_UPDATE_ORDER_STATUS = "update orders as orders set status = ? where orders.order_id = ?;";
 	private static final String QUERY_INSERT_ACCOUNT = "insert into accounts (account_name, account_pass, is_active) values (?, ?, ?);"
 			+ "insert into account_roles (account_name_fk, role_name) values (?, ?);";
 	private static final String QUERY_SELECT_ALL_MANUFACTURERS = "select * from manufacturers;";
 	private static final String QUERY_FIND_PRODUCTS = "select * from products where manufacturer_name_fk like ? and price >= ? and price <= ? and (colour like ? or colour is null); ";
+	/*
+	 * Фасеты одним запросом: 0 - всего товаров по фильтру, 1 - по производителям
+	 * (без условия на производителя), 2 - по цветам и 3 - товары без цвета (без
+	 * условия на цвет), 4 - по номеру ценового диапазона (без условия на цену)
+	 */
+	private static final String QUERY_PRODUCT_FACETS = "select 0 as facet, cast(null as varchar) as value, count(*) as amount from products "
+			+ "where manufacturer_name_fk like ? and (colour like ? or colour is null) and price >= ? and price <= ? "
+			+ "union all select 1, manufacturer_name_fk, count(*) from products "
+			+ "where (colour like ? or colour is null) and price >= ? and price <= ? group by manufacturer_name_fk "
+			+ "union all select 2, colour, count(*) from products "
+			+ "where manufacturer_name_fk like ? and price >= ? and price <= ? and colour is not null group by colour "
+			+ "union all select 3, null, count(*) from products "
+			+ "where manufacturer_name_fk like ? and price >= ? and price <= ? and colour is null "
+			+ "union all select 4, cast(width_bucket(price, ?) as varchar), count(*) from products "
+			+ "where manufacturer_name_fk like ? and (colour like ? or colour is null) group by width_bucket(price, ?);";
 
 	/*
-	 * Default constructor is used if we want to use JDBC connection through Tomcat
-	 * connection pool. 
+	 * Версия каталога: растет после каждого изменения товаров через этот
+	 * экземпляр хранилища. Изменения в обход приложения ее не меняют.
+	 */
+	private final AtomicLong catalogVersion = new AtomicLong();
+
+	/*
+	 * Default constructor is used if we want to use JDBC connection through the
+	 * connection pool (Tomcat pool if it is available, built-in pool otherwise).
 	 */
 	public WebShopJDBC() {
-		this.connection = ConnectionPool.getInstance().getConnection();
+		this.pooled = true;
 	}
 
 	/*
 	 * This constructor is used if we want to use classic JDBC without a connection
 	 * pool. To use it you need to pass any string as argument (particularly, change
-	 * WebShopJDBC constructor type in class StorageIdentifier).
+	 * WebShopJDBC constructor type in class StorageIdentifier). In this mode every
+	 * operation opens its own connection.
 	 */
 	public WebShopJDBC(String oneConnection) {
-		final Settings settings = Settings.getInstance();
+		this.pooled = false;
 		try {
 			Class.forName("org.postgresql.Driver");
-			this.connection = DriverManager.getConnection(settings.value("jdbc.url"), settings.value("jdbc.username"),
-					settings.value("jdbc.password"));
-		} catch (SQLException e) {
-			throw new IllegalStateException(e);
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/*
+	 * Метод выдает соединение на одну операцию. Соединение обязательно закрывается
+	 * (возвращается в пул) в конце операции конструкцией try-with-resources.
+	 */
+	private Connection getConnection() throws SQLException {
+		if (this.pooled) {
+			return ConnectionPool.getInstance().getConnection();
+		}
+		final Settings settings = Settings.getInstance();
+		return DriverManager.getConnection(settings.value("jdbc.url"), settings.value("jdbc.username"),
+				settings.value("jdbc.password"));
+	}
+
 	@Override
-	public ConcurrentHashMap<Integer, Product> getProducts() {
-		final ConcurrentHashMap<Integer, Product> products = new ConcurrentHashMap<>();
+	public IntObjectMap<Product> getProducts() {
+		final IntObjectMap<Product> products = new IntObjectMap<>();
 		/*
 		 * Для автоматического закрытия соединения с БД используется конструкция
 		 * try-with-resources, которую можно применять с любыми объектами, относящимися
 		 * к интерфейсу AutoCloseable. В данном случае это объект Statement.
 		 */
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_PRODUCTS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_ALL_PRODUCTS);
+				final ResultSet rs = statement.executeQuery()) {
 			while (rs.next()) {
-				products.put(rs.getInt("product_id"),
-						new Product(rs.getInt("product_id"), rs.getString("product_name"), rs.getInt("category_id_fk"),
-								rs.getString("manufacturer_name_fk"), rs.getDouble("price"),
-								rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"),
-								rs.getInt("amount_in_storage")));
+				products.put(rs.getInt("product_id"), this.readProduct(rs));
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return products.freeze();
+	}
+
+	@Override
+	public long getCatalogVersion() {
+		return catalogVersion.get();
+	}
+
+	/*
+	 * Запрашивается на один товар больше размера страницы: если он есть, есть и
+	 * следующая страница.
+	 */
+	@Override
+	public ProductPage getProductPage(ProductSort sort, String cursor, int pageSize) {
+		long version = catalogVersion.get();
+		Product after = ProductPage.decodeCursor(cursor, sort);
+		List<Product> products = new ArrayList<>(pageSize + 1);
+		String query;
+		if (sort == ProductSort.PRICE) {
+			query = after == null ? QUERY_SELECT_FIRST_PRODUCTS_PAGE_BY_PRICE : QUERY_SELECT_PRODUCTS_PAGE_BY_PRICE;
+		} else if (sort == ProductSort.NAME) {
+			query = after == null ? QUERY_SELECT_FIRST_PRODUCTS_PAGE_BY_NAME : QUERY_SELECT_PRODUCTS_PAGE_BY_NAME;
+		} else {
+			query = QUERY_SELECT_PRODUCTS_PAGE_BY_ID;
+		}
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(query)) {
+			int index = 1;
+			if (sort == ProductSort.ID) {
+				statement.setInt(index++, after == null ? Integer.MIN_VALUE : after.getId());
+			} else if (after != null) {
+				if (sort == ProductSort.PRICE) {
+					statement.setBigDecimal(index++, Money.toDecimal(after.getPrice()));
+				} else {
+					statement.setString(index++, ProductSort.nameKey(after));
+				}
+				statement.setInt(index++, after.getId());
+			}
+			statement.setInt(index, pageSize + 1);
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					products.add(this.readProduct(rs));
+				}
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
-		return products;
+		String nextCursor = null;
+		if (products.size() > pageSize) {
+			products.remove(pageSize);
+			nextCursor = ProductPage.encodeCursor(products.get(pageSize - 1), sort);
+		}
+		return new ProductPage(products, sort, nextCursor, version);
+	}
+
+	/*
+	 * Поиск без индекса в памяти (хранилище используется без CachingStorage):
+	 * каждое слово запроса должно встречаться в наименовании или производителе,
+	 * без ранжирования и без учета опечаток.
+	 */
+	@Override
+	public List<Product> searchProducts(String query, int limit) {
+		final List<Product> foundedProducts = new ArrayList<>();
+		String[] words = ProductNameIndex.tokenize(query);
+		if (words.length == 0) {
+			return foundedProducts;
+		}
+		StringJoiner conditions = new StringJoiner(" and ", "select * from products where ",
+				" order by product_id limit ?;");
+		for (int i = 0; i < words.length; i++) {
+			conditions.add(CONDITION_SEARCH_WORD);
+		}
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(conditions.toString())) {
+			int index = 1;
+			for (String word : words) {
+				/* Слова состоят только из букв и цифр, экранировать символы шаблона не нужно */
+				statement.setString(index++, "%" + word + "%");
+				statement.setString(index++, "%" + word + "%");
+			}
+			statement.setInt(index, limit);
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					foundedProducts.add(this.readProduct(rs));
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return foundedProducts;
+	}
+
+	@Override
+	public void exportProducts(Consumer<Product> consumer) {
+		this.stream(QUERY_SELECT_ALL_PRODUCTS, rs -> consumer.accept(this.readProduct(rs)));
+	}
+
+	@Override
+	public void exportOrders(Consumer<Order> consumer) {
+		this.stream(QUERY_EXPORT_ORDERS, rs -> {
+			Order order = new Order();
+			order.setId(rs.getInt("order_id"));
+			order.setUserLogin(rs.getString("account_name_fk"));
+			order.setStatus(OrderStatus.recognizeOrderStatus(rs.getString("status")));
+			order.setTotalPrice(Money.fromDecimal(rs.getBigDecimal("total_price")));
+			consumer.accept(order);
+		});
+	}
+
+	@Override
+	public void exportOrderLines(BiConsumer<Integer, Product> consumer) {
+		this.stream(QUERY_EXPORT_ORDER_LINES,
+				rs -> consumer.accept(rs.getInt("order_id"),
+						new Product(rs.getInt("product_id"), rs.getString("product_name"), rs.getInt("category_id"),
+								rs.getString("manufacturer_name"), Money.fromDecimal(rs.getBigDecimal("price")),
+								rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"), rs.getInt("ordered_amount"))));
+	}
+
+	/*
+	 * Обработчик одной строки результата запроса.
+	 */
+	private interface RowHandler {
+		void handle(ResultSet rs) throws SQLException;
+	}
+
+	/*
+	 * Метод читает результат запроса через серверный курсор: драйвер PostgreSQL
+	 * использует курсор только вне режима autocommit и при заданном fetchSize, и
+	 * тогда получает строки порциями по fetchSize, а не весь результат сразу.
+	 * Каждая строка передается обработчику и больше нигде не хранится. Ошибка
+	 * чтения не глотается: выгрузка уже частично отправлена, и по исключению
+	 * ответ должен оборваться, а не выглядеть завершенным.
+	 */
+	private void stream(String query, RowHandler handler) {
+		try (final Connection connection = this.getConnection()) {
+			connection.setAutoCommit(false);
+			try (final PreparedStatement statement = connection.prepareStatement(query)) {
+				statement.setFetchSize(Settings.getInstance().intValue("export.fetch.size", DEFAULT_EXPORT_FETCH_SIZE));
+				try (final ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						handler.handle(rs);
+					}
+				}
+			} finally {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Error! Export is interrupted: " + query, e);
+		}
+	}
+
+	/*
+	 * Метод создает товар из текущей строки результата запроса к таблице products.
+	 */
+	private Product readProduct(ResultSet rs) throws SQLException {
+		Product product = new Product(rs.getInt("product_id"), rs.getString("product_name"), rs.getInt("category_id_fk"),
+				rs.getString("manufacturer_name_fk"), Money.fromDecimal(rs.getBigDecimal("price")),
+				rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"), rs.getInt("amount_in_storage"));
+		product.setVersion(rs.getInt("version"));
+		return product;
 	}
 
 	// ------------------------------------------------------------------------------------------------------------------
@@ -109,17 +381,19 @@ public class WebShopJDBC implements Storage {
 	public int addProduct(Product product) {
 		// if (product.getPrice() > 0 || product.getAmount() > 0) {
 		int addedProductId = -1;
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_INSERT_PRODUCT,
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_PRODUCT,
 				Statement.RETURN_GENERATED_KEYS)) {
 			statement.setString(1, product.getProductName());
 			statement.setInt(2, product.getCategoryId());
 			statement.setString(3, product.getManufacturerName());
-			statement.setDouble(4, product.getPrice());
+			statement.setBigDecimal(4, Money.toDecimal(product.getPrice()));
 			statement.setDate(5, (java.sql.Date) product.getCreationDate());
 			statement.setString(6, product.getColour());
 			statement.setString(7, product.getSize());
 			statement.setInt(8, product.getAmount());
 			statement.executeUpdate();
+			catalogVersion.incrementAndGet();
 			try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
 				if (generatedKeys.next()) {
 					addedProductId = generatedKeys.getInt(1);
@@ -146,62 +420,179 @@ public class WebShopJDBC implements Storage {
 	}
 
 	/*
-	 * TODO - данный метод переписать с помощью select... UPD - способ не найден
+	 * Товар ищется по первичному ключу, поэтому запрос читает одну строку, а не
+	 * весь каталог. Если товар не найден, возвращается null.
 	 */
 	@Override
 	public Product getProductById(int id) {
-		return this.getProducts().get(id);
+		Product foundedProduct = null;
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_PRODUCT_BY_ID)) {
+			statement.setInt(1, id);
+			try (final ResultSet rs = statement.executeQuery()) {
+				if (rs.next()) {
+					foundedProduct = this.readProduct(rs);
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return foundedProduct;
+	}
+
+	/*
+	 * Несколько товаров одним запросом по массиву ID, а не запросом на каждый
+	 * товар.
+	 */
+	@Override
+	public IntObjectMap<Product> getProductsByIds(int... ids) {
+		IntObjectMap<Product> foundedProducts = new IntObjectMap<>(ids.length);
+		if (ids.length == 0) {
+			return foundedProducts.freeze();
+		}
+		Integer[] productIds = new Integer[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			productIds[i] = ids[i];
+		}
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_PRODUCTS_BY_IDS)) {
+			statement.setArray(1, connection.createArrayOf("integer", productIds));
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					Product product = this.readProduct(rs);
+					foundedProducts.put(product.getId(), product);
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return foundedProducts.freeze();
 	}
 
 	@Override
 	public void editProduct(int id, String newProductName, int newCategoryId, String newManufacturerName,
-			Double newPrice, java.util.Date newDate, String newColour, String newSize, int newAmount) {
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_UPDATE_PRODUCT)) {
+			long newPrice, java.util.Date newDate, String newColour, String newSize, int newAmount) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_PRODUCT)) {
 			statement.setString(1, newProductName);
-			statement.setInt(2, id);
-			statement.setInt(3, newCategoryId);
-			statement.setInt(4, id);
-			statement.setString(5, newManufacturerName);
-			statement.setInt(6, id);
-			statement.setDouble(7, newPrice);
-			statement.setInt(8, id);
-			statement.setDate(9, (java.sql.Date) newDate);
-			statement.setInt(10, id);
-			statement.setString(11, newColour);
-			statement.setInt(12, id);
-			statement.setString(13, newSize);
-			statement.setInt(14, id);
-			statement.setInt(15, newAmount);
-			statement.setInt(16, id);
+			statement.setInt(2, newCategoryId);
+			statement.setString(3, newManufacturerName);
+			statement.setBigDecimal(4, Money.toDecimal(newPrice));
+			statement.setDate(5, newDate == null ? null : new java.sql.Date(newDate.getTime()));
+			statement.setString(6, newColour);
+			statement.setString(7, newSize);
+			statement.setInt(8, newAmount);
+			statement.setInt(9, id);
 			statement.executeUpdate();
+			catalogVersion.incrementAndGet();
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/*
+	 * Частичное обновление товара одним запросом: в set попадают только
+	 * измененные столбцы, условие по версии отсекает одновременное
+	 * редактирование, а условие is distinct from - запись строки, значения в
+	 * которой уже совпадают с новыми (тогда строка не переписывается и версия не
+	 * растет). Порядок столбцов фиксирован порядком ProductField, поэтому текст
+	 * запроса для одного и того же набора полей всегда одинаков и подготовленный
+	 * запрос берется из кэша соединения.
+	 */
+	@Override
+	public boolean updateProduct(ProductUpdate update) {
+		if (update.isEmpty()) {
+			return false;
+		}
+		Map<ProductField, Object> changes = update.getChanges();
+		StringBuilder assignments = new StringBuilder();
+		StringBuilder differences = new StringBuilder();
+		for (ProductField field : changes.keySet()) {
+			String column = PRODUCT_COLUMNS.get(field);
+			assignments.append(column).append(" = ?, ");
+			if (differences.length() > 0) {
+				differences.append(" or ");
+			}
+			differences.append(column).append(" is distinct from ?");
+		}
+		boolean checkVersion = update.getExpectedVersion() != ProductUpdate.ANY_VERSION;
+		String query = "update products set " + assignments + "version = version + 1 where product_id = ?"
+				+ (checkVersion ? " and version = ?" : "") + " and (" + differences + ");";
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(query)) {
+			int index = 1;
+			for (Map.Entry<ProductField, Object> change : changes.entrySet()) {
+				this.bindProductField(statement, index, change.getKey(), change.getValue());
+				this.bindProductField(statement, index + changes.size() + (checkVersion ? 2 : 1), change.getKey(),
+						change.getValue());
+				index++;
+			}
+			statement.setInt(index++, update.getId());
+			if (checkVersion) {
+				statement.setInt(index, update.getExpectedVersion());
+			}
+			if (statement.executeUpdate() == 1) {
+				catalogVersion.incrementAndGet();
+				return true;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/*
+	 * Метод устанавливает значение атрибута товара в параметр запроса с учетом
+	 * типа соответствующего столбца.
+	 */
+	private void bindProductField(PreparedStatement statement, int index, ProductField field, Object value)
+			throws SQLException {
+		switch (field) {
+		case CATEGORY_ID:
+		case AMOUNT:
+			statement.setInt(index, (Integer) value);
+			break;
+		case PRICE:
+			statement.setBigDecimal(index, Money.toDecimal((Long) value));
+			break;
+		case CREATION_DATE:
+			statement.setDate(index, value == null ? null : new java.sql.Date(((java.util.Date) value).getTime()));
+			break;
+		default:
+			statement.setString(index, (String) value);
+		}
+	}
+
 	@Override
 	public void deleteProduct(int id) {
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_DELETE_PRODUCT)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_DELETE_PRODUCT)) {
 			statement.setInt(1, id);
 			statement.executeUpdate();
+			catalogVersion.incrementAndGet();
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/*
-	 * TODO - данный метод переписать с помощью select...
+	 * Поиск не чувствителен к регистру и использует индекс по lower(product_name).
+	 * Как и раньше, при нескольких совпадениях возвращается товар с наибольшим ID,
+	 * а если совпадений нет - пустой товар.
 	 */
 	@Override
 	public Product getProductByProductName(String productName) {
 		Product foundedProduct = new Product();
-		try {
-			for (Product product : this.getProducts().values()) {
-				if (product.getProductName().equalsIgnoreCase(productName)) {
-					foundedProduct = product;
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_PRODUCT_BY_NAME)) {
+			statement.setString(1, productName);
+			try (final ResultSet rs = statement.executeQuery()) {
+				if (rs.next()) {
+					foundedProduct = this.readProduct(rs);
 				}
 			}
-		} catch (Exception e) {
+		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		return foundedProduct;
@@ -210,107 +601,258 @@ public class WebShopJDBC implements Storage {
 	// ------------------------------------------------------------------------------------------------------------------
 	// ------------------------------------------------------------------------------------------------------------------
 
+	/*
+	 * Соединения возвращаются в пул после каждой операции, поэтому закрывать здесь
+	 * нечего. Метод оставлен для совместимости с интерфейсом Storage.
+	 */
 	@Override
 	public void close() {
-		try {
-			connection.close();
+
+	}
+
+	@Override
+	public String checkAccountRole(String login) {
+		Account account = this.findCredentials(login);
+		if (account == null || account.getRole() == null) {
+			return new String();
+		}
+		return account.getRole();
+	}
+
+	@Override
+	public boolean checkLoginPassword(String login, String password) {
+		Account account = this.authenticate(login, password);
+		/* Также нужно, чтобы аккаунт не был заблокирован */
+		return account != null && account.getIsActive();
+	}
+
+	@Override
+	public Account authenticate(String login, String password) {
+		Account account = this.findCredentials(login);
+		if (account == null || !account.getPassword().equals(password)) {
+			return null;
+		}
+		return account;
+	}
+
+	/*
+	 * Метод возвращает учетные данные аккаунта (пароль, статус, роль) из кэша, а при
+	 * его отсутствии в кэше - одним запросом по первичному ключу accounts.
+	 */
+	private Account findCredentials(String login) {
+		if (login == null) {
+			return null;
+		}
+		final CredentialCache cache = CredentialCache.getInstance();
+		Account account = cache.get(login);
+		if (account != null) {
+			return account;
+		}
+		long generation = cache.generation();
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_CREDENTIALS)) {
+			statement.setString(1, login);
+			try (final ResultSet rs = statement.executeQuery()) {
+				if (rs.next()) {
+					account = new Account(login, rs.getString("account_pass"));
+					account.setActive(rs.getBoolean("is_active"));
+					account.setRole(rs.getString("role_name"));
+					cache.put(login, account, generation);
+				}
+			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+		return account;
 	}
 
 	@Override
-	public String checkAccountRole(String login) {
-		String foundedRole = new String();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ROLES)) {
-			while (rs.next()) {
-				/*
-				 * Сравниваем логины из таблицы БД account_roles с переданным через параметр
-				 * логином аккаунта
-				 */
-				if (rs.getString("account_name_fk").equals(login)) {
-					foundedRole = rs.getString("role_name");
-				}
+	public int makeOrder(Order order) {
+		int addedOrderId = -1;
+		/*
+		 * Заказ и все его строки записываются в одной транзакции на одном
+		 * соединении: либо заказ сохраняется целиком, либо не сохраняется вовсе.
+		 * Строки заказа отправляются в БД одним пакетом (batch), а драйвер с
+		 * параметром reWriteBatchedInserts=true объединяет пакет в многострочный
+		 * insert, поэтому число обращений к БД не зависит от количества строк.
+		 */
+		try (final Connection connection = this.getConnection()) {
+			connection.setAutoCommit(false);
+			try {
+				this.lockStock(connection, Collections.singletonList(order));
+				this.reserveStock(connection, order);
+				addedOrderId = this.insertOrder(connection, order);
+				this.insertOrderLines(connection, addedOrderId, order);
+				connection.commit();
+				catalogVersion.incrementAndGet();
+			} catch (SQLException | RuntimeException e) {
+				addedOrderId = -1;
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
-		return foundedRole;
+		return addedOrderId;
 	}
 
+	/*
+	 * Групповая фиксация: все заказы записываются на одном соединении в одной
+	 * транзакции, поэтому группа заказов ждет одну фиксацию (и одну запись
+	 * журнала на диск) вместо отдельной фиксации на каждый заказ. Каждый заказ
+	 * пишется после точки сохранения: если товара не хватает, откатывается
+	 * только этот заказ. Ошибка БД откатывает всю группу.
+	 */
 	@Override
-	public boolean checkLoginPassword(String login, String password) {
-		boolean authenticationResult = false;
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ACCOUNTS)) {
-			while (rs.next()) {
-				/*
-				 * Сравниваем логин из таблицы БД accounts с переданным через параметр логином
-				 * аккаунта
-				 */
-				if (rs.getString("account_name").equals(login)) {
-					/*
-					 * Сравниваем пароль данного логина из таблицы БД accounts с переданным через
-					 * параметр паролем
-					 */
-					if (rs.getString("account_pass").equals(password)) {
+	public List<OrderResult> makeOrders(List<Order> orders) {
+		List<OrderResult> results = new ArrayList<>(orders.size());
+		try (final Connection connection = this.getConnection()) {
+			connection.setAutoCommit(false);
+			try {
+				/* Блокировки, взятые до первой точки сохранения, держатся до фиксации группы */
+				this.lockStock(connection, orders);
+				boolean placed = false;
+				for (Order order : orders) {
+					Savepoint savepoint = connection.setSavepoint();
+					try {
+						this.reserveStock(connection, order);
+						int addedOrderId = this.insertOrder(connection, order);
+						this.insertOrderLines(connection, addedOrderId, order);
+						connection.releaseSavepoint(savepoint);
+						results.add(OrderResult.placed(addedOrderId));
+						placed = true;
+					} catch (OutOfStockException e) {
+						connection.rollback(savepoint);
+						results.add(OrderResult.rejected(e));
+					} catch (SQLException e) {
 						/*
-						 * Также нужно, чтобы аккаунт не был заблокирован
+						 * Ошибка одного заказа (например, неизвестный логин) откатывается
+						 * до его точки сохранения, остальные заказы группы сохраняются
 						 */
-						if (rs.getBoolean("is_active") == true) {
-							/* разрешаем вход в систему */
-							authenticationResult = true;
-						}
+						e.printStackTrace();
+						connection.rollback(savepoint);
+						results.add(OrderResult.failed());
 					}
 				}
+				connection.commit();
+				/* Если все заказы группы отклонены, остатки не изменились */
+				if (placed) {
+					catalogVersion.incrementAndGet();
+				}
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
+			results.clear();
+			for (int i = 0; i < orders.size(); i++) {
+				results.add(OrderResult.failed());
+			}
 		}
-		return authenticationResult;
+		return results;
 	}
 
-	@Override
-	public int makeOrder(Order order) {
-		int addedOrderId = -1;
-		/* Сначала добавим новый заказ в таблицу orders */
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_INSERT_ORDER,
+	/*
+	 * Блокирует до конца транзакции строки всех товаров заказов в порядке
+	 * возрастания ID, до списания первого из них.
+	 */
+	private void lockStock(Connection connection, List<Order> orders) throws SQLException {
+		Set<Integer> productIds = new TreeSet<>();
+		for (Order order : orders) {
+			IntObjectMap<Product> orderedProducts = order.getOrderedProducts();
+			for (int i = 0; i < orderedProducts.size(); i++) {
+				productIds.add(orderedProducts.keyAt(i));
+			}
+		}
+		try (final PreparedStatement statement = connection.prepareStatement(QUERY_LOCK_STOCK)) {
+			statement.setArray(1, connection.createArrayOf("integer", productIds.toArray()));
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					// строки только блокируются
+				}
+			}
+		}
+	}
+
+	/*
+	 * Списывает со склада заказанное количество всех товаров заказа. Если
+	 * какого-то товара не хватает, выбрасывает OutOfStockException, и транзакция
+	 * заказа откатывается вместе с уже выполненным списанием.
+	 */
+	private void reserveStock(Connection connection, Order order) throws SQLException {
+		IntObjectMap<Product> orderedProducts = order.getOrderedProducts();
+		int[] sortedIds = new int[orderedProducts.size()];
+		for (int i = 0; i < sortedIds.length; i++) {
+			sortedIds[i] = orderedProducts.keyAt(i);
+		}
+		Arrays.sort(sortedIds);
+		Integer[] productIds = new Integer[sortedIds.length];
+		Integer[] amounts = new Integer[sortedIds.length];
+		for (int i = 0; i < sortedIds.length; i++) {
+			productIds[i] = sortedIds[i];
+			amounts[i] = orderedProducts.get(sortedIds[i]).getAmount();
+		}
+		Set<Integer> reservedIds = new HashSet<>();
+		try (final PreparedStatement statement = connection.prepareStatement(QUERY_RESERVE_STOCK)) {
+			statement.setArray(1, connection.createArrayOf("integer", productIds));
+			statement.setArray(2, connection.createArrayOf("integer", amounts));
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					reservedIds.add(rs.getInt(1));
+				}
+			}
+		}
+		if (reservedIds.size() < productIds.length) {
+			List<Integer> shortProductIds = new ArrayList<>();
+			for (Integer productId : productIds) {
+				if (!reservedIds.contains(productId)) {
+					shortProductIds.add(productId);
+				}
+			}
+			throw new OutOfStockException(shortProductIds);
+		}
+	}
+
+	/* Добавляет новый заказ в таблицу orders и возвращает его ID */
+	private int insertOrder(Connection connection, Order order) throws SQLException {
+		try (final PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_ORDER,
 				Statement.RETURN_GENERATED_KEYS)) {
 			statement.setString(1, order.getUserLogin());
 			statement.setString(2, order.getStatus().toString());
-			statement.setDouble(3, order.getTotalPrice());
+			statement.setBigDecimal(3, Money.toDecimal(order.getTotalPrice()));
 			statement.executeUpdate();
 			try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
 				if (generatedKeys.next()) {
-					addedOrderId = generatedKeys.getInt(1);
-				} else {
-					throw new IllegalStateException("Could not add new product to DB!");
+					return generatedKeys.getInt(1);
 				}
+				throw new SQLException("Could not add new order to DB!");
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
 		}
-		/* Затем добавляем информацию в таблицу order_product */
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_INSERT_INTO_ORDER_PRODUCT)) {
+	}
+
+	/* Добавляет строки заказа в таблицу order_product одним пакетом */
+	private void insertOrderLines(Connection connection, int orderId, Order order) throws SQLException {
+		try (final PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_INTO_ORDER_PRODUCT)) {
 			for (Product product : order.getOrderedProducts().values()) {
-				statement.setInt(1, addedOrderId);
+				statement.setInt(1, orderId);
 				statement.setInt(2, product.getId());
 				statement.setString(3, product.getProductName());
 				statement.setInt(4, product.getCategoryId());
 				statement.setString(5, product.getManufacturerName());
-				statement.setDouble(6, product.getPrice());
+				statement.setBigDecimal(6, Money.toDecimal(product.getPrice()));
 				statement.setDate(7, (java.sql.Date) product.getCreationDate());
 				statement.setString(8, product.getColour());
 				statement.setString(9, product.getSize());
 				statement.setInt(10, product.getAmount());
-				statement.executeUpdate();
-				statement.clearParameters();
+				statement.addBatch();
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
+			statement.executeBatch();
 		}
-		return addedOrderId;
 	}
 
 	/*
@@ -323,22 +865,13 @@ public class WebShopJDBC implements Storage {
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Order> getUserOrders(String login) {
-		ConcurrentHashMap<Integer, Order> foundedOrders = new ConcurrentHashMap<Integer, Order>();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ORDERS)) {
-			while (rs.next()) {
-				/*
-				 * Сравниваем логины из таблицы БД orders с переданным через параметр логином
-				 * аккаунта
-				 */
-				int orderId = rs.getInt("order_id");
-				if (rs.getString("account_name_fk").equals(login)) {
-					foundedOrders.put(orderId,
-							new Order(orderId, rs.getString("account_name_fk"),
-									this.getOrderedProductsByOrderId(orderId),
-									OrderStatus.recognizeOrderStatus(rs.getString("status"))));
-				}
+	public IntObjectMap<Order> getUserOrders(String login) {
+		IntObjectMap<Order> foundedOrders = new IntObjectMap<>();
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_USER_ORDERS)) {
+			statement.setString(1, login);
+			try (final ResultSet rs = statement.executeQuery()) {
+				foundedOrders = this.readOrders(rs);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -346,33 +879,51 @@ public class WebShopJDBC implements Storage {
 		return foundedOrders;
 	}
 
-	private ConcurrentHashMap<Integer, Product> getOrderedProductsByOrderId(int orderId) {
-		ConcurrentHashMap<Integer, Product> foundedOrderedProducts = new ConcurrentHashMap<Integer, Product>();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ORDER_PRODUCT)) {
-			while (rs.next()) {
-				/*
-				 * Сравниваем order_id из таблицы БД orders с переданным через параметр аккаунта
-				 */
-				if (rs.getInt("order_id") == orderId) {
-					foundedOrderedProducts.put(rs.getInt("product_id"),
-							new Product(rs.getInt("product_id"), rs.getString("product_name"), rs.getInt("category_id"),
-									rs.getString("manufacturer_name"), rs.getDouble("price"),
-									rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"),
-									rs.getInt("ordered_amount")));
+	/*
+	 * Метод собирает заказы из результата запроса orders left join order_product за
+	 * один проход. Строки отсортированы по order_id, поэтому все товары одного
+	 * заказа идут подряд: как только order_id меняется, предыдущий заказ готов.
+	 */
+	private IntObjectMap<Order> readOrders(ResultSet rs) throws SQLException {
+		final IntObjectMap<Order> foundedOrders = new IntObjectMap<>();
+		int currentOrderId = 0;
+		String currentLogin = null;
+		OrderStatus currentStatus = null;
+		IntObjectMap<Product> currentProducts = null;
+		while (rs.next()) {
+			int orderId = rs.getInt("order_id");
+			if (currentProducts == null || orderId != currentOrderId) {
+				if (currentProducts != null) {
+					foundedOrders.put(currentOrderId,
+							new Order(currentOrderId, currentLogin, currentProducts.freeze(), currentStatus));
 				}
+				currentOrderId = orderId;
+				currentLogin = rs.getString("account_name_fk");
+				currentStatus = OrderStatus.recognizeOrderStatus(rs.getString("status"));
+				currentProducts = new IntObjectMap<>();
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
+			int productId = rs.getInt("product_id");
+			/* У заказа без товаров поля order_product после left join равны null */
+			if (!rs.wasNull()) {
+				currentProducts.put(productId,
+						new Product(productId, rs.getString("product_name"), rs.getInt("category_id"),
+								rs.getString("manufacturer_name"), Money.fromDecimal(rs.getBigDecimal("price")),
+								rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"), rs.getInt("ordered_amount")));
+			}
+		}
+		if (currentProducts != null) {
+			foundedOrders.put(currentOrderId,
+					new Order(currentOrderId, currentLogin, currentProducts.freeze(), currentStatus));
 		}
-		return foundedOrderedProducts;
+		return foundedOrders.freeze();
 	}
 
 	@Override
 	public ConcurrentHashMap<String, Account> getAccounts() {
 		final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ACCOUNTS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_ALL_ACCOUNTS);
+				final ResultSet rs = statement.executeQuery()) {
 			while (rs.next()) {
 				accounts.put(rs.getString("account_name"),
 						new Account(rs.getString("account_name"), rs.getBoolean("is_active")));
@@ -385,28 +936,27 @@ public class WebShopJDBC implements Storage {
 
 	@Override
 	public void changeAccountStatus(String login, Boolean currentStatus) {
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_UPDATE_ACCOUNT_STATUS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_ACCOUNT_STATUS)) {
 			/* меняем статус аккаунта на противоположный */
 			statement.setBoolean(1, !currentStatus);
 			statement.setString(2, login);
 			statement.executeUpdate();
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			/* Заблокированный аккаунт должен сразу потерять доступ */
+			CredentialCache.getInstance().invalidate(login);
 		}
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Order> getAllOrders() {
-		ConcurrentHashMap<Integer, Order> foundedOrders = new ConcurrentHashMap<Integer, Order>();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_ORDERS)) {
-			while (rs.next()) {
-				int orderId = rs.getInt("order_id");
-				foundedOrders.put(orderId,
-						new Order(orderId, rs.getString("account_name_fk"), this.getOrderedProductsByOrderId(orderId),
-								OrderStatus.recognizeOrderStatus(rs.getString("status"))));
-			}
-			// }
+	public IntObjectMap<Order> getAllOrders() {
+		IntObjectMap<Order> foundedOrders = new IntObjectMap<>();
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_ALL_ORDERS);
+				final ResultSet rs = statement.executeQuery()) {
+			foundedOrders = this.readOrders(rs);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -415,7 +965,8 @@ public class WebShopJDBC implements Storage {
 
 	@Override
 	public void changeOrderStatus(int orderId, String newOrderStatus) {
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_UPDATE_ORDER_STATUS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_ORDER_STATUS)) {
 			/* меняем статус заказа */
 			statement.setString(1, OrderStatus.recognizeOrderStatus(newOrderStatus).toString());
 			statement.setInt(2, orderId);
@@ -427,7 +978,8 @@ public class WebShopJDBC implements Storage {
 
 	@Override
 	public void addAccount(String role, Account account) {
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_INSERT_ACCOUNT)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_ACCOUNT)) {
 			/* для таблицы accounts */
 			statement.setString(1, account.getLogin());
 			statement.setString(2, account.getPassword());
@@ -438,14 +990,17 @@ public class WebShopJDBC implements Storage {
 			statement.executeUpdate();
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			CredentialCache.getInstance().invalidate(account.getLogin());
 		}
 	}
 
 	@Override
 	public ConcurrentMap<String, Manufacturer> getManufacturers() {
 		final ConcurrentHashMap<String, Manufacturer> manufacturers = new ConcurrentHashMap<>();
-		try (final Statement statement = this.connection.createStatement();
-				final ResultSet rs = statement.executeQuery(QUERY_SELECT_ALL_MANUFACTURERS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_SELECT_ALL_MANUFACTURERS);
+				final ResultSet rs = statement.executeQuery()) {
 			while (rs.next()) {
 				manufacturers.put(rs.getString("manufacturer_name"),
 						new Manufacturer(rs.getString("manufacturer_name")));
@@ -458,9 +1013,9 @@ public class WebShopJDBC implements Storage {
 	}
 
 	@Override
-	public ConcurrentHashMap<Integer, Product> findProducts(String manufacturerName, String minPrice, String maxPrice,
+	public IntObjectMap<Product> findProducts(String manufacturerName, String minPrice, String maxPrice,
 			String colour) {
-		final ConcurrentHashMap<Integer, Product> foundedProducts = new ConcurrentHashMap<>();
+		final IntObjectMap<Product> foundedProducts = new IntObjectMap<>();
 		/* Приводим полученные строки в необходимый для работы с БД вид */
 		String manufacturerNameForDB;
 		if (manufacturerName == null || manufacturerName.isEmpty()) {
@@ -468,20 +1023,9 @@ public class WebShopJDBC implements Storage {
 		} else {
 			manufacturerNameForDB = manufacturerName;
 		}
-		double minPriceForDB;
-		if (minPrice == null || minPrice.isEmpty()) {
-			/* Ставим нижний порог цены 0 */
-			minPriceForDB = 0.0;
-		} else {
-			minPriceForDB = Double.valueOf(minPrice);
-		}
-		double maxPriceForDB;
-		if (maxPrice == null || maxPrice.isEmpty()) {
-			/* Ставим верхний порог цены очень большой, чтобы все товары попадали в выборку */
-			maxPriceForDB = 100_000_000.0;
-		} else {
-			maxPriceForDB = Double.valueOf(maxPrice);
-		}		
+		/* Пустые границы цены не ограничивают выборку - так же, как в фасетах и индексе */
+		long minPriceForDB = ProductSearchIndex.minPriceBound(minPrice);
+		long maxPriceForDB = ProductSearchIndex.maxPriceBound(maxPrice);
 		String colourForDB;
 		if (colour == null || colour.isEmpty()) {
 			colourForDB = "%";
@@ -489,23 +1033,109 @@ public class WebShopJDBC implements Storage {
 		else {
 			colourForDB = colour;
 		}
-		try (final PreparedStatement statement = this.connection.prepareStatement(QUERY_FIND_PRODUCTS)) {
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_FIND_PRODUCTS)) {
 			statement.setString(1, manufacturerNameForDB);
-			statement.setDouble(2, minPriceForDB);
-			statement.setDouble(3, maxPriceForDB);
+			statement.setBigDecimal(2, Money.toDecimal(minPriceForDB));
+			statement.setBigDecimal(3, Money.toDecimal(maxPriceForDB));
 			statement.setString(4, colourForDB);
-			ResultSet rs = statement.executeQuery();
-			while (rs.next()) {
-				foundedProducts.put(rs.getInt("product_id"),
-						new Product(rs.getInt("product_id"), rs.getString("product_name"), rs.getInt("category_id_fk"),
-								rs.getString("manufacturer_name_fk"), rs.getDouble("price"),
-								rs.getDate("creation_date"), rs.getString("colour"), rs.getString("size"),
-								rs.getInt("amount_in_storage")));
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					foundedProducts.put(rs.getInt("product_id"), this.readProduct(rs));
+				}
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
-		return foundedProducts;
+		return foundedProducts.freeze();
+	}
+
+	/*
+	 * Без кэша каталога (catalog.cache.enabled=false) фасеты считаются в БД
+	 * одним запросом с группировкой, условия те же, что и в findProducts().
+	 */
+	@Override
+	public ProductFacets getProductFacets(String manufacturerName, String minPrice, String maxPrice,
+			String colour) {
+		String manufacturerNameForDB = manufacturerName == null || manufacturerName.isEmpty() ? "%" : manufacturerName;
+		String colourForDB = colour == null || colour.isEmpty() ? "%" : colour;
+		BigDecimal minPriceForDB = Money.toDecimal(ProductSearchIndex.minPriceBound(minPrice));
+		BigDecimal maxPriceForDB = Money.toDecimal(ProductSearchIndex.maxPriceBound(maxPrice));
+		long[] bounds = ProductSearchIndex.priceBucketBounds();
+		BigDecimal[] boundsForDB = new BigDecimal[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			boundsForDB[i] = Money.toDecimal(bounds[i]);
+		}
+		int total = 0;
+		Map<String, Integer> manufacturerCounts = new TreeMap<>();
+		Map<String, Integer> colourCounts = new TreeMap<>();
+		int withoutColourCount = 0;
+		int[] bucketCounts = new int[bounds.length];
+		try (final Connection connection = this.getConnection();
+				final PreparedStatement statement = connection.prepareStatement(QUERY_PRODUCT_FACETS)) {
+			Array boundsArray = connection.createArrayOf("numeric", boundsForDB);
+			int index = 1;
+			/* 0 - всего */
+			statement.setString(index++, manufacturerNameForDB);
+			statement.setString(index++, colourForDB);
+			statement.setBigDecimal(index++, minPriceForDB);
+			statement.setBigDecimal(index++, maxPriceForDB);
+			/* 1 - производители */
+			statement.setString(index++, colourForDB);
+			statement.setBigDecimal(index++, minPriceForDB);
+			statement.setBigDecimal(index++, maxPriceForDB);
+			/* 2 - цвета и 3 - товары без цвета */
+			for (int i = 0; i < 2; i++) {
+				statement.setString(index++, manufacturerNameForDB);
+				statement.setBigDecimal(index++, minPriceForDB);
+				statement.setBigDecimal(index++, maxPriceForDB);
+			}
+			/* 4 - ценовые диапазоны */
+			statement.setArray(index++, boundsArray);
+			statement.setString(index++, manufacturerNameForDB);
+			statement.setString(index++, colourForDB);
+			statement.setArray(index++, boundsArray);
+			try (final ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					String value = rs.getString("value");
+					int amount = rs.getInt("amount");
+					switch (rs.getInt("facet")) {
+					case 0:
+						total = amount;
+						break;
+					case 1:
+						if (value != null) {
+							manufacturerCounts.put(value, amount);
+						}
+						break;
+					case 2:
+						colourCounts.put(value, amount);
+						break;
+					case 3:
+						withoutColourCount = amount;
+						break;
+					default:
+						/* width_bucket() дает 0 для цены ниже первой границы и null для товара без цены */
+						int bucket = value == null ? 0 : Integer.parseInt(value);
+						if (bucket > 0) {
+							bucketCounts[bucket - 1] = amount;
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		/* Товары без цвета подходят под любой цвет */
+		for (Map.Entry<String, Integer> entry : colourCounts.entrySet()) {
+			entry.setValue(entry.getValue() + withoutColourCount);
+		}
+		List<ProductFacets.PriceBucket> priceBuckets = new ArrayList<>(bounds.length);
+		for (int i = 0; i < bounds.length; i++) {
+			Long bucketMax = i + 1 < bounds.length ? bounds[i + 1] : null;
+			priceBuckets.add(new ProductFacets.PriceBucket(bounds[i], bucketMax, bucketCounts[i]));
+		}
+		return new ProductFacets(total, manufacturerCounts, colourCounts, priceBuckets, true);
 	}
 
 }
@@ -0,0 +1,148 @@
+package models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Тесты отображения IntObjectMap: добавление, замена, удаление с переносом
+ * последней пары, расширение таблицы, заморозка и копирование.
+ *
+ * @author Anatolii Melchenko
+ */
+public class IntObjectMapTest {
+
+	@Test
+	public void putReplacesValueAndReturnsPrevious() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		assertNull(map.put(7, "a"));
+		assertEquals("a", map.put(7, "b"));
+		assertEquals(1, map.size());
+		assertEquals("b", map.get(7));
+		assertNull(map.get(8));
+		assertFalse(map.containsKey(8));
+	}
+
+	@Test
+	public void iterationFollowsInsertionOrder() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		map.put(30, "c");
+		map.put(10, "a");
+		map.put(20, "b");
+		assertEquals(30, map.keyAt(0));
+		assertEquals(10, map.keyAt(1));
+		assertEquals(20, map.keyAt(2));
+		List<String> values = new ArrayList<>(map.values());
+		assertEquals("[c, a, b]", values.toString());
+	}
+
+	/* На место удаленной пары переносится последняя, остальные ключи находятся по-прежнему */
+	@Test
+	public void removeMovesLastPairIntoFreedPosition() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		map.put(1, "a");
+		map.put(2, "b");
+		map.put(3, "c");
+		assertEquals("a", map.remove(1));
+		assertNull(map.remove(1));
+		assertEquals(2, map.size());
+		assertEquals(3, map.keyAt(0));
+		assertEquals(2, map.keyAt(1));
+		assertEquals("b", map.get(2));
+		assertEquals("c", map.get(3));
+		assertNull(map.get(1));
+	}
+
+	/* Ключи, которые попадают в одну ячейку таблицы, и отрицательные ключи */
+	@Test
+	public void collidingAndNegativeKeysAreKept() {
+		IntObjectMap<Integer> map = new IntObjectMap<>();
+		for (int i = -50; i < 50; i++) {
+			map.put(i * 1024, i);
+		}
+		for (int i = -50; i < 50; i += 3) {
+			assertEquals(Integer.valueOf(i), map.remove(i * 1024));
+		}
+		for (int i = -50; i < 50; i++) {
+			if ((i + 50) % 3 == 0) {
+				assertFalse(map.containsKey(i * 1024));
+			} else {
+				assertEquals(Integer.valueOf(i), map.get(i * 1024));
+			}
+		}
+	}
+
+	/* Случайная последовательность операций сверяется с HashMap */
+	@Test
+	public void randomOperationsMatchHashMap() {
+		Random random = new Random(42);
+		IntObjectMap<Integer> map = new IntObjectMap<>();
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			int key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (int i = 0; i < map.size(); i++) {
+			assertEquals(expected.get(map.keyAt(i)), map.valueAt(i));
+		}
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void frozenMapRejectsPut() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		map.put(1, "a");
+		map.freeze().put(2, "b");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void frozenMapRejectsRemove() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		map.put(1, "a");
+		map.freeze().remove(1);
+	}
+
+	@Test
+	public void copyOfFrozenMapIsModifiable() {
+		IntObjectMap<String> map = new IntObjectMap<>();
+		map.put(1, "a");
+		map.put(2, "b");
+		IntObjectMap<String> copy = map.freeze().copy();
+		copy.put(3, "c");
+		copy.remove(1);
+		assertEquals(2, map.size());
+		assertEquals("a", map.get(1));
+		assertEquals(2, copy.size());
+		assertTrue(copy.containsKey(3));
+	}
+
+	@Test
+	public void clearRemovesAllPairs() {
+		IntObjectMap<String> map = new IntObjectMap<>(2);
+		for (int i = 0; i < 100; i++) {
+			map.put(i, String.valueOf(i));
+		}
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(5));
+		map.put(5, "five");
+		assertEquals("five", map.get(5));
+	}
+
+}
@@ -0,0 +1,253 @@
+package service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+/**
+ * Тесты асинхронной обработки запросов. Запрос, ответ и AsyncContext
+ * подменяются заглушками, которые запоминают обращения к ним, поэтому
+ * проверяется, кто и когда завершает запрос: обработчик или таймаут.
+ *
+ * @author Anatolii Melchenko
+ */
+public class AsyncRequestUtilTest {
+
+	private static final String JSP = "/views/ViewShop.jsp";
+	private static final long TIMEOUT_SECONDS = 10;
+
+	/* Без поддержки асинхронного режима обработчик выполняется в потоке запроса */
+	@Test
+	public void unsupportedAsyncRunsInRequestThread() throws Exception {
+		FakeRequest request = new FakeRequest(false);
+		final AtomicReference<Thread> readThread = new AtomicReference<>();
+		AsyncRequestUtil.process(request.proxy, request.response, JSP, req -> page -> {
+			readThread.set(Thread.currentThread());
+			page.setAttribute("products", "page 1");
+		});
+		assertSame(Thread.currentThread(), readThread.get());
+		assertEquals("page 1", request.attributes.get("products"));
+		assertEquals(JSP, request.forwarded.get());
+		assertFalse(request.asyncStarted.get());
+	}
+
+	/* Данные страницы переносятся в запрос перед dispatch, чтение идет в пуле хранилища */
+	@Test
+	public void readResultIsAppliedBeforeDispatch() throws Exception {
+		FakeRequest request = new FakeRequest(true);
+		final AtomicReference<Thread> readThread = new AtomicReference<>();
+		final String parameter = "Apple";
+		AsyncRequestUtil.process(request.proxy, request.response, JSP, req -> page -> {
+			readThread.set(Thread.currentThread());
+			page.setAttribute("manufacturer", parameter);
+			page.setHeader("ETag", "\"1\"");
+		});
+		request.awaitFinished();
+		assertNotSame(Thread.currentThread(), readThread.get());
+		assertEquals(JSP, request.dispatched.get());
+		assertEquals("Apple", request.attributesAtFinish.get("manufacturer"));
+		assertEquals("\"1\"", request.headers.get("ETag"));
+		assertNull(request.error.get());
+	}
+
+	/*
+	 * Таймаут наступает раньше, чем закончилось чтение: клиент получает 503, а
+	 * запоздавшее чтение уже не обращается к запросу и не вызывает dispatch.
+	 */
+	@Test
+	public void timeoutWinsOverLateRead() throws Exception {
+		FakeRequest request = new FakeRequest(true);
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch readDone = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		AsyncRequestUtil.process(request.proxy, request.response, JSP, req -> page -> {
+			try {
+				entered.countDown();
+				new CountDownLatch(1).await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				page.setAttribute("late", Boolean.TRUE);
+				readDone.countDown();
+			}
+		});
+		assertTrue(entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		for (AsyncListener listener : request.listeners) {
+			listener.onTimeout(null);
+		}
+		assertEquals(Integer.valueOf(HttpServletResponse.SC_SERVICE_UNAVAILABLE), request.error.get());
+		assertTrue(request.completed.get());
+
+		/* Таймаут прерывает чтение */
+		assertTrue(readDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertTrue(interrupted.get());
+		Thread.sleep(100);
+		assertNull(request.dispatched.get());
+		assertFalse(request.attributes.containsKey("late"));
+		assertEquals(1, request.finishCount.get());
+	}
+
+	/* Чтения из хранилища не уложились в срок (ParallelReads) - ответ 503 */
+	@Test
+	public void storageReadTimeoutSendsServiceUnavailable() throws Exception {
+		FakeRequest request = new FakeRequest(true);
+		AsyncRequestUtil.process(request.proxy, request.response, JSP, req -> page -> {
+			throw new ServletException("Storage reads did not finish in time", new TimeoutException());
+		});
+		request.awaitFinished();
+		assertEquals(Integer.valueOf(HttpServletResponse.SC_SERVICE_UNAVAILABLE), request.error.get());
+		assertNull(request.dispatched.get());
+	}
+
+	@Test
+	public void readFailureSendsInternalServerError() throws Exception {
+		FakeRequest request = new FakeRequest(true);
+		AsyncRequestUtil.process(request.proxy, request.response, JSP, req -> page -> {
+			throw new IllegalStateException("Connection lost");
+		});
+		request.awaitFinished();
+		assertEquals(Integer.valueOf(HttpServletResponse.SC_INTERNAL_SERVER_ERROR), request.error.get());
+		assertNull(request.dispatched.get());
+	}
+
+	/*
+	 * Заглушки запроса, ответа и AsyncContext. Запрос считается завершенным
+	 * при dispatch или complete; attributesAtFinish - атрибуты запроса на этот
+	 * момент.
+	 */
+	private static class FakeRequest {
+
+		final HttpServletRequest proxy;
+		final HttpServletResponse response;
+
+		final Map<String, Object> attributes = new ConcurrentHashMap<>();
+		final Map<String, Object> attributesAtFinish = new ConcurrentHashMap<>();
+		final Map<String, String> headers = new ConcurrentHashMap<>();
+		final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+		final AtomicReference<String> forwarded = new AtomicReference<>();
+		final AtomicReference<String> dispatched = new AtomicReference<>();
+		final AtomicReference<Integer> error = new AtomicReference<>();
+		final AtomicBoolean asyncStarted = new AtomicBoolean();
+		final AtomicBoolean completed = new AtomicBoolean();
+		final AtomicInteger finishCount = new AtomicInteger();
+		private final CountDownLatch finished = new CountDownLatch(1);
+
+		FakeRequest(final boolean asyncSupported) {
+			response = fake(HttpServletResponse.class, (method, args) -> {
+				switch (method) {
+				case "sendError":
+					error.set((Integer) args[0]);
+					return null;
+				case "setHeader":
+					headers.put((String) args[0], (String) args[1]);
+					return null;
+				default:
+					throw new UnsupportedOperationException(method);
+				}
+			});
+			final AsyncContext asyncContext = fake(AsyncContext.class, (method, args) -> {
+				switch (method) {
+				case "setTimeout":
+					return null;
+				case "addListener":
+					listeners.add((AsyncListener) args[0]);
+					return null;
+				case "getResponse":
+					return response;
+				case "dispatch":
+					dispatched.set((String) args[0]);
+					this.finish();
+					return null;
+				case "complete":
+					completed.set(true);
+					this.finish();
+					return null;
+				default:
+					throw new UnsupportedOperationException(method);
+				}
+			});
+			proxy = fake(HttpServletRequest.class, (method, args) -> {
+				switch (method) {
+				case "isAsyncSupported":
+					return asyncSupported;
+				case "getRequestURI":
+					return "/shop";
+				case "startAsync":
+					asyncStarted.set(true);
+					return asyncContext;
+				case "setAttribute":
+					attributes.put((String) args[0], args[1]);
+					return null;
+				case "getRequestDispatcher":
+					final String path = (String) args[0];
+					return fake(RequestDispatcher.class, (dispatcherMethod, dispatcherArgs) -> {
+						forwarded.set(path);
+						return null;
+					});
+				default:
+					throw new UnsupportedOperationException(method);
+				}
+			});
+		}
+
+		void awaitFinished() throws InterruptedException {
+			assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		}
+
+		private void finish() {
+			attributesAtFinish.putAll(attributes);
+			finishCount.incrementAndGet();
+			finished.countDown();
+		}
+	}
+
+	private interface Handler {
+		Object handle(String method, Object[] args) throws Throwable;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return type.getSimpleName();
+				default:
+					return handler.handle(method.getName(), args);
+				}
+			}
+		});
+	}
+
+}
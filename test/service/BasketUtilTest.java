@@ -0,0 +1,206 @@
+package service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import models.Basket;
+
+/**
+ * Тесты корзины посетителя при одновременных запросах: у каждой сессии
+ * создается ровно одна корзина, а добавления товаров из разных запросов
+ * одной сессии не теряются.
+ *
+ * @author Anatolii Melchenko
+ */
+public class BasketUtilTest {
+
+	private static final int SESSIONS = 20;
+	private static final int THREADS = 8;
+	private static final int PRODUCTS_PER_THREAD = 50;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void basketIsCreatedOncePerSession() {
+		HttpSession first = session();
+		HttpSession second = session();
+		Basket basket = BasketUtil.getBasket(first);
+		assertSame(basket, BasketUtil.getBasket(first));
+		assertNotSame(basket, BasketUtil.getBasket(second));
+		assertSame(basket, first.getAttribute(BasketUtil.BASKET_ATTRIBUTE));
+	}
+
+	/*
+	 * Все потоки одновременно обращаются к каждой из новых сессий и добавляют
+	 * свои товары: корзина сессии одна на все потоки и содержит все товары.
+	 */
+	@Test
+	public void concurrentRequestsShareOneBasketAndKeepAllProducts() throws Exception {
+		final List<HttpSession> sessions = new ArrayList<>();
+		for (int i = 0; i < SESSIONS; i++) {
+			sessions.add(session());
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<Basket>>> results = new ArrayList<>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			final int firstProductId = thread * 1000;
+			results.add(executor.submit(new Callable<List<Basket>>() {
+				@Override
+				public List<Basket> call() throws Exception {
+					start.await();
+					List<Basket> baskets = new ArrayList<>();
+					for (HttpSession session : sessions) {
+						baskets.add(BasketUtil.getBasket(session));
+					}
+					for (int productId = firstProductId; productId < firstProductId
+							+ PRODUCTS_PER_THREAD; productId++) {
+						for (HttpSession session : sessions) {
+							BasketUtil.getBasket(session).addToBasket(productId);
+						}
+					}
+					return baskets;
+				}
+			}));
+		}
+		start.countDown();
+
+		List<List<Basket>> seen = new ArrayList<>();
+		for (Future<List<Basket>> result : results) {
+			seen.add(result.get(30, TimeUnit.SECONDS));
+		}
+		for (int i = 0; i < SESSIONS; i++) {
+			Basket basket = BasketUtil.getBasket(sessions.get(i));
+			for (List<Basket> baskets : seen) {
+				assertSame(basket, baskets.get(i));
+			}
+			assertEquals(THREADS * PRODUCTS_PER_THREAD, basket.size());
+			for (int thread = 0; thread < THREADS; thread++) {
+				for (int productId = thread * 1000; productId < thread * 1000 + PRODUCTS_PER_THREAD; productId++) {
+					assertEquals(1, basket.getAmount(productId));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Копия и сериализованная корзина, снятые во время изменения корзины,
+	 * согласованы: каждая строка копии - строка корзины на момент снятия.
+	 */
+	@Test
+	public void copiesTakenDuringChangesAreConsistent() throws Exception {
+		final Basket basket = BasketUtil.getBasket(session());
+		final CountDownLatch start = new CountDownLatch(1);
+		Future<?> writer = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				start.await();
+				for (int round = 0; round < 200; round++) {
+					for (int productId = 1; productId <= 10; productId++) {
+						basket.addToBasket(productId);
+						basket.changeProductAmount(productId, productId);
+					}
+					for (int productId = 1; productId <= 10; productId += 2) {
+						basket.removeProduct(productId);
+					}
+				}
+				return null;
+			}
+		});
+		start.countDown();
+		for (int i = 0; i < 200; i++) {
+			assertConsistent(basket.copy());
+			assertConsistent(serializedCopy(basket));
+		}
+		writer.get(30, TimeUnit.SECONDS);
+
+		/* После последнего круга в корзине остались только четные товары */
+		Basket copy = basket.copy();
+		int[] productIds = new int[copy.size()];
+		for (int i = 0; i < copy.size(); i++) {
+			productIds[i] = copy.productIdAt(i);
+		}
+		assertArrayEquals(new int[] { 2, 4, 6, 8, 10 }, productIds);
+	}
+
+	/* Количество в строке - 1 (только что добавлен) или ID товара (изменено) */
+	private static void assertConsistent(Basket copy) {
+		for (int i = 0; i < copy.size(); i++) {
+			int productId = copy.productIdAt(i);
+			int amount = copy.amountAt(i);
+			assertTrue(copy.toString(), productId >= 1 && productId <= 10);
+			assertTrue(copy.toString(), amount == 1 || amount == productId);
+		}
+	}
+
+	private static Basket serializedCopy(Basket basket) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(basket);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (Basket) in.readObject();
+		}
+	}
+
+	/* Сессия-заглушка: атрибуты в ConcurrentHashMap, как у сессии Tomcat */
+	private static HttpSession session() {
+		final Map<String, Object> attributes = new ConcurrentHashMap<>();
+		return (HttpSession) Proxy.newProxyInstance(HttpSession.class.getClassLoader(),
+				new Class<?>[] { HttpSession.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						switch (method.getName()) {
+						case "getAttribute":
+							return attributes.get(args[0]);
+						case "setAttribute":
+							attributes.put((String) args[0], args[1]);
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,250 @@
+package service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import models.IntObjectMap;
+import models.Order;
+import models.OrderStatus;
+import models.OrderTicket;
+import models.Product;
+import storages.OrderResult;
+import storages.OutOfStockException;
+import storages.Storage;
+
+/**
+ * Тесты очереди оформления заказов. Хранилище подменяется заглушкой, которая
+ * задерживает запись первой группы, пока тест не поставит в очередь
+ * остальные заказы, поэтому состав групп не зависит от планировщика потоков.
+ *
+ * @author Anatolii Melchenko
+ */
+public class OrderPipelineTest {
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private OrderPipeline pipeline;
+
+	@After
+	public void tearDown() {
+		if (pipeline != null) {
+			pipeline.shutdown();
+		}
+	}
+
+	/* Пока записывается первая группа, следующие заказы собираются в одну группу */
+	@Test
+	public void ordersQueuedDuringCommitFormOneBatch() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 100, 100, 1000, 60000);
+		OrderTicket first = pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		List<OrderTicket> queued = new ArrayList<>();
+		for (int id = 2; id <= 6; id++) {
+			queued.add(pipeline.submit("alice", order(id, "alice")));
+		}
+		storage.release();
+
+		awaitFinished(first);
+		for (OrderTicket ticket : queued) {
+			awaitFinished(ticket);
+			assertEquals(OrderTicket.State.PLACED, ticket.getState());
+			assertEquals(ticket.getOrder().getId() + 100, ticket.getOrderId());
+		}
+		assertEquals(Arrays.asList(1, 5), storage.batchSizes());
+		assertEquals(6, pipeline.getTickets("alice").size());
+		assertEquals(first.getId(), pipeline.getTickets("alice").get(0).getId());
+	}
+
+	@Test
+	public void batchIsLimitedByMaxBatchSize() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 100, 2, 1000, 60000);
+		pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		OrderTicket last = null;
+		for (int id = 2; id <= 6; id++) {
+			last = pipeline.submit("alice", order(id, "alice"));
+		}
+		storage.release();
+		awaitFinished(last);
+		assertEquals(Arrays.asList(1, 2, 2, 1), storage.batchSizes());
+	}
+
+	/* Каждый заказ группы получает свой итог: сохранен, отклонен или ошибка */
+	@Test
+	public void partialFailureFinishesEachTicket() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 100, 100, 1000, 60000);
+		OrderTicket first = pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		OrderTicket placed = pipeline.submit("alice", order(2, "alice"));
+		OrderTicket rejected = pipeline.submit("bob", order(GatedStorage.REJECTED_ORDER, "bob"));
+		OrderTicket failed = pipeline.submit("bob", order(GatedStorage.FAILED_ORDER, "bob"));
+		storage.release();
+
+		awaitFinished(first);
+		awaitFinished(placed);
+		awaitFinished(rejected);
+		awaitFinished(failed);
+		assertEquals(Arrays.asList(1, 3), storage.batchSizes());
+		assertEquals(OrderTicket.State.PLACED, placed.getState());
+		assertEquals(102, placed.getOrderId());
+		assertEquals(OrderTicket.State.REJECTED, rejected.getState());
+		assertEquals(-1, rejected.getOrderId());
+		assertTrue(rejected.getMessage(), rejected.getMessage().contains("product 7"));
+		assertEquals(OrderTicket.State.FAILED, failed.getState());
+		assertEquals(-1, failed.getOrderId());
+
+		assertEquals(2, pipeline.getTickets("alice").size());
+		assertEquals(2, pipeline.getTickets("bob").size());
+		assertTrue(pipeline.getTickets("carol").isEmpty());
+	}
+
+	/* Если хранилище не записало группу, ни один заказ группы не считается сохраненным */
+	@Test
+	public void storageErrorFailsWholeBatch() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 100, 100, 1000, 60000);
+		pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		OrderTicket broken = pipeline.submit("alice", order(GatedStorage.BROKEN_BATCH, "alice"));
+		OrderTicket other = pipeline.submit("alice", order(3, "alice"));
+		storage.release();
+
+		awaitFinished(broken);
+		awaitFinished(other);
+		assertEquals(OrderTicket.State.FAILED, broken.getState());
+		assertEquals(OrderTicket.State.FAILED, other.getState());
+	}
+
+	@Test
+	public void fullQueueRejectsOrder() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 1, 100, 10, 60000);
+		pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		OrderTicket queued = pipeline.submit("alice", order(2, "alice"));
+		try {
+			pipeline.submit("alice", order(3, "alice"));
+			fail("Order was accepted into a full queue");
+		} catch (OrderQueueFullException e) {
+			/* ожидаемо */
+		}
+		assertEquals(1, pipeline.getQueueSize());
+		storage.release();
+		awaitFinished(queued);
+		assertEquals(OrderTicket.State.PLACED, queued.getState());
+		assertEquals(2, pipeline.getTickets("alice").size());
+	}
+
+	/* Остановка дожидается записи принятых заказов и закрывает прием новых */
+	@Test
+	public void shutdownWritesAcceptedOrders() throws Exception {
+		GatedStorage storage = new GatedStorage();
+		pipeline = new OrderPipeline(storage.proxy(), 100, 100, 1000, 60000);
+		pipeline.submit("alice", order(1, "alice"));
+		storage.awaitFirstBatch();
+		OrderTicket queued = pipeline.submit("alice", order(2, "alice"));
+		storage.release();
+		pipeline.shutdown();
+		assertEquals(OrderTicket.State.PLACED, queued.getState());
+		try {
+			pipeline.submit("alice", order(3, "alice"));
+			fail("Order was accepted after shutdown");
+		} catch (OrderQueueFullException e) {
+			/* ожидаемо */
+		}
+	}
+
+	private static Order order(int id, String login) {
+		IntObjectMap<Product> products = new IntObjectMap<>();
+		products.put(7, new Product(7, "product 7", 1, "Apple", 1000, null, null, null, 1));
+		return new Order(id, login, products, OrderStatus.REGISTERED);
+	}
+
+	private static void awaitFinished(OrderTicket ticket) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (!ticket.isFinished()) {
+			if (System.nanoTime() - deadline > 0) {
+				fail("Ticket " + ticket.getId() + " was not finished");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	/*
+	 * Заглушка хранилища: makeOrders первой группы ждет release(), ID
+	 * сохраненного заказа - ID заказа + 100. Заказ REJECTED_ORDER отклоняется
+	 * из-за нехватки товара 7, FAILED_ORDER не сохраняется, а группа с
+	 * BROKEN_BATCH не записывается целиком.
+	 */
+	private static class GatedStorage implements InvocationHandler {
+
+		static final int REJECTED_ORDER = 50;
+		static final int FAILED_ORDER = 51;
+		static final int BROKEN_BATCH = 52;
+
+		private final CountDownLatch firstBatch = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+		Storage proxy() {
+			return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[] { Storage.class },
+					this);
+		}
+
+		void awaitFirstBatch() throws InterruptedException {
+			assertTrue(firstBatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		}
+
+		void release() {
+			released.countDown();
+		}
+
+		List<Integer> batchSizes() {
+			return new ArrayList<>(batchSizes);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (!method.getName().equals("makeOrders")) {
+				throw new UnsupportedOperationException(method.getName());
+			}
+			@SuppressWarnings("unchecked")
+			List<Order> orders = (List<Order>) args[0];
+			batchSizes.add(orders.size());
+			firstBatch.countDown();
+			assertTrue(released.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			List<OrderResult> results = new ArrayList<>(orders.size());
+			for (Order order : orders) {
+				if (order.getId() == BROKEN_BATCH) {
+					throw new IllegalStateException("Connection lost");
+				} else if (order.getId() == REJECTED_ORDER) {
+					results.add(OrderResult.rejected(new OutOfStockException(Collections.singletonList(7))));
+				} else if (order.getId() == FAILED_ORDER) {
+					results.add(OrderResult.failed());
+				} else {
+					results.add(OrderResult.placed(order.getId() + 100));
+				}
+			}
+			return results;
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+package storages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Тесты битовой карты: операции сверяются с java.util.BitSet, отдельно
+ * проверяются переходы через границы слов и сжатие после сброса старших битов.
+ *
+ * @author Anatolii Melchenko
+ */
+public class BitmapTest {
+
+	@Test
+	public void setGetAndClearAcrossWords() {
+		Bitmap bitmap = new Bitmap();
+		bitmap.set(0);
+		bitmap.set(63);
+		bitmap.set(64);
+		bitmap.set(1000);
+		assertTrue(bitmap.get(63));
+		assertTrue(bitmap.get(64));
+		assertFalse(bitmap.get(65));
+		assertFalse(bitmap.get(100000));
+		assertEquals(4, bitmap.cardinality());
+		bitmap.clear(1000);
+		bitmap.clear(5000);
+		assertEquals(3, bitmap.cardinality());
+		assertEquals(-1, bitmap.nextSetBit(65));
+	}
+
+	@Test
+	public void nextSetBitSkipsEmptyWords() {
+		Bitmap bitmap = new Bitmap();
+		bitmap.set(3);
+		bitmap.set(700);
+		assertEquals(3, bitmap.nextSetBit(0));
+		assertEquals(700, bitmap.nextSetBit(4));
+		assertEquals(700, bitmap.nextSetBit(700));
+		assertEquals(-1, bitmap.nextSetBit(701));
+	}
+
+	@Test
+	public void nextClearBitPassesFullWords() {
+		Bitmap bitmap = new Bitmap();
+		for (int i = 0; i < 130; i++) {
+			bitmap.set(i);
+		}
+		assertEquals(130, bitmap.nextClearBit(0));
+		bitmap.clear(70);
+		assertEquals(70, bitmap.nextClearBit(0));
+		assertEquals(130, bitmap.nextClearBit(71));
+		assertEquals(500, bitmap.nextClearBit(500));
+	}
+
+	/* После сброса всех битов карта пуста, а пересечения с ней не видят старых слов */
+	@Test
+	public void clearingHighBitsTrimsBitmap() {
+		Bitmap bitmap = new Bitmap();
+		bitmap.set(200);
+		bitmap.clear(200);
+		assertTrue(bitmap.isEmpty());
+		Bitmap other = new Bitmap();
+		other.set(200);
+		assertEquals(0, other.andCardinality(bitmap));
+		bitmap.set(5);
+		bitmap.clearAll();
+		assertTrue(bitmap.isEmpty());
+		assertEquals(-1, bitmap.nextSetBit(0));
+	}
+
+	@Test
+	public void copyIsIndependent() {
+		Bitmap bitmap = new Bitmap();
+		bitmap.set(10);
+		Bitmap copy = bitmap.copy();
+		copy.set(20);
+		bitmap.clear(10);
+		assertTrue(copy.get(10));
+		assertTrue(copy.get(20));
+		assertTrue(bitmap.isEmpty());
+	}
+
+	/* Случайные карты разной длины: and, or и andCardinality совпадают с BitSet */
+	@Test
+	public void setOperationsMatchBitSet() {
+		Random random = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			BitSet expectedFirst = new BitSet();
+			BitSet expectedSecond = new BitSet();
+			Bitmap first = BitmapTest.random(random, expectedFirst);
+			Bitmap second = BitmapTest.random(random, expectedSecond);
+
+			BitSet expectedAnd = (BitSet) expectedFirst.clone();
+			expectedAnd.and(expectedSecond);
+			assertEquals(expectedAnd.cardinality(), first.andCardinality(second));
+			assertEquals(expectedAnd.cardinality(), second.andCardinality(first));
+
+			Bitmap and = first.copy();
+			and.and(second);
+			BitmapTest.assertSameBits(expectedAnd, and);
+
+			BitSet expectedOr = (BitSet) expectedFirst.clone();
+			expectedOr.or(expectedSecond);
+			Bitmap or = first.copy();
+			or.or(second);
+			BitmapTest.assertSameBits(expectedOr, or);
+
+			BitmapTest.assertSameBits(expectedFirst, first);
+			BitmapTest.assertSameBits(expectedSecond, second);
+		}
+	}
+
+	private static Bitmap random(Random random, BitSet expected) {
+		Bitmap bitmap = new Bitmap();
+		int length = 1 + random.nextInt(600);
+		for (int i = random.nextInt(length); i < length; i += 1 + random.nextInt(20)) {
+			bitmap.set(i);
+			expected.set(i);
+		}
+		return bitmap;
+	}
+
+	private static void assertSameBits(BitSet expected, Bitmap actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		for (int i = expected.nextSetBit(0), bit = actual.nextSetBit(0); i >= 0 || bit >= 0; i = expected
+				.nextSetBit(i + 1), bit = actual.nextSetBit(bit + 1)) {
+			assertEquals(i, bit);
+		}
+	}
+
+}
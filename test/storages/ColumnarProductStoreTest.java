@@ -0,0 +1,193 @@
+package storages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import models.Product;
+
+/**
+ * Тесты хранилища товаров по столбцам: товар возвращается таким, каким был
+ * записан, версия растет при каждом изменении, а параллельное списание не
+ * продает больше, чем есть на складе.
+ *
+ * @author Anatolii Melchenko
+ */
+public class ColumnarProductStoreTest {
+
+	@Test
+	public void putAndGetRoundTrip() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		Product product = product(1, 5);
+		product.setVersion(3);
+		store.put(product);
+		store.put(new Product(2, "empty", 4, null, 0, null, null, null, 0));
+
+		Product stored = store.get(1);
+		assertEquals("product 1", stored.getProductName());
+		assertEquals(2, stored.getCategoryId());
+		assertEquals("Apple", stored.getManufacturerName());
+		assertEquals(1999, stored.getPrice());
+		assertEquals(java.sql.Date.valueOf("2018-03-01"), stored.getCreationDate());
+		assertEquals("red", stored.getColour());
+		assertEquals("XL", stored.getSize());
+		assertEquals(5, stored.getAmount());
+		assertEquals(3, stored.getVersion());
+
+		Product empty = store.get(2);
+		assertNull(empty.getManufacturerName());
+		assertNull(empty.getCreationDate());
+		assertNull(empty.getColour());
+		assertNull(empty.getSize());
+		assertNull(store.get(3));
+		assertEquals(2, store.size());
+	}
+
+	/* Выданный товар - копия: его изменение не попадает в хранилище */
+	@Test
+	public void returnedProductIsCopy() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		store.put(product(1, 5));
+		store.get(1).setColour("green");
+		assertEquals("red", store.get(1).getColour());
+	}
+
+	@Test
+	public void updateKeepsAmountAndBumpsVersion() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		store.put(product(1, 5));
+		Product changed = product(1, 100);
+		changed.setColour("green");
+		assertTrue(store.update(changed));
+		Product stored = store.get(1);
+		assertEquals("green", stored.getColour());
+		assertEquals(5, stored.getAmount());
+		assertEquals(1, stored.getVersion());
+		assertFalse(store.update(product(2, 1)));
+	}
+
+	@Test
+	public void versionedUpdateRejectsStaleVersion() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		store.put(product(1, 5));
+		Product read = store.get(1);
+
+		/* Продажа после чтения увеличивает версию */
+		assertTrue(store.tryDecreaseAmount(1, 2));
+		read.setAmount(50);
+		assertFalse(store.update(read, read.getVersion(), true));
+		assertEquals(3, store.get(1).getAmount());
+
+		Product fresh = store.get(1);
+		fresh.setAmount(50);
+		fresh.setColour("black");
+		assertTrue(store.update(fresh, fresh.getVersion(), false));
+		assertEquals(3, store.get(1).getAmount());
+		assertEquals("black", store.get(1).getColour());
+		assertEquals(fresh.getVersion() + 1, store.get(1).getVersion());
+
+		fresh = store.get(1);
+		fresh.setAmount(50);
+		assertTrue(store.update(fresh, fresh.getVersion(), true));
+		assertEquals(50, store.get(1).getAmount());
+	}
+
+	@Test
+	public void decreaseAndIncreaseAmount() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		store.put(product(1, 5));
+		assertFalse(store.tryDecreaseAmount(1, 6));
+		assertFalse(store.tryDecreaseAmount(2, 1));
+		assertEquals(0, store.get(1).getVersion());
+		assertTrue(store.tryDecreaseAmount(1, 5));
+		assertEquals(0, store.get(1).getAmount());
+		store.increaseAmount(1, 2);
+		assertEquals(2, store.get(1).getAmount());
+		assertEquals(2, store.get(1).getVersion());
+	}
+
+	/* Покупатели одновременно покупают по одной единице: продается ровно остаток */
+	@Test
+	public void concurrentDecreaseNeverOversells() throws Exception {
+		final int stock = 1000;
+		final int threads = 8;
+		final ColumnarProductStore store = new ColumnarProductStore();
+		store.put(product(1, stock));
+		for (int id = 2; id < 100; id++) {
+			store.put(product(id, 1));
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int sold = 0;
+						for (int attempt = 0; attempt < stock; attempt++) {
+							if (store.tryDecreaseAmount(1, 1)) {
+								sold++;
+							}
+						}
+						return sold;
+					}
+				}));
+			}
+			start.countDown();
+			int sold = 0;
+			for (Future<Integer> result : results) {
+				sold += result.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(stock, sold);
+			assertEquals(0, store.get(1).getAmount());
+			assertEquals(stock, store.get(1).getVersion());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/* Позиция удаленного товара занимается новым, остальные товары не затрагиваются */
+	@Test
+	public void removedSlotIsReused() {
+		ColumnarProductStore store = new ColumnarProductStore();
+		for (int id = 1; id <= 200; id++) {
+			store.put(product(id, id));
+		}
+		for (int id = 1; id <= 200; id += 2) {
+			store.remove(id);
+		}
+		store.remove(1);
+		assertEquals(100, store.size());
+		assertFalse(store.contains(1));
+		assertNull(store.findByProductName("product 1"));
+
+		store.put(product(1001, 7));
+		assertEquals(101, store.size());
+		assertEquals(7, store.get(1001).getAmount());
+		for (int id = 2; id <= 200; id += 2) {
+			assertEquals(id, store.get(id).getAmount());
+		}
+		assertEquals(101, store.values().size());
+		assertEquals(1001, store.findByProductName("PRODUCT 1001").getId());
+	}
+
+	private static Product product(int id, int amount) {
+		return new Product(id, "product " + id, 2, "Apple", 1999, java.sql.Date.valueOf("2018-03-01"), "red", "XL",
+				amount);
+	}
+
+}
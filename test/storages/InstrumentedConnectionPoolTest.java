@@ -0,0 +1,316 @@
+package storages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Тесты пула соединений. Вместо БД используется драйвер-заглушка, который
+ * считает открытые физические соединения, поэтому проверяется, что пул не
+ * открывает больше maxSize соединений и не выдает одно соединение двоим.
+ *
+ * @author Anatolii Melchenko
+ */
+public class InstrumentedConnectionPoolTest {
+
+	private static final String URL = "jdbc:fakepool:test";
+	private static final int MAX_SIZE = 4;
+
+	private static final FakeDriver DRIVER = new FakeDriver();
+
+	private InstrumentedConnectionPool pool;
+
+	@BeforeClass
+	public static void registerDriver() throws SQLException {
+		DriverManager.registerDriver(DRIVER);
+	}
+
+	@AfterClass
+	public static void deregisterDriver() throws SQLException {
+		DriverManager.deregisterDriver(DRIVER);
+	}
+
+	@Before
+	public void setUp() {
+		DRIVER.reset();
+		/* Фоновая проверка не запускается во время теста */
+		pool = new InstrumentedConnectionPool(URL, new Properties(), MAX_SIZE, 1, 50, 600000, 0, 0);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void warmUpOpensMinIdleConnections() {
+		assertEquals(1, DRIVER.open.get());
+		assertEquals(1, pool.getStats().getIdle());
+		assertEquals(0, pool.getStats().getActive());
+	}
+
+	/* Потоков больше, чем соединений: одновременно выдано не больше maxSize */
+	@Test
+	public void concurrentBorrowsNeverExceedMaxSize() throws Exception {
+		final int threads = MAX_SIZE * 3;
+		final AtomicInteger inUse = new AtomicInteger();
+		final AtomicInteger maxInUse = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		/* Отдельный пул с долгим ожиданием, чтобы ни одна выдача не завершилась по таймауту */
+		final InstrumentedConnectionPool waitingPool = new InstrumentedConnectionPool(URL, new Properties(), MAX_SIZE, 0,
+				10000, 600000, 0, 0);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int borrows = 0;
+						for (int attempt = 0; attempt < 200; attempt++) {
+							try (Connection connection = waitingPool.getConnection()) {
+								int current = inUse.incrementAndGet();
+								maxInUse.accumulateAndGet(current, Math::max);
+								assertFalse(connection.isClosed());
+								connection.clearWarnings();
+								inUse.decrementAndGet();
+								borrows++;
+							}
+						}
+						return borrows;
+					}
+				}));
+			}
+			start.countDown();
+			int borrows = 0;
+			for (Future<Integer> result : results) {
+				borrows += result.get(60, TimeUnit.SECONDS);
+			}
+			assertEquals(threads * 200, borrows);
+			assertTrue(maxInUse.get() <= MAX_SIZE);
+			/* Плюс одно соединение, открытое при прогреве пула из setUp */
+			assertTrue(DRIVER.maxOpen.get() <= MAX_SIZE + 1);
+			assertEquals(0, DRIVER.sharedUse.get());
+			assertEquals(0, waitingPool.getStats().getActive());
+			assertEquals(threads * 200, waitingPool.getStats().getBorrows());
+		} finally {
+			executor.shutdownNow();
+			waitingPool.shutdown();
+		}
+	}
+
+	@Test
+	public void borrowTimesOutWhenPoolIsExhausted() throws Exception {
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < MAX_SIZE; i++) {
+			connections.add(pool.getConnection());
+		}
+		assertEquals(MAX_SIZE, DRIVER.open.get());
+		try {
+			pool.getConnection();
+			fail("Pool lent more than " + MAX_SIZE + " connections");
+		} catch (SQLTimeoutException e) {
+			/* ожидаемо */
+		}
+		assertEquals(1, pool.getStats().getBorrowTimeouts());
+		connections.get(0).close();
+		pool.getConnection().close();
+		assertEquals(MAX_SIZE, DRIVER.open.get());
+		for (Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/* Повторный close() старой выдачи не возвращает в пул соединение, выданное заново */
+	@Test
+	public void closingOldLeaseTwiceDoesNotAffectNewLease() throws Exception {
+		Connection first = pool.getConnection();
+		first.close();
+		Connection second = pool.getConnection();
+		first.close();
+		assertEquals(1, pool.getStats().getActive());
+		assertTrue(first.isClosed());
+		assertFalse(second.isClosed());
+		try {
+			first.clearWarnings();
+			fail("Returned connection is still usable");
+		} catch (SQLException e) {
+			/* ожидаемо */
+		}
+		second.clearWarnings();
+		second.close();
+		assertEquals(0, pool.getStats().getActive());
+		assertEquals(1, DRIVER.open.get());
+	}
+
+	/* Незавершенная транзакция откатывается при возврате соединения */
+	@Test
+	public void returnedConnectionIsRolledBack() throws Exception {
+		Connection connection = pool.getConnection();
+		connection.setAutoCommit(false);
+		connection.close();
+		assertEquals(1, DRIVER.rollbacks.get());
+		connection = pool.getConnection();
+		assertTrue(connection.getAutoCommit());
+		connection.close();
+	}
+
+	/* Соединение, потерявшее связь с сервером, закрывается, а не возвращается в пул */
+	@Test
+	public void brokenConnectionIsDestroyed() throws Exception {
+		Connection connection = pool.getConnection();
+		DRIVER.breakConnections = true;
+		try {
+			connection.createStatement();
+			fail("Broken connection did not throw");
+		} catch (SQLException e) {
+			assertEquals("08006", e.getSQLState());
+		}
+		DRIVER.breakConnections = false;
+		connection.close();
+		assertEquals(0, DRIVER.open.get());
+		assertEquals(1, pool.getStats().getDestroyed());
+		pool.getConnection().close();
+		assertEquals(2, pool.getStats().getCreated());
+	}
+
+	/*
+	 * Драйвер-заглушка: физическое соединение - прокси, который помнит режим
+	 * autoCommit и считает обращения; одновременное обращение двух потоков к
+	 * одному соединению увеличивает sharedUse.
+	 */
+	private static class FakeDriver implements Driver {
+
+		final AtomicInteger open = new AtomicInteger();
+		final AtomicInteger maxOpen = new AtomicInteger();
+		final AtomicInteger rollbacks = new AtomicInteger();
+		final AtomicInteger sharedUse = new AtomicInteger();
+		volatile boolean breakConnections;
+
+		void reset() {
+			open.set(0);
+			maxOpen.set(0);
+			rollbacks.set(0);
+			sharedUse.set(0);
+			breakConnections = false;
+		}
+
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!this.acceptsURL(url)) {
+				return null;
+			}
+			maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new FakeConnection());
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url != null && url.startsWith("jdbc:fakepool:");
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		private class FakeConnection implements InvocationHandler {
+
+			private final AtomicInteger users = new AtomicInteger();
+			private boolean autoCommit = true;
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (users.incrementAndGet() > 1) {
+					sharedUse.incrementAndGet();
+				}
+				try {
+					switch (method.getName()) {
+					case "close":
+						if (!closed) {
+							closed = true;
+							open.decrementAndGet();
+						}
+						return null;
+					case "isClosed":
+						return closed;
+					case "getAutoCommit":
+						return autoCommit;
+					case "setAutoCommit":
+						autoCommit = (Boolean) args[0];
+						return null;
+					case "rollback":
+						rollbacks.incrementAndGet();
+						return null;
+					case "isValid":
+						return !closed;
+					case "clearWarnings":
+						return null;
+					case "toString":
+						return "FakeConnection";
+					default:
+						if (breakConnections) {
+							throw new SQLException("Connection reset", "08006");
+						}
+						return null;
+					}
+				} finally {
+					users.decrementAndGet();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package storages;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.Money;
+import models.Product;
+import models.ProductFacets;
+
+/**
+ * Тесты индекса поиска товаров. Результаты должны совпадать с выборкой
+ * QUERY_FIND_PRODUCTS: пустые условия не ограничивают выборку, границы цены
+ * включаются, товары без цвета подходят под любой цвет.
+ *
+ * @author Anatolii Melchenko
+ */
+public class ProductSearchIndexTest {
+
+	private static final long[] PRICE_BUCKETS = { 0, Money.parse("100"), Money.parse("500") };
+
+	private ProductSearchIndex index;
+
+	@Before
+	public void setUp() {
+		/* Без ограничения времени подсчет фасетов всегда полный */
+		index = new ProductSearchIndex(PRICE_BUCKETS, Long.MAX_VALUE);
+		index.rebuild(Arrays.asList(
+				product(1, "Apple", "50", "red"),
+				product(2, "Apple", "100", "green"),
+				product(3, "Samsung", "100", null),
+				product(4, "Samsung", "499.99", "red"),
+				product(5, "Nokia", "500", "black"),
+				product(6, "Nokia", "1000", "red")));
+	}
+
+	@Test
+	public void emptyConditionsFindAllProducts() {
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6 }, sorted(index.find(null, null, null, null)));
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6 }, sorted(index.find("", "", "", "")));
+	}
+
+	@Test
+	public void priceBoundsAreInclusive() {
+		assertArrayEquals(new int[] { 2, 3, 4, 5 }, sorted(index.find(null, "100", "500", null)));
+		assertArrayEquals(new int[] { 5, 6 }, sorted(index.find(null, "500", "", null)));
+		assertArrayEquals(new int[] { 1 }, sorted(index.find(null, "", "99.99", null)));
+		assertArrayEquals(new int[0], index.find(null, "2000", null, null));
+	}
+
+	@Test
+	public void productWithoutColourMatchesAnyColour() {
+		assertArrayEquals(new int[] { 1, 3, 4, 6 }, sorted(index.find(null, null, null, "red")));
+		assertArrayEquals(new int[] { 3 }, sorted(index.find(null, null, null, "white")));
+		assertArrayEquals(new int[] { 3, 4 }, sorted(index.find("Samsung", null, null, "red")));
+	}
+
+	@Test
+	public void unknownManufacturerFindsNothing() {
+		assertArrayEquals(new int[0], index.find("Sony", null, null, null));
+	}
+
+	@Test
+	public void putUpdatesAttributesAndRemoveFreesSlot() {
+		index.put(product(1, "Nokia", "700", "black"));
+		assertArrayEquals(new int[] { 2 }, sorted(index.find("Apple", null, null, null)));
+		assertArrayEquals(new int[] { 1, 5, 6 }, sorted(index.find("Nokia", null, null, null)));
+		assertArrayEquals(new int[] { 1 }, sorted(index.find(null, "600", "800", null)));
+
+		index.remove(5);
+		index.remove(42);
+		assertArrayEquals(new int[] { 1, 3 }, sorted(index.find(null, null, null, "black")));
+
+		/* Освободившаяся позиция занимается новым товаром */
+		index.put(product(7, "Sony", "500", "white"));
+		assertArrayEquals(new int[] { 7 }, sorted(index.find("Sony", "500", "500", null)));
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 6, 7 }, sorted(index.find(null, null, null, null)));
+	}
+
+	@Test
+	public void rebuildReplacesWholeCatalog() {
+		index.rebuild(Collections.singletonList(product(10, "Sony", "10", null)));
+		assertArrayEquals(new int[] { 10 }, index.find(null, null, null, "red"));
+		assertArrayEquals(new int[0], index.find("Apple", null, null, null));
+	}
+
+	/* Значения фасета считаются при всех условиях фильтра, кроме условия по самому фасету */
+	@Test
+	public void facetsIgnoreOwnCondition() {
+		ProductFacets facets = index.facets("Samsung", "", "", "red");
+		assertTrue(facets.isComplete());
+		assertEquals(2, facets.getTotal());
+
+		/* Производители - с учетом только цвета */
+		assertEquals("{Apple=1, Nokia=1, Samsung=2}", facets.getManufacturers().toString());
+
+		/* Цвета - только по Samsung; товар без цвета добавляется к каждому цвету */
+		assertEquals("{red=2}", facets.getColours().toString());
+
+		/* Цены - по Samsung и красному цвету */
+		assertEquals(3, facets.getPriceBuckets().size());
+		assertEquals(0, facets.getPriceBuckets().get(0).getCount());
+		assertEquals(2, facets.getPriceBuckets().get(1).getCount());
+		assertEquals(0, facets.getPriceBuckets().get(2).getCount());
+		assertEquals(Long.valueOf(Money.parse("500")), facets.getPriceBuckets().get(1).getMax());
+		assertEquals(null, facets.getPriceBuckets().get(2).getMax());
+	}
+
+	@Test
+	public void facetsWithPriceCondition() {
+		ProductFacets facets = index.facets(null, "100", "500", null);
+		assertEquals(4, facets.getTotal());
+		assertEquals("{Apple=1, Nokia=1, Samsung=2}", facets.getManufacturers().toString());
+		assertEquals("{black=2, green=2, red=2}", facets.getColours().toString());
+		assertEquals(1, facets.getPriceBuckets().get(0).getCount());
+		assertEquals(3, facets.getPriceBuckets().get(1).getCount());
+		assertEquals(2, facets.getPriceBuckets().get(2).getCount());
+	}
+
+	private static Product product(int id, String manufacturer, String price, String colour) {
+		return new Product(id, "product " + id, 1, manufacturer, Money.parse(price), null, colour, null, 1);
+	}
+
+	private static int[] sorted(int[] ids) {
+		int[] copy = ids.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+
+}
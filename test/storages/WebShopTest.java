@@ -0,0 +1,143 @@
+package storages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import models.IntObjectMap;
+import models.Order;
+import models.OrderStatus;
+import models.Product;
+
+/**
+ * Тесты хранилища в памяти. Магазин - единственный экземпляр на приложение,
+ * поэтому каждый тест добавляет свои товары с новыми ID и не рассчитывает на
+ * состав каталога.
+ *
+ * @author Anatolii Melchenko
+ */
+public class WebShopTest {
+
+	private final WebShop shop = WebShop.getInstance();
+
+	@Test
+	public void productsAreFoundById() {
+		int first = this.addProduct("Lookup " + System.nanoTime(), 3);
+		int second = this.addProduct("Lookup " + System.nanoTime(), 4);
+		assertEquals(3, shop.getProductById(first).getAmount());
+		assertNull(shop.getProductById(-1));
+
+		IntObjectMap<Product> found = shop.getProductsByIds(second, -1, first);
+		assertEquals(2, found.size());
+		assertEquals(second, found.keyAt(0));
+		assertEquals(first, found.keyAt(1));
+	}
+
+	/* Поиск по наименованию без учета регистра; из одноименных товаров выдается последний */
+	@Test
+	public void productIsFoundByNameIgnoringCase() {
+		String name = "Монитор Dell " + System.nanoTime();
+		this.addProduct(name, 1);
+		int last = this.addProduct(name.toUpperCase(), 2);
+		assertEquals(last, shop.getProductByProductName(name.toLowerCase()).getId());
+
+		/* Если товара нет, выдается товар без наименования */
+		assertNull(shop.getProductByProductName("Нет такого товара " + System.nanoTime()).getProductName());
+	}
+
+	/*
+	 * Каждый заказ группы оформляется отдельно: заказ, которому не хватило
+	 * товара, отклоняется, а уже списанные по нему строки возвращаются на склад.
+	 */
+	@Test
+	public void batchRejectsOnlyShortOrders() {
+		int plenty = this.addProduct("Batch " + System.nanoTime(), 10);
+		int scarce = this.addProduct("Batch " + System.nanoTime(), 1);
+		String login = "batch" + System.nanoTime();
+		List<OrderResult> results = shop.makeOrders(Arrays.asList(
+				this.order(login, plenty, 2, scarce, 1),
+				this.order("bob", plenty, 3, scarce, 1),
+				this.order("carol", plenty, 4)));
+
+		assertTrue(results.get(0).isPlaced());
+		assertFalse(results.get(1).isPlaced());
+		assertEquals(Arrays.asList(scarce), results.get(1).getOutOfStock().getShortProductIds());
+		assertTrue(results.get(2).isPlaced());
+		assertEquals(4, shop.getProductById(plenty).getAmount());
+		assertEquals(0, shop.getProductById(scarce).getAmount());
+		assertEquals(results.get(0).getOrderId(), shop.getUserOrders(login).valueAt(0).getId());
+	}
+
+	/* Одновременные группы заказов одного товара не продают больше остатка */
+	@Test
+	public void concurrentBatchesNeverOversell() throws Exception {
+		final int stock = 500;
+		final int product = this.addProduct("Concurrent " + System.nanoTime(), stock);
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> placed = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				placed.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int count = 0;
+						for (int batch = 0; batch < 50; batch++) {
+							List<Order> orders = new ArrayList<>();
+							for (int j = 0; j < 5; j++) {
+								orders.add(WebShopTest.this.order("user", product, 1));
+							}
+							for (OrderResult result : shop.makeOrders(orders)) {
+								if (result.isPlaced()) {
+									count++;
+								}
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			start.countDown();
+			int total = 0;
+			for (Future<Integer> result : placed) {
+				total += result.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(stock, total);
+			assertEquals(0, shop.getProductById(product).getAmount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/* Заказ из пар "ID товара, количество" */
+	private Order order(String login, int... productAmounts) {
+		IntObjectMap<Product> orderedProducts = new IntObjectMap<>();
+		for (int i = 0; i < productAmounts.length; i += 2) {
+			Product product = shop.getProductById(productAmounts[i]);
+			product.setAmount(productAmounts[i + 1]);
+			orderedProducts.put(product.getId(), product);
+		}
+		return new Order(0, login, orderedProducts, OrderStatus.REGISTERED);
+	}
+
+	private int addProduct(String name, int amount) {
+		return shop.addProduct(
+				new Product(shop.generateProductId(), name, 1, "Dell", 1000, null, null, null, amount));
+	}
+
+}